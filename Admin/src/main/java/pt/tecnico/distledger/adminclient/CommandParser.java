@@ -3,7 +3,12 @@ package pt.tecnico.distledger.adminclient;
 import pt.tecnico.distledger.adminclient.exceptions.AdminException;
 import pt.tecnico.distledger.adminclient.service.AdminNamingServerService;
 import pt.tecnico.distledger.adminclient.service.AdminService;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.OperationType;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.Server;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.Stability;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.StartRecordingRequest;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.WatchLedgerRequest;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getLedgerStateRequest;
 
 import static pt.tecnico.distledger.adminclient.exceptions.AdminException.ErrorMessages.*;
 
@@ -21,11 +26,34 @@ public class CommandParser {
     private static final String DEACTIVATE = "deactivate";
     private static final String GET_LEDGER_STATE = "getLedgerState";
     private static final String GOSSIP = "gossip";
+    private static final String GET_METRICS = "getMetrics";
+    private static final String TAIL = "tail";
+    private static final String START_RECORDING = "startRecording";
+    private static final String STOP_RECORDING = "stopRecording";
     private static final String HELP = "help";
     private static final String EXIT = "exit";
 
     private static final String SERVICE_NAME = "DistLedger";
 
+    /** Options of getLedgerState, given as option=value */
+    private static final String OPTION_SEPARATOR = "=";
+    private static final String PAGE_SIZE = "pageSize";
+    private static final String PAGE_TOKEN = "pageToken";
+    private static final String ACCOUNT = "account";
+    private static final String TYPE = "type";
+    private static final String STABLE = "stable";
+    private static final String MIN_TS = "minTS";
+    private static final String MAX_TS = "maxTS";
+    private static final String CREATE_ACCOUNT = "createAccount";
+    private static final String TRANSFER_TO = "transferTo";
+
+    /** Option of tail, given as option=value */
+    private static final String FROM = "from";
+
+    /** Options of startRecording, given as option=value */
+    private static final String CONFIGURATION = "configuration";
+    private static final String MESSAGES = "messages";
+
     /** Map to associate the server qualifier to the corresponding admin service */
     private final Map<String, AdminService> adminServices;
 
@@ -65,6 +93,22 @@ public class CommandParser {
                         this.gossip(line);
                         break;
 
+                    case GET_METRICS:
+                        this.metrics(line);
+                        break;
+
+                    case TAIL:
+                        this.tail(line, scanner);
+                        break;
+
+                    case START_RECORDING:
+                        this.startRecording(line);
+                        break;
+
+                    case STOP_RECORDING:
+                        this.stopRecording(line);
+                        break;
+
                     case HELP:
                         this.printUsage();
                         break;
@@ -128,6 +172,7 @@ public class CommandParser {
 
     /**
      * Dumps the current state of the ledger in the specified server.
+     * With a page size only one page is shown, and the next one is requested with the printed nextPageToken.
      * 
      * @param line the command line input
      * @throws AdminException if the command line input is invalid or there is an issue with the admin service
@@ -135,18 +180,94 @@ public class CommandParser {
     private void dump(String line) throws AdminException {
         String[] split = line.split(SPACE);
 
-        if (split.length != 2) {
+        if (split.length < 2) {
             this.printUsage();
             throw new AdminException(INVALID_NUM_ARGS);
         }
         String server = split[1];
 
-        String ledgerState = lookupServices(server).getLedgerState();
+        getLedgerStateRequest.Builder request = getLedgerStateRequest.newBuilder();
+        for (int i = 2; i < split.length; i++)
+            addOption(request, split[i]);
+
+        String ledgerState = lookupServices(server).getLedgerState(request.build());
 
         System.out.println(Status.OK.getCode());
         System.out.println(ledgerState);
     }
 
+    /**
+     * Adds an option of getLedgerState to the request
+     * 
+     * @param request the request being built
+     * @param option the option, as option=value
+     * @throws AdminException if the option is unknown or its value is invalid
+     */
+    private void addOption(getLedgerStateRequest.Builder request, String option) throws AdminException {
+        String[] split = option.split(OPTION_SEPARATOR, 2);
+        if (split.length != 2 || split[1].isEmpty()) {
+            this.printUsage();
+            throw new AdminException(INVALID_OPTION);
+        }
+        String value = split[1];
+        try {
+            switch (split[0]) {
+                case PAGE_SIZE:
+                    request.setPageSize(Integer.parseInt(value));
+                    return;
+                case PAGE_TOKEN:
+                    request.setPageToken(value);
+                    return;
+                case ACCOUNT:
+                    request.setAccount(value);
+                    return;
+                case TYPE:
+                    if (value.equals(CREATE_ACCOUNT))
+                        request.setType(OperationType.OP_CREATE_ACCOUNT);
+                    else if (value.equals(TRANSFER_TO))
+                        request.setType(OperationType.OP_TRANSFER_TO);
+                    else
+                        break;
+                    return;
+                case STABLE:
+                    if (!value.equals("true") && !value.equals("false"))
+                        break;
+                    request.setStability(Boolean.parseBoolean(value) ? Stability.STABILITY_STABLE : Stability.STABILITY_UNSTABLE);
+                    return;
+                case MIN_TS:
+                    request.putAllMinTS(parseTimeStamps(value));
+                    return;
+                case MAX_TS:
+                    request.putAllMaxTS(parseTimeStamps(value));
+                    return;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException exception) {
+            // falls through to the invalid option error
+        }
+        this.printUsage();
+        throw new AdminException(INVALID_OPTION);
+    }
+
+    /**
+     * Parses a timestamp given as qualifier:value pairs separated by commas
+     * 
+     * @param value the timestamp, e.g. A:3,B:1
+     * @return map of the timestamps by the qualifier
+     * @throws NumberFormatException if a pair is not valid
+     */
+    private static Map<String, Integer> parseTimeStamps(String value) {
+        Map<String, Integer> timeStamps = new HashMap<>();
+        for (String entry : value.split(",")) {
+            String[] pair = entry.split(":");
+            if (pair.length != 2)
+                throw new NumberFormatException(entry);
+            timeStamps.put(pair[0], Integer.parseInt(pair[1]));
+        }
+        return timeStamps;
+    }
+
     private void gossip(String line) throws AdminException {
         String[] split = line.split(SPACE);
 
@@ -155,9 +276,141 @@ public class CommandParser {
             throw new AdminException(INVALID_NUM_ARGS);
         }
         String server = split[1];
-        lookupServices(server).gossip();
+        String result = lookupServices(server).gossip();
+
+        System.out.println(Status.OK.getCode());
+        System.out.println(result);
+    }
+
+    /**
+     * Prints the metrics of the given server
+     * 
+     * @param line the command line input
+     * @throws AdminException if the command has the wrong number of arguments or the request failed
+     */
+    private void metrics(String line) throws AdminException {
+        String[] split = line.split(SPACE);
+
+        if (split.length != 2) {
+            this.printUsage();
+            throw new AdminException(INVALID_NUM_ARGS);
+        }
+        String server = split[1];
+        String metrics = lookupServices(server).getMetrics();
+
+        System.out.println(Status.OK.getCode());
+        System.out.print(metrics);
+    }
+
+    /**
+     * Prints the operations of the ledger of the given server as they are registered and executed, until enter
+     * is pressed. Without a position only the new ones are printed; with one, the stable operations from that 
+     * position and the unstable ones are printed first.
+     * 
+     * @param line the command line input
+     * @param scanner the scanner of the input, read until enter is pressed
+     * @throws AdminException if the command line input is invalid or the server is not found
+     */
+    private void tail(String line, Scanner scanner) throws AdminException {
+        String[] split = line.split(SPACE);
+
+        if (split.length < 2 || split.length > 3) {
+            this.printUsage();
+            throw new AdminException(INVALID_NUM_ARGS);
+        }
+        String server = split[1];
+
+        WatchLedgerRequest.Builder request = WatchLedgerRequest.newBuilder().setFromPosition(-1);
+        if (split.length == 3)
+            request.setFromPosition(parsePosition(split[2]));
+
+        Runnable stop = lookupServices(server).tail(request.build(), System.out::println, System.err::println);
+        System.out.println(Status.OK.getCode());
+        scanner.nextLine();
+        stop.run();
+    }
+
+    /**
+     * Parses the position option of tail
+     * 
+     * @param option the option, as from=position
+     * @return the position
+     * @throws AdminException if the option is unknown or the position is not a number or negative
+     */
+    private int parsePosition(String option) throws AdminException {
+        String[] split = option.split(OPTION_SEPARATOR, 2);
+        try {
+            if (split.length == 2 && split[0].equals(FROM) && Integer.parseInt(split[1]) >= 0)
+                return Integer.parseInt(split[1]);
+        } catch (NumberFormatException exception) {
+            // falls through to the invalid option error
+        }
+        this.printUsage();
+        throw new AdminException(INVALID_OPTION);
+    }
+
+    /**
+     * Starts a recording of the trace events of the given server
+     * 
+     * @param line the command line input
+     * @throws AdminException if the command line input is invalid or the request failed
+     */
+    private void startRecording(String line) throws AdminException {
+        String[] split = line.split(SPACE);
+
+        if (split.length < 2) {
+            this.printUsage();
+            throw new AdminException(INVALID_NUM_ARGS);
+        }
+        String server = split[1];
+
+        StartRecordingRequest.Builder request = StartRecordingRequest.newBuilder();
+        for (int i = 2; i < split.length; i++)
+            addRecordingOption(request, split[i]);
+
+        lookupServices(server).startRecording(request.build());
+        System.out.println(Status.OK.getCode());
+    }
+
+    /**
+     * Adds an option of startRecording to the request
+     * 
+     * @param request the request being built
+     * @param option the option, as option=value
+     * @throws AdminException if the option is unknown or its value is invalid
+     */
+    private void addRecordingOption(StartRecordingRequest.Builder request, String option) throws AdminException {
+        String[] split = option.split(OPTION_SEPARATOR, 2);
+        if (split.length == 2 && split[0].equals(CONFIGURATION) && !split[1].isEmpty()) {
+            request.setConfiguration(split[1]);
+            return;
+        }
+        if (split.length == 2 && split[0].equals(MESSAGES) && (split[1].equals("true") || split[1].equals("false"))) {
+            request.setMessages(Boolean.parseBoolean(split[1]));
+            return;
+        }
+        this.printUsage();
+        throw new AdminException(INVALID_OPTION);
+    }
+
+    /**
+     * Stops the recording of the given server, which writes it to a file on the host of the server
+     * 
+     * @param line the command line input
+     * @throws AdminException if the command has the wrong number of arguments or the request failed
+     */
+    private void stopRecording(String line) throws AdminException {
+        String[] split = line.split(SPACE);
+
+        if (split.length != 2) {
+            this.printUsage();
+            throw new AdminException(INVALID_NUM_ARGS);
+        }
+        String server = split[1];
+        String path = lookupServices(server).stopRecording();
 
         System.out.println(Status.OK.getCode());
+        System.out.println(path);
     }
 
     private AdminService lookupServices(String server) throws AdminException{
@@ -181,8 +434,13 @@ public class CommandParser {
         System.out.println("Usage:\n" +
                 "- activate <server>\n" +
                 "- deactivate <server>\n" +
-                "- getLedgerState <server>\n" +
+                "- getLedgerState <server> [pageSize=<n>] [pageToken=<token>] [account=<account>]\n" +
+                "      [type=createAccount|transferTo] [stable=true|false] [minTS=<A:n,B:n>] [maxTS=<A:n,B:n>]\n" +
                 "- gossip <server>\n" +
+                "- getMetrics <server>\n" +
+                "- tail <server> [from=<position>]   (press enter to stop)\n" +
+                "- startRecording <server> [configuration=default|profile] [messages=true|false]\n" +
+                "- stopRecording <server>\n" +
                 "- exit\n");
     }
 
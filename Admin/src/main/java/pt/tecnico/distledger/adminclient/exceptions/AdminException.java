@@ -9,6 +9,7 @@ public class AdminException extends Exception {
 
         public static final String INVALID_COMMAND = "Error: Invalid Command";
         public static final String INVALID_NUM_ARGS = "Error: Wrong number of arguments for command";
+        public static final String INVALID_OPTION = "Error: Invalid option for command";
         public static final String UNKNOWN_COMMAND = "Error: Unknown command";
         public static final String SERVER_NOT_FOUND = "Error: Server not found";
     }
@@ -4,6 +4,14 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.google.protobuf.TextFormat;
 
 import pt.tecnico.distledger.adminclient.exceptions.AdminException;
 import static pt.tecnico.distledger.adminclient.exceptions.AdminException.ErrorMessages.*;
@@ -29,6 +37,28 @@ public class AdminService {
     private static final String GET_SERVER_STATE_REQUEST = "Get server state request sent";
     private static final String GET_SERVERS_STATE_RESPONSE = "Get server state response received";
 
+    private static final String NEXT_PAGE = "nextPageToken: %s";
+
+    private static final String WATCH_LEDGER_REQUEST = "Watch ledger request sent";
+    private static final String WATCH_LEDGER_ENDED = "Watch ledger ended";
+    private static final String TAIL_STABLE = "stable %d: %s";
+    private static final String TAIL_UNSTABLE = "unstable: %s";
+    private static final String TAIL_STOPPED = "Tail stopped";
+
+    private static final String GET_METRICS_REQUEST = "Get metrics request sent";
+    private static final String GET_METRICS_RESPONSE = "Get metrics response received";
+
+    private static final String START_RECORDING_REQUEST = "Start recording request sent";
+    private static final String START_RECORDING_RESPONSE = "Start recording response received";
+
+    private static final String STOP_RECORDING_REQUEST = "Stop recording request sent";
+    private static final String STOP_RECORDING_RESPONSE = "Stop recording response received";
+
+    private static final String UPTIME = "uptime: %.1f s%n";
+    private static final String LATENCY_HEADER = "%-22s %10s %8s %10s %10s %9s %9s %9s %9s%n";
+    private static final String LATENCY_ROW = "%-22s %10d %8d %10.1f %10.1f %9d %9d %9d %9d%n";
+    private static final String GAUGE_ROW = "%-22s %10d%n";
+
     /**
      * Set flag to true to print debug messages.
      * The flag can be set using the -Ddebug command line option.
@@ -43,6 +73,7 @@ public class AdminService {
 
     private final ManagedChannel channel;
     private AdminServiceGrpc.AdminServiceBlockingStub stub;
+    private AdminServiceGrpc.AdminServiceStub asyncStub;
     private String address;
     private String qualifier;
 
@@ -54,6 +85,8 @@ public class AdminService {
         this.channel = ManagedChannelBuilder.forTarget(address).usePlaintext().build();
         /** Creating a blocking stub for the channel */        
         this.stub = AdminServiceGrpc.newBlockingStub(this.channel);
+        /** Creating an async stub for the streaming calls */
+        this.asyncStub = AdminServiceGrpc.newStub(this.channel);
         debug(ADMIN_SERVICE_STARTED);
     }
 
@@ -96,32 +129,168 @@ public class AdminService {
     /**
      * Send gossip request to server
      * 
+     * @return the result of the propagation to each replica
      * @throws AdminException if an exception occurs while sending the request
      */
-    public void gossip() throws AdminException{
+    public String gossip() throws AdminException{
+        GossipResponse response;
         try {
             debug(GOSSIP_REQUEST);
-            stub.gossip(GossipRequest.getDefaultInstance());
+            response = stub.gossip(GossipRequest.getDefaultInstance());
         } catch (StatusRuntimeException exception) {
-            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode())){
+            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode()) 
+                    && exception.getStatus().getDescription() == null){
                 throw new AdminException(IO_ERROR);
             }
             throw new AdminException(exception.getStatus().getDescription());
         }
         debug(GOSSIP_RESPONSE);
+        return response.toString();
     }
     
     
     /**
      * Send request from Admin to get the state of the server
      * 
-     * @return the server Ledger State
+     * @param request the page and the filters of the operations
+     * @return the server Ledger State, followed by the token of the next page if there is one
+     * @throws AdminException if an exception occurs while sending the request
      */
-    public String getLedgerState() {
-        debug(GET_SERVER_STATE_REQUEST);
-        getLedgerStateResponse response = stub.getLedgerState(getLedgerStateRequest.getDefaultInstance());
+    public String getLedgerState(getLedgerStateRequest request) throws AdminException {
+        getLedgerStateResponse response;
+        try {
+            debug(GET_SERVER_STATE_REQUEST);
+            response = stub.getLedgerState(request);
+        } catch (StatusRuntimeException exception) {
+            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode())){
+                throw new AdminException(IO_ERROR);
+            }
+            throw new AdminException(exception.getStatus().getDescription());
+        }
         debug(GET_SERVERS_STATE_RESPONSE);
-        return response.getLedgerState().toString();
+        if (response.getNextPageToken().isEmpty())
+            return response.getLedgerState().toString();
+        return response.getLedgerState().toString() + String.format(NEXT_PAGE, response.getNextPageToken());
+    }
+
+    /**
+     * Send request from Admin to watch the ledger of the server. Each operation is given to output as one line
+     * as soon as it arrives, until the returned stop is run or the call fails.
+     * 
+     * @param request the position of the first stable operation
+     * @param output receives a line for each stable or unstable operation
+     * @param errors receives the error message if the call fails
+     * @return stops watching the ledger when run
+     */
+    public Runnable tail(WatchLedgerRequest request, Consumer<String> output, Consumer<String> errors) {
+        AtomicReference<ClientCallStreamObserver<WatchLedgerRequest>> call = new AtomicReference<>();
+        debug(WATCH_LEDGER_REQUEST);
+        asyncStub.watchLedger(request, new ClientResponseObserver<WatchLedgerRequest, WatchLedgerResponse>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<WatchLedgerRequest> requestStream) {
+                call.set(requestStream);
+            }
+
+            @Override
+            public void onNext(WatchLedgerResponse response) {
+                String operation = TextFormat.shortDebugString(response.getOperation());
+                output.accept(response.getStability() == Stability.STABILITY_STABLE 
+                    ? String.format(TAIL_STABLE, response.getPosition(), operation) : String.format(TAIL_UNSTABLE, operation));
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Status status = Status.fromThrowable(throwable);
+                debug(WATCH_LEDGER_ENDED);
+                if (status.getCode().equals(Status.CANCELLED.getCode()))
+                    return;
+                errors.accept(status.getCode().equals(Status.UNAVAILABLE.getCode()) ? IO_ERROR : status.getDescription());
+            }
+
+            @Override
+            public void onCompleted() {
+                debug(WATCH_LEDGER_ENDED);
+            }
+        });
+        return () -> call.get().cancel(TAIL_STOPPED, null);
+    }
+
+    /**
+     * Send request from Admin to get the metrics of the server
+     * 
+     * @return a table with the latency and throughput of each RPC, the state lock wait and the stable lag, followed by the gauges
+     * @throws AdminException if an exception occurs while sending the request
+     */
+    public String getMetrics() throws AdminException {
+        GetMetricsResponse response;
+        try {
+            debug(GET_METRICS_REQUEST);
+            response = stub.getMetrics(GetMetricsRequest.getDefaultInstance());
+        } catch (StatusRuntimeException exception) {
+            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode())){
+                throw new AdminException(IO_ERROR);
+            }
+            throw new AdminException(exception.getStatus().getDescription());
+        }
+        debug(GET_METRICS_RESPONSE);
+
+        double uptimeSeconds = response.getUptimeMillis() / 1000.0;
+        StringBuilder metrics = new StringBuilder(String.format(UPTIME, uptimeSeconds));
+        metrics.append(String.format(LATENCY_HEADER, "rpc", "count", "errors", "ops/s", "mean(us)", "p50(us)", 
+            "p90(us)", "p99(us)", "max(us)"));
+        for (LatencyMetrics rpc : response.getRpcsList())
+            appendLatency(metrics, rpc, uptimeSeconds);
+        appendLatency(metrics, response.getStateLockWait(), uptimeSeconds);
+        appendLatency(metrics, response.getStableLag(), uptimeSeconds);
+        for (Map.Entry<String, Long> gauge : response.getGaugesMap().entrySet())
+            metrics.append(String.format(GAUGE_ROW, gauge.getKey(), gauge.getValue()));
+        return metrics.toString();
+    }
+
+    private static void appendLatency(StringBuilder metrics, LatencyMetrics latency, double uptimeSeconds) {
+        metrics.append(String.format(LATENCY_ROW, latency.getName(), latency.getCount(), latency.getErrors(),
+            uptimeSeconds > 0 ? latency.getCount() / uptimeSeconds : 0, latency.getMeanMicros(), latency.getP50Micros(), 
+            latency.getP90Micros(), latency.getP99Micros(), latency.getMaxMicros()));
+    }
+
+    /**
+     * Send request from Admin to start a recording of the trace events of the server
+     * 
+     * @param request the request, with the JDK configuration and whether the debug messages are recorded
+     * @throws AdminException if an exception occurs while sending the request
+     */
+    public void startRecording(StartRecordingRequest request) throws AdminException {
+        try {
+            debug(START_RECORDING_REQUEST);
+            stub.startRecording(request);
+        } catch (StatusRuntimeException exception) {
+            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode())){
+                throw new AdminException(IO_ERROR);
+            }
+            throw new AdminException(exception.getStatus().getDescription());
+        }
+        debug(START_RECORDING_RESPONSE);
+    }
+
+    /**
+     * Send request from Admin to stop the recording of the server
+     * 
+     * @return the path of the recording, on the host of the server
+     * @throws AdminException if an exception occurs while sending the request
+     */
+    public String stopRecording() throws AdminException {
+        StopRecordingResponse response;
+        try {
+            debug(STOP_RECORDING_REQUEST);
+            response = stub.stopRecording(StopRecordingRequest.getDefaultInstance());
+        } catch (StatusRuntimeException exception) {
+            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode())){
+                throw new AdminException(IO_ERROR);
+            }
+            throw new AdminException(exception.getStatus().getDescription());
+        }
+        debug(STOP_RECORDING_RESPONSE);
+        return response.getPath();
     }
 
     /** Shut down the channel and the service */
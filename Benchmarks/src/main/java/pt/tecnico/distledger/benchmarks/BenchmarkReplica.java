@@ -0,0 +1,139 @@
+package pt.tecnico.distledger.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.tecnico.distledger.server.domain.operation.CreateOp;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.OperationId;
+import pt.tecnico.distledger.server.exceptions.CrossServerException;
+import pt.tecnico.distledger.server.exceptions.NamingServerException;
+import pt.tecnico.distledger.server.service.NamingServerDistLedgerService;
+import pt.tecnico.distledger.server.snapshot.SnapshotStore;
+import pt.tecnico.distledger.server.wal.WriteAheadLog;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.Server;
+
+/**
+ * Replica running in the benchmark process, with its log and snapshots in a temporary directory
+ * and a naming server that knows no other replica, so nothing leaves the process.
+ */
+public class BenchmarkReplica {
+
+    public static final String QUALIFIER = "A";
+    public static final String BROKER = "broker";
+
+    /** Operations of each propagation that fills the ledger */
+    private static final int FILL_SIZE = 1000;
+
+    /** Naming server without any replica; the channel it creates is never used */
+    private static class NoNamingServer extends NamingServerDistLedgerService {
+        private NoNamingServer() {
+            super("localhost:0");
+        }
+
+        @Override
+        public List<Server> lookup(String serviceName, String qualifier) throws NamingServerException {
+            return new ArrayList<>();
+        }
+    }
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final ServerState serverState;
+
+    public BenchmarkReplica() throws IOException {
+        this.directory = Files.createTempDirectory("distledger-benchmark");
+        this.log = new WriteAheadLog(directory);
+        this.serverState = new ServerState(QUALIFIER, new NoNamingServer(), log, new SnapshotStore(directory));
+    }
+
+    public ServerState getServerState() {
+        return serverState;
+    }
+
+    /**
+     * Fills the ledger with operations of the other replicas, received as their gossip would be
+     *
+     * @param source the other replicas
+     * @param size the number of operations
+     */
+    public void fillLedger(GossipSource source, int size) throws CrossServerException {
+        for (int filled = 0; filled < size; filled += FILL_SIZE) {
+            VectorClock baseTimeStamps = source.getTimeStamps();
+            List<Operation> ops = source.next(serverState.getAccountDictionary(), Math.min(FILL_SIZE, size - filled));
+            serverState.receiveGossip(ops, source.getTimeStamps(), baseTimeStamps);
+        }
+    }
+
+    /** Closes the log and deletes the directory of the replica */
+    public void close() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    /** Qualifiers of the other replicas of a system with the given number of replicas: B, C, ... then R26, R27, ... */
+    public static String qualifierOf(int replica) {
+        return replica < 26 ? String.valueOf((char) ('A' + replica)) : "R" + replica;
+    }
+
+    /**
+     * Creates operations as they would be propagated by the other replicas of a system with the given
+     * number of replicas: each operation creates a new account, is accepted by the other replicas in turn,
+     * and depends on every operation before it, so the receiver can execute them in order.
+     */
+    public static class GossipSource {
+        private final ReplicaRegistry registry;
+        private final int replicas;
+        private VectorClock sent;
+        private int operations = 0;
+
+        /**
+         * @param registry the registry of the receiver
+         * @param replicas the number of replicas of the system, the receiver included
+         */
+        public GossipSource(ReplicaRegistry registry, int replicas) {
+            this.registry = registry;
+            this.replicas = replicas;
+            for (int i = 1; i < replicas; i++)
+                registry.indexOf(qualifierOf(i));
+            this.sent = new VectorClock(registry);
+        }
+
+        /**
+         * @param dictionary the dictionary of the receiver
+         * @param size the number of operations
+         * @return the next operations, in the order of the sender
+         */
+        public List<Operation> next(AccountDictionary dictionary, int size) {
+            List<Operation> ops = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int origin = registry.indexOf(qualifierOf(1 + operations % (replicas - 1)));
+                VectorClock prevTS = sent;
+                VectorClock TS = prevTS.copy();
+                int sequence = TS.increment(origin);
+                int account = dictionary.idOf("gossip" + operations);
+                ops.add(new CreateOp(dictionary, account, prevTS, TS, new OperationId(origin, sequence)));
+                sent = TS;
+                operations++;
+            }
+            return ops;
+        }
+
+        /** Timestamp of the sender after the operations created so far */
+        public VectorClock getTimeStamps() {
+            return sent.copy();
+        }
+    }
+}
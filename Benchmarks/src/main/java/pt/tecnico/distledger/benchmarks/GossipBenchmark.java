@@ -0,0 +1,94 @@
+package pt.tecnico.distledger.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+
+/**
+ * ServerState.receiveGossip of propagations of batchSize new operations, accepted by the other
+ * replicas of a system of the given size, all of which the receiver executes.
+ * Before each iteration the receiver gets a ledger of ledgerSize operations and the PROPAGATIONS propagations
+ * of the iteration are created, so only receiving them is measured and the ledger only grows by them.
+ * An iteration is a single call receiving all of them, since a setup before every propagation would cost
+ * as much as receiving a small one; the score is the time of one propagation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GossipBenchmark {
+
+    /** Propagations received by each iteration */
+    private static final int PROPAGATIONS = 100;
+
+    /** Operations of each propagation */
+    @Param({"10", "100", "1000"})
+    public int batchSize;
+
+    /** Operations in the ledger of the receiver before each iteration */
+    @Param({"0", "100000"})
+    public int ledgerSize;
+
+    /** Replicas of the system, the receiver included */
+    @Param({"2", "8", "32"})
+    public int replicas;
+
+    private BenchmarkReplica replica;
+    private ServerState serverState;
+
+    private List<List<Operation>> propagations;
+    /** Timestamp of the sender before each propagation and after the last one */
+    private List<VectorClock> timeStamps;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        replica = new BenchmarkReplica();
+        serverState = replica.getServerState();
+        BenchmarkReplica.GossipSource source = new BenchmarkReplica.GossipSource(serverState.getReplicaRegistry(), replicas);
+        replica.fillLedger(source, ledgerSize);
+
+        propagations = new ArrayList<>(PROPAGATIONS);
+        timeStamps = new ArrayList<>(PROPAGATIONS + 1);
+        timeStamps.add(source.getTimeStamps());
+        for (int i = 0; i < PROPAGATIONS; i++) {
+            propagations.add(source.next(serverState.getAccountDictionary(), batchSize));
+            timeStamps.add(source.getTimeStamps());
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        replica.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROPAGATIONS)
+    public VectorClock receiveGossip() throws Exception {
+        VectorClock acknowledged = null;
+        for (int i = 0; i < PROPAGATIONS; i++)
+            acknowledged = serverState.receiveGossip(propagations.get(i), timeStamps.get(i + 1), timeStamps.get(i));
+        return acknowledged;
+    }
+}
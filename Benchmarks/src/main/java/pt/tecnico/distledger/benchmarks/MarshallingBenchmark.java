@@ -0,0 +1,120 @@
+package pt.tecnico.distledger.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.operation.CompactEncoding;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateChunk;
+
+/**
+ * Conversion of a propagation of ledgerSize operations to and from the contract format, with the map
+ * encoding (Operation.proto and Operation.fromProto) and the compact encoding. The decoders do the work of
+ * CrossServerDistLedgerService.unProto on the operations of a received message; the encoders include the
+ * serialization of each operation. The cached encoders are what a replica does from its second gossip round on,
+ * with the serialized operations already kept by each Operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MarshallingBenchmark {
+
+    @Param({"100", "1000"})
+    public int ledgerSize;
+
+    @Param({"2", "8", "32"})
+    public int replicas;
+
+    private ReplicaRegistry registry;
+    private AccountDictionary dictionary;
+    private List<Operation> ops;
+    private List<DistLedgerCommonDefinitions.Operation> mapEncoded;
+    private List<DistLedgerCommonDefinitions.Operation> compactEncoded;
+    private List<String> replicaTable;
+
+    @Setup
+    public void setUp() {
+        registry = new ReplicaRegistry();
+        registry.indexOf(BenchmarkReplica.QUALIFIER);
+        dictionary = new AccountDictionary();
+        ops = new BenchmarkReplica.GossipSource(registry, replicas).next(dictionary, ledgerSize);
+        mapEncoded = new ArrayList<>(ledgerSize);
+        for (Operation op : ops)
+            mapEncoded.add(op.proto());
+        CompactEncoding encoder = CompactEncoding.encoder(registry);
+        compactEncoded = new ArrayList<>(ledgerSize);
+        for (Operation op : ops)
+            compactEncoded.add(encoder.encode(op));
+        replicaTable = encoder.replicas();
+    }
+
+    @Benchmark
+    public long encodeMap() {
+        long bytes = 0;
+        for (Operation op : ops)
+            bytes += op.proto().toByteArray().length;
+        return bytes;
+    }
+
+    @Benchmark
+    public long encodeCompact() {
+        CompactEncoding encoder = CompactEncoding.encoder(registry);
+        long bytes = 0;
+        for (Operation op : ops)
+            bytes += encoder.encode(op).toByteArray().length;
+        return bytes;
+    }
+
+    @Benchmark
+    public long encodeMapCached() {
+        long bytes = 0;
+        for (Operation op : ops)
+            bytes += op.protoBytes().size();
+        return bytes;
+    }
+
+    @Benchmark
+    public long encodeCompactCached() {
+        CompactEncoding encoder = CompactEncoding.encoder(registry);
+        long bytes = 0;
+        for (Operation op : ops)
+            bytes += encoder.encodeField(PropagateStateChunk.LEDGER_FIELD_NUMBER, op).size();
+        return bytes;
+    }
+
+    @Benchmark
+    public List<Operation> decodeMap() {
+        List<Operation> decoded = new ArrayList<>(ledgerSize);
+        for (DistLedgerCommonDefinitions.Operation operation : mapEncoded)
+            decoded.add(Operation.fromProto(operation, registry, dictionary));
+        return decoded;
+    }
+
+    @Benchmark
+    public List<Operation> decodeCompact() {
+        CompactEncoding decoder = CompactEncoding.decoder(replicaTable, registry, dictionary);
+        List<Operation> decoded = new ArrayList<>(ledgerSize);
+        for (DistLedgerCommonDefinitions.Operation operation : compactEncoded)
+            decoded.add(decoder.decode(operation));
+        return decoded;
+    }
+}
@@ -0,0 +1,113 @@
+package pt.tecnico.distledger.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+
+/**
+ * Requests of the user service on a single replica, without gRPC and without waiting for the log to be durable.
+ * The replica is created again for every iteration, with a ledger of ledgerSize operations of the other replicas,
+ * so the ledger only grows by the operations of one iteration. The client timestamp is the one of the replica
+ * after that, with an entry for each of the replicas.
+ * Run with -t to measure contention, e.g. -t 4.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerStateBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Replica {
+        /** Accounts created before each iteration, besides the broker */
+        @Param({"1000"})
+        public int accounts;
+
+        /** Operations received from the other replicas before each iteration */
+        @Param({"0", "100000"})
+        public int ledgerSize;
+
+        /** Replicas of the system, the benchmarked one included */
+        @Param({"2", "32"})
+        public int replicas;
+
+        BenchmarkReplica replica;
+        ServerState serverState;
+        VectorClock timeStamps;
+        String[] names;
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Exception {
+            replica = new BenchmarkReplica();
+            serverState = replica.getServerState();
+            replica.fillLedger(new BenchmarkReplica.GossipSource(serverState.getReplicaRegistry(), replicas), ledgerSize);
+            timeStamps = serverState.getValueTimeStamps();
+            names = new String[accounts];
+            for (int i = 0; i < accounts; i++) {
+                names[i] = "account" + i;
+                serverState.createAccount(names[i], timeStamps);
+            }
+            created.set(0);
+            threads.set(0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            replica.close();
+        }
+    }
+
+    /** Account of a benchmark thread, that receives and returns one coin from the broker in turns */
+    @State(Scope.Thread)
+    public static class Transfers {
+        String account;
+        boolean returning = false;
+
+        @Setup(Level.Iteration)
+        public void setUp(Replica replica) {
+            account = replica.names[replica.threads.getAndIncrement() % replica.accounts];
+            returning = false;
+        }
+    }
+
+    @Benchmark
+    public VectorClock createAccount(Replica replica) throws Exception {
+        return replica.serverState.createAccount("new" + replica.created.getAndIncrement(), replica.timeStamps);
+    }
+
+    @Benchmark
+    public VectorClock transferTo(Replica replica, Transfers transfers) throws Exception {
+        VectorClock timeStamps;
+        if (transfers.returning)
+            timeStamps = replica.serverState.transferTo(transfers.account, BenchmarkReplica.BROKER, 1, replica.timeStamps);
+        else
+            timeStamps = replica.serverState.transferTo(BenchmarkReplica.BROKER, transfers.account, 1, replica.timeStamps);
+        transfers.returning = !transfers.returning;
+        return timeStamps;
+    }
+
+    @Benchmark
+    public int balance(Replica replica, Transfers transfers) throws Exception {
+        return replica.serverState.balance(transfers.account, replica.timeStamps).join();
+    }
+}
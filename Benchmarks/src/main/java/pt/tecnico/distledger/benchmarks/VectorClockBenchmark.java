@@ -0,0 +1,66 @@
+package pt.tecnico.distledger.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+
+/** Merge and comparison of two clocks with an entry for every replica, the last one being the bigger */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorClockBenchmark {
+
+    @Param({"3", "16", "64"})
+    public int replicas;
+
+    private VectorClock clock;
+    private VectorClock other;
+
+    @Setup
+    public void setUp() {
+        ReplicaRegistry registry = new ReplicaRegistry();
+        clock = new VectorClock(registry);
+        other = new VectorClock(registry);
+        for (int i = 0; i < replicas; i++) {
+            registry.indexOf(BenchmarkReplica.qualifierOf(i));
+            clock.set(i, 100 + i);
+            other.set(i, 100 + i);
+        }
+        // only the last entry differs, so the comparison goes through every entry
+        other.set(replicas - 1, 1000);
+    }
+
+    /** Baseline of merge, which merges into a copy so the clock does not change */
+    @Benchmark
+    public VectorClock copy() {
+        return clock.copy();
+    }
+
+    @Benchmark
+    public VectorClock merge() {
+        VectorClock merged = clock.copy();
+        merged.merge(other);
+        return merged;
+    }
+
+    @Benchmark
+    public boolean biggerEqual() {
+        return clock.biggerEqual(other);
+    }
+}
@@ -0,0 +1,160 @@
+package pt.tecnico.distledger.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import io.grpc.BindableService;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.exceptions.NamingServerException;
+import pt.tecnico.distledger.server.metrics.MetricsInterceptor;
+import pt.tecnico.distledger.server.service.*;
+import pt.tecnico.distledger.server.snapshot.SnapshotStore;
+import pt.tecnico.distledger.server.trace.TraceRecorder;
+import pt.tecnico.distledger.server.wal.WriteAheadLog;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
+
+/**
+ * A replica of the DistLedger service: its state, recovered from the log and snapshots in its data directory,
+ * and the server of its user, admin and cross-server services.
+ * ServerMain runs one on a port; the simulation runs several in one process on the in-process transport.
+ */
+public class ReplicaServer {
+
+	private static final String SERVER_STARTED = "Server started";
+	private static final String SERVER_TERMINATED = "Server terminated";
+	private static final String SERVER_REGISTERED = "Server registered in naming server";
+	private static final String SERVER_DELETED = "Server deleted from naming server";
+
+	private static final String SERVICE = "DistLedger";
+
+	/** Seconds between snapshots, can be set using the -DsnapshotInterval command line option */
+	private static final long SNAPSHOT_INTERVAL = Long.getLong("snapshotInterval", 60);
+
+	/** Seconds the calls and the snapshot in progress have to finish when the replica stops */
+	private static final long SHUTDOWN_TIMEOUT = 5;
+
+
+	private final String qualifier;
+	private final String address;
+	private final NamingServerDistLedgerService namingService;
+	private final WriteAheadLog log;
+	private final ServerState serverState;
+	private final TraceRecorder recorder;
+	private final ScheduledExecutorService snapshotExecutor;
+	private final Server server;
+
+	/**
+	 * Recovers the state of the replica and starts its server, without registering it in the naming server.
+	 * If it fails, the log is closed and nothing is left running, so the process can still exit.
+	 *
+	 * @param qualifier the qualifier of the replica
+	 * @param address the address the other replicas use to reach the server
+	 * @param dataDirectory the directory of the write-ahead log and snapshots
+	 * @param namingService the service of the naming server
+	 * @param serverBuilder the builder of the server, e.g. for a port, to which the services are added
+	 * @throws IOException if the state can not be recovered or the server can not start
+	 */
+	public ReplicaServer(String qualifier, String address, Path dataDirectory, NamingServerDistLedgerService namingService,
+			ServerBuilder<?> serverBuilder) throws IOException {
+		this.qualifier = qualifier;
+		this.address = address;
+		this.namingService = namingService;
+		this.log = new WriteAheadLog(dataDirectory);
+		try {
+			this.serverState = new ServerState(qualifier, namingService, log, new SnapshotStore(dataDirectory));
+		} catch (IOException | RuntimeException exception) {
+			closeLog();
+			throw exception;
+		}
+
+		/* Recordings started by the admin are written next to the log */
+		this.recorder = new TraceRecorder(qualifier, dataDirectory);
+
+		final BindableService userService = new UserDistLedgerService(serverState);
+		final BindableService adminService = new AdminDistLedgerService(serverState, recorder);
+		final CrossServerDistLedgerService crossService = new CrossServerDistLedgerService(serverState);
+
+		/* Every call is timed by the metrics interceptor */
+		final MetricsInterceptor metricsInterceptor = new MetricsInterceptor(serverState.getMetrics());
+
+		this.server = serverBuilder
+				.addService(ServerInterceptors.intercept(userService, metricsInterceptor))
+				.addService(ServerInterceptors.intercept(adminService, metricsInterceptor))
+				.addService(ServerInterceptors.intercept(crossService, metricsInterceptor))
+				.build();
+		try {
+			server.start();
+		} catch (IOException | RuntimeException exception) {
+			serverState.shutdown();
+			closeLog();
+			throw exception;
+		}
+
+		/* Snapshots make the restart replay only the recent log; started last, as their thread keeps the process alive */
+		this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor();
+		snapshotExecutor.scheduleWithFixedDelay(serverState::takeSnapshot, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.SECONDS);
+		debug(SERVER_STARTED);
+	}
+
+	/** Registers the replica in the naming server, so the other replicas and the clients can find it */
+	public void register() {
+		try {
+			namingService.register(SERVICE, qualifier, address);
+			debug(SERVER_REGISTERED);
+		} catch (NamingServerException exception) {
+			debug(exception.getErrorMessage());
+		}
+	}
+
+	/**
+	 * Deletes the replica from the naming server, stops its server and gossip and flushes its log.
+	 * The calls in progress are given SHUTDOWN_TIMEOUT to finish, since they may still write to the log,
+	 * and are cancelled after it; the log is only closed once nothing uses it.
+	 */
+	public void shutdown() {
+		try {
+			namingService.delete(SERVICE, address);
+			debug(SERVER_DELETED);
+		} catch (NamingServerException exception) {
+			debug(exception.getErrorMessage());
+		}
+		server.shutdown();
+		snapshotExecutor.shutdown();
+		try {
+			if (!server.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+				server.shutdownNow().awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+			snapshotExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		serverState.shutdown();
+		recorder.close();
+		closeLog();
+		debug(SERVER_TERMINATED);
+	}
+
+	private void closeLog() {
+		try {
+			log.close();
+		} catch (IOException exception) {
+			System.err.println(exception.getMessage());
+		}
+	}
+
+	public String getQualifier() {
+		return qualifier;
+	}
+
+	public String getAddress() {
+		return address;
+	}
+
+	public ServerState getServerState() {
+		return serverState;
+	}
+}
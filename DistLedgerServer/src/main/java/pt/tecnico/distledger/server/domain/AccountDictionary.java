@@ -0,0 +1,69 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense id to every account name known by the replica.
+ * Operations and the account store address an account by its id, and the name is only looked up
+ * when an account crosses the API (requests, responses, gossip, log and snapshot files), so every
+ * operation of an account shares a single instance of its name.
+ * Ids are never reused or removed, and are local to the process: they are never sent or stored.
+ */
+public class AccountDictionary {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /** Map to save the id by the account name */
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /** Account names by id, with room for more ids than the ones assigned */
+    private volatile String[] names = new String[MIN_CAPACITY];
+
+    private int size = 0;
+
+    /**
+     * Returns the id of the given account name, assigning one if it is unknown
+     *
+     * @param name the account name
+     * @return the id of the account
+     */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        return register(name);
+    }
+
+    private synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        if (size == names.length)
+            names = Arrays.copyOf(names, size * 2);
+        // the name is stored before the id is published, so whoever gets the id can resolve it
+        names[size] = name;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /**
+     * Returns the id of the given account name without assigning one
+     *
+     * @param name the account name
+     * @return the id of the account or -1 if it is unknown
+     */
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
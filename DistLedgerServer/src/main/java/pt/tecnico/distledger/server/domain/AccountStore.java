@@ -0,0 +1,170 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Balances of the accounts, in a primitive long array indexed by the account id of an AccountDictionary.
+ * Reading or updating a balance is an array access that does not allocate, and the memory used is 8 bytes
+ * per account id. Slots of ids without an account hold NO_ACCOUNT. The array is doubled when an account
+ * with an id past its end is created; accounts are never removed.
+ *
+ * Concurrency: one thread may change the store at a time (ServerState changes it with stateLock locked),
+ * while any number of threads read it without locking. Slots are written with release and read with acquire
+ * semantics, and a grown array is published through a volatile reference, so a reader always sees a
+ * balance that was stored, never a torn one.
+ */
+public class AccountStore {
+
+    /** Value returned by get for an account that does not exist */
+    public static final long NO_ACCOUNT = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final VarHandle BALANCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** Consumer of the accounts of the store */
+    public interface BalanceConsumer {
+        void accept(String account, long balance);
+    }
+
+    private final AccountDictionary dictionary;
+    private volatile long[] balances;
+    private int size;
+
+    /**
+     * @param dictionary the dictionary of the account ids
+     */
+    public AccountStore(AccountDictionary dictionary) {
+        this(dictionary, newBalances(MIN_CAPACITY), 0);
+    }
+
+    private AccountStore(AccountDictionary dictionary, long[] balances, int size) {
+        this.dictionary = dictionary;
+        this.balances = balances;
+        this.size = size;
+    }
+
+    private static long[] newBalances(int capacity) {
+        long[] balances = new long[capacity];
+        Arrays.fill(balances, NO_ACCOUNT);
+        return balances;
+    }
+
+    public AccountDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public boolean contains(int account) {
+        return get(account) != NO_ACCOUNT;
+    }
+
+    public boolean contains(String account) {
+        return get(account) != NO_ACCOUNT;
+    }
+
+    /**
+     * @param account the account id, or -1 for an unknown account
+     * @return the balance of the account, or NO_ACCOUNT if it does not exist
+     */
+    public long get(int account) {
+        long[] current = balances;
+        if (account < 0 || account >= current.length)
+            return NO_ACCOUNT;
+        return (long) BALANCES.getAcquire(current, account);
+    }
+
+    /**
+     * @param account the account name
+     * @return the balance of the account, or NO_ACCOUNT if it does not exist
+     */
+    public long get(String account) {
+        return get(dictionary.find(account));
+    }
+
+    /**
+     * Creates an account
+     *
+     * @param account the account id
+     * @param balance the initial balance
+     * @return false if the account already exists, in which case it is not changed
+     */
+    public boolean create(int account, long balance) {
+        if (account >= balances.length)
+            grow(account);
+        long[] current = balances;
+        if (current[account] != NO_ACCOUNT)
+            return false;
+        BALANCES.setRelease(current, account, balance);
+        size++;
+        return true;
+    }
+
+    /**
+     * Moves an amount between two existing accounts, if the origin has enough balance
+     *
+     * @param accountFrom the id of the account to debit
+     * @param accountTo the id of the account to credit
+     * @param amount the amount to move
+     * @return false if one of the accounts does not exist or the origin has less than the amount
+     */
+    public boolean transfer(int accountFrom, int accountTo, long amount) {
+        long[] current = balances;
+        if (accountFrom >= current.length || accountTo >= current.length)
+            return false;
+        long fromBalance = current[accountFrom];
+        if (fromBalance == NO_ACCOUNT || current[accountTo] == NO_ACCOUNT || fromBalance < amount)
+            return false;
+        BALANCES.setRelease(current, accountFrom, fromBalance - amount);
+        BALANCES.setRelease(current, accountTo, current[accountTo] + amount);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns a copy of the store, sharing the dictionary */
+    public AccountStore copy() {
+        long[] current = balances;
+        return new AccountStore(dictionary, Arrays.copyOf(current, current.length), size);
+    }
+
+    /**
+     * Replaces every balance by the ones of another store with the same dictionary, published at once,
+     * so a reader sees either the old or the new balances
+     *
+     * @param other the store whose balances are copied
+     */
+    public void assign(AccountStore other) {
+        long[] current = other.balances;
+        size = other.size;
+        balances = Arrays.copyOf(current, current.length);
+    }
+
+    /**
+     * Gives every account and its balance to the consumer, in id order
+     *
+     * @param consumer the consumer of the accounts
+     */
+    public void forEach(BalanceConsumer consumer) {
+        long[] current = balances;
+        for (int account = 0; account < current.length; account++) {
+            long balance = (long) BALANCES.getAcquire(current, account);
+            if (balance != NO_ACCOUNT)
+                consumer.accept(dictionary.nameOf(account), balance);
+        }
+    }
+
+    /** Moves the balances to an array that fits the account and publishes it */
+    private void grow(int account) {
+        long[] current = balances;
+        int capacity = current.length;
+        while (capacity <= account)
+            capacity <<= 1;
+        long[] grown = newBalances(capacity);
+        System.arraycopy(current, 0, grown, 0, current.length);
+        balances = grown;
+    }
+}
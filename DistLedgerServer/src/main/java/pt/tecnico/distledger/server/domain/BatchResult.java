@@ -0,0 +1,26 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.List;
+
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+
+/** Outcome of a batch of client operations: the result of each one and the timestamp covering the accepted ones */
+public class BatchResult {
+
+    private final List<String> errorMessages;
+    private final VectorClock timeStamps;
+
+    public BatchResult(List<String> errorMessages, VectorClock timeStamps) {
+        this.errorMessages = errorMessages;
+        this.timeStamps = timeStamps;
+    }
+
+    /** Error of each operation, in the order of the batch, or null if the operation was accepted */
+    public List<String> getErrorMessages() {
+        return errorMessages;
+    }
+
+    public VectorClock getTimeStamps() {
+        return timeStamps;
+    }
+}
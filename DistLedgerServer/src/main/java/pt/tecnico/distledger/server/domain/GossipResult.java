@@ -0,0 +1,40 @@
+package pt.tecnico.distledger.server.domain;
+
+/** Outcome of the propagation of the state to one replica in a gossip round */
+public class GossipResult {
+
+    private final String qualifier;
+    private final int operations;
+    private final String errorMessage;
+
+    private GossipResult(String qualifier, int operations, String errorMessage) {
+        this.qualifier = qualifier;
+        this.operations = operations;
+        this.errorMessage = errorMessage;
+    }
+
+    public static GossipResult propagated(String qualifier, int operations) {
+        return new GossipResult(qualifier, operations, null);
+    }
+
+    public static GossipResult failed(String qualifier, String errorMessage) {
+        return new GossipResult(qualifier, 0, errorMessage);
+    }
+
+    public String getQualifier() {
+        return qualifier;
+    }
+
+    public boolean isPropagated() {
+        return errorMessage == null;
+    }
+
+    /** Number of operations sent to the replica */
+    public int getOperations() {
+        return operations;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -0,0 +1,80 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.Arrays;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+
+/**
+ * Append-only ledger of the executed operations, addressed by their position in the whole execution order.
+ * Operations are stored in fixed-size chunks whose filled slots are never written again, and every change 
+ * publishes a new immutable {@link LedgerView} through a volatile reference. Readers take a consistent view 
+ * in O(1), without locking or copying, and keep it as long as they need; dropping a prefix only moves the 
+ * start of the following views and releases the chunks no view uses anymore.
+ * Only one thread may change the ledger at a time (ServerState changes it with stateLock locked).
+ */
+public class Ledger {
+
+    static final int CHUNK_BITS = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int INITIAL_CHUNKS = 4;
+
+    /** Chunks from firstChunk on; a new array is created instead of removing chunks, as views share it */
+    private Operation[][] chunks;
+    private int firstChunk;
+    private volatile LedgerView view;
+
+    /** Creates an empty ledger */
+    public Ledger() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty ledger whose first operation will be at the given position
+     * 
+     * @param start the number of operations executed before the ledger, as after dropPrefix(start)
+     */
+    public Ledger(int start) {
+        this.chunks = new Operation[INITIAL_CHUNKS][];
+        this.firstChunk = start >> CHUNK_BITS;
+        this.view = new LedgerView(chunks, firstChunk, start, start);
+    }
+
+    /** Current view of the ledger, which never changes */
+    public LedgerView view() {
+        return view;
+    }
+
+    /**
+     * Appends an operation at the end of the ledger
+     * 
+     * @param op the executed operation
+     */
+    public void append(Operation op) {
+        LedgerView current = view;
+        int end = current.getEnd();
+        int chunk = (end >> CHUNK_BITS) - firstChunk;
+        if (chunk == chunks.length)
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        if (chunks[chunk] == null)
+            chunks[chunk] = new Operation[CHUNK_SIZE];
+        chunks[chunk][end & CHUNK_MASK] = op;
+        view = new LedgerView(chunks, firstChunk, current.getStart(), end + 1);
+    }
+
+    /**
+     * Removes the operations before the given position from the following views
+     * 
+     * @param start the position of the first operation to keep
+     */
+    public void dropPrefix(int start) {
+        LedgerView current = view;
+        int dropped = (start >> CHUNK_BITS) - firstChunk;
+        if (dropped > 0) {
+            chunks = Arrays.copyOfRange(chunks, dropped, Math.max(chunks.length, dropped + INITIAL_CHUNKS));
+            firstChunk += dropped;
+        }
+        view = new LedgerView(chunks, firstChunk, start, current.getEnd());
+    }
+}
@@ -0,0 +1,79 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.domain.operation.OperationId;
+import pt.tecnico.distledger.server.exceptions.AdminException;
+import static pt.tecnico.distledger.server.exceptions.AdminException.ErrorMessages.INVALID_PAGE_TOKEN;
+
+/**
+ * Position of a ledger query between pages, sent to the client as an opaque token.
+ * Stable operations are addressed by their position in the whole ledger history, which garbage collection
+ * does not change. Unstable operations are returned in id order and addressed by the last id returned, 
+ * so operations executed between pages do not move the others.
+ */
+public class LedgerCursor {
+
+    private static final String STABLE_PREFIX = "s";
+    private static final String UNSTABLE_PREFIX = "u";
+    private static final String SEPARATOR = ".";
+
+    /** Cursor of the first page */
+    public static final LedgerCursor START = stable(0);
+
+    private final int position;
+    private final OperationId after;
+
+    private LedgerCursor(int position, OperationId after) {
+        this.position = position;
+        this.after = after;
+    }
+
+    /** Cursor at the given position of the stable operations */
+    public static LedgerCursor stable(int position) {
+        return new LedgerCursor(position, null);
+    }
+
+    /** Cursor after the given unstable operation */
+    public static LedgerCursor unstable(OperationId after) {
+        return new LedgerCursor(-1, after);
+    }
+
+    public boolean isStable() {
+        return after == null;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public OperationId getAfter() {
+        return after;
+    }
+
+    public String toToken() {
+        if (isStable())
+            return STABLE_PREFIX + position;
+        return UNSTABLE_PREFIX + after.getOrigin() + SEPARATOR + after.getSequence();
+    }
+
+    /**
+     * @param token the token of a cursor, or an empty string for the first page
+     * @return the cursor
+     * @throws AdminException if the token was not created by toToken (INVALID_PAGE_TOKEN)
+     */
+    public static LedgerCursor fromToken(String token) throws AdminException {
+        if (token.isEmpty())
+            return START;
+        try {
+            if (token.startsWith(STABLE_PREFIX))
+                return stable(Integer.parseUnsignedInt(token.substring(STABLE_PREFIX.length())));
+            if (token.startsWith(UNSTABLE_PREFIX)) {
+                String[] id = token.substring(UNSTABLE_PREFIX.length()).split("\\" + SEPARATOR);
+                if (id.length == 2)
+                    return unstable(new OperationId(Integer.parseUnsignedInt(id[0]), Integer.parseUnsignedInt(id[1])));
+            }
+        } catch (NumberFormatException exception) {
+            // falls through to the invalid token error
+        }
+        throw new AdminException(INVALID_PAGE_TOKEN);
+    }
+}
@@ -0,0 +1,58 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferOp;
+
+/** Criteria of the operations returned by a ledger query; a null criterion matches every operation */
+public class LedgerFilter {
+
+    private final String account;
+    private final Class<? extends Operation> type;
+    private final Boolean stable;
+    private final VectorClock minTimeStamps;
+    private final VectorClock maxTimeStamps;
+
+    /**
+     * @param account operations that create the account or transfer from or to it
+     * @param type operations of the given class
+     * @param stable executed operations if true, operations waiting for their dependencies if false
+     * @param minTimeStamps operations whose timestamp covers it
+     * @param maxTimeStamps operations whose timestamp is covered by it
+     */
+    public LedgerFilter(String account, Class<? extends Operation> type, Boolean stable, 
+            VectorClock minTimeStamps, VectorClock maxTimeStamps) {
+        this.account = account;
+        this.type = type;
+        this.stable = stable;
+        this.minTimeStamps = minTimeStamps;
+        this.maxTimeStamps = maxTimeStamps;
+    }
+
+    /** Whether stable operations can match */
+    public boolean includesStable() {
+        return stable == null || stable;
+    }
+
+    /** Whether unstable operations can match */
+    public boolean includesUnstable() {
+        return stable == null || !stable;
+    }
+
+    /**
+     * Checks the operation against every criterion but the stability
+     * 
+     * @param op the operation
+     * @return true if the operation matches
+     */
+    public boolean matches(Operation op) {
+        if (type != null && !type.isInstance(op))
+            return false;
+        if (account != null && !account.equals(op.getAccount()) 
+                && !(op instanceof TransferOp && account.equals(((TransferOp) op).getDestAccount())))
+            return false;
+        if (minTimeStamps != null && !op.getTS().biggerEqual(minTimeStamps))
+            return false;
+        return maxTimeStamps == null || maxTimeStamps.biggerEqual(op.getTS());
+    }
+}
@@ -0,0 +1,27 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.List;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+
+/** Result of a ledger query: the operations of one page and where the next page starts */
+public class LedgerPage {
+
+    private final List<Operation> operations;
+    private final LedgerCursor next;
+
+    public LedgerPage(List<Operation> operations, LedgerCursor next) {
+        this.operations = operations;
+        this.next = next;
+    }
+
+    /** Matching operations, stable ones first in execution order */
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /** Cursor of the next page, or null if this is the last page */
+    public LedgerCursor getNext() {
+        return next;
+    }
+}
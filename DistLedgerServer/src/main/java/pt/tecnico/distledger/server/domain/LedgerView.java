@@ -0,0 +1,57 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+
+/**
+ * Immutable view of the {@link Ledger} at one moment: the operations between the start and end positions.
+ * As a list, index 0 is the operation at the start position.
+ */
+public class LedgerView extends AbstractList<Operation> implements RandomAccess {
+
+    private final Operation[][] chunks;
+    private final int firstChunk;
+    private final int start;
+    private final int end;
+
+    LedgerView(Operation[][] chunks, int firstChunk, int start, int end) {
+        this.chunks = chunks;
+        this.firstChunk = firstChunk;
+        this.start = start;
+        this.end = end;
+    }
+
+    /** Position of the first operation, the number of operations removed from the ledger before it */
+    public int getStart() {
+        return start;
+    }
+
+    /** Position after the last operation */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @param position the position of the operation in the execution order, between start and end
+     * @return the operation
+     */
+    public Operation getAt(int position) {
+        if (position < start || position >= end)
+            throw new IndexOutOfBoundsException(position);
+        return chunks[(position >> Ledger.CHUNK_BITS) - firstChunk][position & Ledger.CHUNK_MASK];
+    }
+
+    @Override
+    public Operation get(int index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException(index);
+        return getAt(start + index);
+    }
+
+    @Override
+    public int size() {
+        return end - start;
+    }
+}
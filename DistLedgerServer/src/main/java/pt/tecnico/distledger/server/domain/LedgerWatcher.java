@@ -0,0 +1,36 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.List;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+
+/**
+ * Watcher of the changes of the ledger, registered with ServerState.watchLedger.
+ * Every method is called with stateLock locked, in the order the changes happen, so they must not block:
+ * a watcher only records the change and handles it on another thread.
+ */
+public interface LedgerWatcher {
+
+    /**
+     * Called once when the watcher is registered, with the state it watches the changes of
+     *
+     * @param ledger the ledger at that moment, whose end is the position of the next executed operation
+     * @param unstable the operations waiting for their dependencies at that moment, in id order
+     */
+    void started(LedgerView ledger, List<Operation> unstable);
+
+    /**
+     * Called when an operation is registered and waits for its dependencies
+     *
+     * @param op the operation
+     */
+    void unstable(Operation op);
+
+    /**
+     * Called when an operation is executed and appended to the ledger
+     *
+     * @param op the operation
+     * @param position the position of the operation in the execution order
+     */
+    void stable(Operation op, int position);
+}
@@ -1,94 +1,429 @@
 package pt.tecnico.distledger.server.domain;
 
+import pt.tecnico.distledger.server.domain.clock.DependencyIndex;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
 import pt.tecnico.distledger.server.domain.operation.*;
 import static pt.tecnico.distledger.server.exceptions.UserException.ErrorMessages.*;
 import static pt.tecnico.distledger.server.exceptions.AdminException.ErrorMessages.*;
 import static pt.tecnico.distledger.server.exceptions.CrossServerException.ErrorMessages.*;
 import pt.tecnico.distledger.server.exceptions.UserException;
+import pt.tecnico.distledger.server.metrics.Metrics;
 import pt.tecnico.distledger.server.service.CrossServerDistLedgerService;
 import pt.tecnico.distledger.server.service.NamingServerDistLedgerService;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.Server;
 import pt.tecnico.distledger.server.exceptions.AdminException;
 import pt.tecnico.distledger.server.exceptions.CrossServerException;
 import pt.tecnico.distledger.server.exceptions.NamingServerException;
+import pt.tecnico.distledger.server.snapshot.Snapshot;
+import pt.tecnico.distledger.server.snapshot.SnapshotStore;
+import pt.tecnico.distledger.server.trace.BlockedReadEvent;
+import pt.tecnico.distledger.server.trace.OperationAcceptedEvent;
+import pt.tecnico.distledger.server.trace.OperationStabilizedEvent;
+import pt.tecnico.distledger.server.wal.LogRecord;
+import pt.tecnico.distledger.server.wal.RecordType;
+import pt.tecnico.distledger.server.wal.WriteAheadLog;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
 
+/**
+ * State of a replica.
+ * 
+ * Concurrency: accounts are guarded by a StripedLock, so requests over unrelated accounts only meet at stateLock,
+ * which guards the timestamps, the ledger and the unstable operations and is only held for the few steps that
+ * order an operation (assign its timestamp, execute it and merge the value timestamp). Whenever both are needed
+ * the account stripes are locked before stateLock. Balances are kept in an AccountStore, changed under stateLock and
+ * read without locks. Balance reads only take stateLock to check the replica timestamp, and the ones ahead of the replica wait without a thread until the replica timestamp covers them.
+ * Gossip rounds run one at a time on their own thread. The ledger is append-only and published as immutable views,
+ * so gossip, admin pages and snapshots read it without holding stateLock while they go through it.
+ * 
+ * Durability: every accepted and executed operation is appended to the write-ahead log under stateLock, so the log
+ * order is the execution order. Responses wait for durable(), and gossip only sends operations already on disk.
+ * Snapshots copy the rest of the state under stateLock and are written in the background, after which the log before them is deleted;
+ * a restart loads the latest snapshot and only replays the log after it.
+ * 
+ * Garbage collection: operations every known replica acknowledged are folded into the base state. A replica that
+ * is missing some of them (one that joined later or lost its data) gets the base state of another one instead.
+ */
 public class ServerState {
     private static final String DEFAULT_ACCOUNT = "broker";
+    private static final int DEFAULT_BALANCE = 1000;
     private static final String DEFAULT_SERVICE = "DistLedger";
 
+    private static final String PEER_LAG_OPERATIONS = "peerLag.%s.operations";
+    private static final String PEER_LAG_MILLIS = "peerLag.%s.millis";
+
     private static final String ACCOUNT_CREATED = "Account created: %s";
     private static final String OPERATION_REGISTERED = "New operation was registered on ledger";
+    private static final String OPERATION_DISCARDED = "Operation %s has no effect on the current state";
 
     private static final String SERVER_ACTIVATED = "Server activated";
     private static final String SERVER_DEACTIVATED = "Server deactivated";
 
     private static final String LEDGE_ACCESSED = "Ledge accessed";
 
+    private static final String SNAPSHOT_FAILED = "Snapshot failed: %s";
+    private static final String STATE_RECOVERED = "State recovered from the log: %s operations executed, %s unstable";
+
+    private static final String LEDGER_COLLECTED = "Ledger garbage collected: %s operations folded into the base state, %s retained";
+
+    private static final String FULL_STATE_RESEND = "Replica %s is missing operations, resending the retained ledger";
+    private static final String BASE_STATE_RESEND = "Replica %s is missing operations that were garbage collected, sending the base state";
+    private static final String STATE_COLLECTED_FOR = "Replica %s garbage collected operations the base state does not cover";
+    private static final String BASE_INSTALLED = "Base state of another replica installed: %s accounts, %s operations executed again, %s dropped";
+
     private static final String TRANSFER_TO = "Transfer Operation: \n\tFrom: %s\n\tTo: %s\n\tAmount: %d";
 
     private static final String BALANCE_ACCESSED = "Account Balance Accessed: \n\tUserId: %s\n\tAmount: %s";
+    private static final String BALANCE_WAITING = "Balance read of %s waiting for the replica timestamp to reach %s";
+    private static final String BALANCE_ABANDONED = "Balance read of %s abandoned while waiting";
+
+
+    /** Number of account lock stripes */
+    private static final int ACCOUNT_STRIPES = 256;
 
+    /** Maximum number of operations of a client batch */
+    private static final int MAX_BATCH_SIZE = 10000;
+
+    /** Operations a ledger page looks at before it is returned, even if it has fewer operations than requested */
+    private static final int MAX_SCANNED = 10000;
+
+    /** Order of the unstable operations in ledger pages */
+    private static final Comparator<OperationId> OPERATION_ORDER = 
+        Comparator.comparingInt(OperationId::getOrigin).thenComparingInt(OperationId::getSequence);
 
     /** Server Configurations */
-    private boolean activated = true;
+    private volatile boolean activated = true;
+
+    /** Locks of the accounts */
+    private final StripedLock accountLocks = new StripedLock(ACCOUNT_STRIPES);
+
+    /** Lock of the timestamps, the ledger, the unstable operations and the waiting reads */
+    private final ReentrantLock stateLock = new ReentrantLock();
+
+    /** Metrics of the replica, including the time waiting for stateLock */
+    private final Metrics metrics = new Metrics();
+
+    /** Balance read waiting for the replica timestamp */
+    private static class PendingRead {
+        private final String userId;
+        private final CompletableFuture<Integer> result;
+        /** Event of the wait, only while recording and once the read blocks */
+        private BlockedReadEvent event = null;
+
+        private PendingRead(String userId, CompletableFuture<Integer> result) {
+            this.userId = userId;
+            this.result = result;
+        }
+    }
+
+    /** Balance reads indexed by the replica timestamp entries they are waiting for */
+    private final DependencyIndex<PendingRead> pendingReads = new DependencyIndex<>();
+
+    /** 
+     * Operations executed and not yet received by every replica, in the order they were executed.
+     * Changed under stateLock, read through views without it; the operations before its start were 
+     * folded into the base state, or replaced by the base state of another replica.
+     */
+    private Ledger ledger;
+
+    /** Map to save the position in the execution order by the operation id, for the operations in the ledger */
+    private Map<OperationId, Integer> ledgerIndex;
+
+    /** Balances of the accounts after the operations removed from the ledger */
+    private AccountStore baseAccounts;
+
+    /** Timestamp covering the operations removed from the ledger */
+    private VectorClock baseTimeStamps;
 
-    /** List that saves all the operations executed */
-    private List<Operation> ledger;
+    /** Map to save the operations waiting for their dependencies (unstable), by the operation id */
+    private Map<OperationId, Operation> pendingOperations;
 
-    /** Map to save the accounts by the user_id */
-    private Map<String, Integer> accounts;
+    /** Unstable operations indexed by the value timestamp entries they are waiting for */
+    private DependencyIndex<Operation> pendingDependencies;
 
-    /** Map to save the crossServices by the qualifier */
+    /** Balances of the accounts by the user_id, read without locks */
+    private AccountStore accounts;
+
+    /** Watchers of the changes of the ledger, changed and called under stateLock */
+    private final List<LedgerWatcher> watchers = new ArrayList<>();
+
+    /** Map to save the crossServices by the qualifier, changed by the gossip thread and closed by shutdown */
     private Map<String, CrossServerDistLedgerService> crossServerServices;
 
     private NamingServerDistLedgerService namingService;
 
     private String qualifier;
 
-    /** Map to save the value timeStaps by the qualifier */
-    private Map<String, Integer> timeStamps;
+    /** Registry of the replica indexes shared by all the clocks of the server */
+    private ReplicaRegistry replicaRegistry;
 
-    /** Map to save the replica timeStaps by the qualifier */
-    private Map<String, Integer> replicaTimeStamps;
+    /** Dictionary of the account ids shared by the operations and the balances */
+    private final AccountDictionary accountDictionary = new AccountDictionary();
 
-    /**
-     * Set flag to true to print debug messages.
-     * The flag can be set using the -Ddebug command line option.
-     */
-    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    /** Id of the broker account in the dictionary */
+    private final int brokerId = accountDictionary.idOf(DEFAULT_ACCOUNT);
 
-    /** Helper method to print debug messages. */
-    private static void debug(String debugMessage) {
-        if (DEBUG_FLAG)
-            System.err.println(debugMessage);
-    }
+    /** Index of this server qualifier in the registry */
+    private int qualifierIndex;
+
+    /** Value timestamp */
+    private VectorClock timeStamps;
+
+    /** Replica timestamp */
+    private VectorClock replicaTimeStamps;
+
+    /** Log of the accepted and executed operations */
+    private final WriteAheadLog log;
+
+    /** True while the state is rebuilt from the log, when operations are not logged again */
+    private boolean recovering = false;
+
+    /** Snapshots of the state, which make the log before them unnecessary */
+    private final SnapshotStore snapshots;
+
+    /** Log position of the last snapshot, only used by the snapshot thread */
+    private long snapshotPosition = -1;
 
-    public ServerState(String qualifier, NamingServerDistLedgerService namingService) {
-        this.ledger = new ArrayList<>();
-        this.accounts = new HashMap<>();
-        this.timeStamps = new HashMap<>();
-        this.replicaTimeStamps = new HashMap<>();
+    /** Map to save the last replica timestamp acknowledged by each replica, by the qualifier */
+    private Map<String, VectorClock> peerTimeStamps;
+
+    /** Seconds a gossip round in progress has to end when the replica stops */
+    private static final long SHUTDOWN_TIMEOUT = 5;
+
+    /** Thread of the gossip rounds */
+    private final ExecutorService gossipExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gossip");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    /**
+     * Creates the replica state, recovering it from the latest snapshot and the log. 
+     * The broker account is only created when there is no previous state.
+     * 
+     * @throws IOException if the snapshot or the log can not be read
+     */
+    public ServerState(String qualifier, NamingServerDistLedgerService namingService, WriteAheadLog log, 
+            SnapshotStore snapshots) throws IOException {
+        this.ledger = new Ledger();
+        this.ledgerIndex = new HashMap<>();
+        this.baseAccounts = new AccountStore(accountDictionary);
+        this.pendingOperations = new LinkedHashMap<>();
+        this.pendingDependencies = new DependencyIndex<>();
+        this.accounts = new AccountStore(accountDictionary);
+        this.replicaRegistry = new ReplicaRegistry();
+        this.qualifierIndex = replicaRegistry.indexOf(qualifier);
+        this.timeStamps = new VectorClock(replicaRegistry);
+        this.replicaTimeStamps = new VectorClock(replicaRegistry);
+        this.baseTimeStamps = new VectorClock(replicaRegistry);
         this.qualifier = qualifier;
         this.namingService = namingService;
-        this.crossServerServices = new HashMap<>();
+        this.crossServerServices = new ConcurrentHashMap<>();
+        this.peerTimeStamps = new ConcurrentHashMap<>();
+        this.log = log;
+        this.snapshots = snapshots;
 
-        timeStamps.put(qualifier, 0);
-        replicaTimeStamps.put(qualifier, 0);
         lookupAddService(crossServerServices);
+        registerGauges();
 
+        if (recover())
+            return;
         try {
-            createAccount(DEFAULT_ACCOUNT, timeStamps);
+            createAccount(DEFAULT_ACCOUNT, new VectorClock(replicaRegistry));
         } catch (UserException exception) {
             System.err.println(exception.getErrorMessage());
         }
-        accounts.put(DEFAULT_ACCOUNT, 1000);
-        debug(String.format(ACCOUNT_CREATED, DEFAULT_ACCOUNT));
+    }
+
+    /**
+     * Locks stateLock, recording the time waiting for it. 
+     * An acquisition without contention is recorded as no wait, without reading the clock.
+     */
+    private void lockState() {
+        if (stateLock.tryLock()) {
+            metrics.getStateLockWait().record(0);
+            return;
+        }
+        long start = System.nanoTime();
+        stateLock.lock();
+        metrics.getStateLockWait().record(System.nanoTime() - start);
+    }
+
+    /** Registers the gauges of the state, read under stateLock except the lock-free ledger view */
+    private void registerGauges() {
+        metrics.gauge("ledgerSize", () -> ledger.view().getEnd());
+        metrics.gauge("ledgerRetained", () -> ledger.view().size());
+        metrics.gauge("accounts", lockedGauge(() -> accounts.size()));
+        metrics.gauge("pendingOperations", lockedGauge(() -> pendingOperations.size()));
+        metrics.gauge("blockedReads", lockedGauge(() -> pendingReads.size()));
+        metrics.gauge("ledgerWatchers", lockedGauge(() -> watchers.size()));
+    }
+
+    /**
+     * Registers the replication lag gauges of a peer, against the replica timestamp it last acknowledged:
+     * the operations this replica knows of that the peer has not acknowledged yet, and the age of the oldest
+     * stable operation the peer has not acknowledged (by the wall clock of its origin), 0 if there is none.
+     * Both look at one entry of each replica, not at the whole ledger, so polling them stays cheap while a peer is down.
+     * A peer that never acknowledged a gossip lags by every operation.
+     */
+    private void registerPeerGauges(String peerQualifier) {
+        metrics.gauge(String.format(PEER_LAG_OPERATIONS, peerQualifier), lockedGauge(() -> {
+            VectorClock acknowledged = peerTimeStamps.getOrDefault(peerQualifier, new VectorClock(replicaRegistry));
+            long operations = 0;
+            for (int index = 0; index < this.replicaTimeStamps.length(); index++)
+                operations += Math.max(0, this.replicaTimeStamps.get(index) - acknowledged.get(index));
+            return operations;
+        }));
+        metrics.gauge(String.format(PEER_LAG_MILLIS, peerQualifier), lockedGauge(() -> {
+            VectorClock acknowledged = peerTimeStamps.getOrDefault(peerQualifier, new VectorClock(replicaRegistry));
+            LedgerView ledgerView = ledger.view();
+            // the operations of an origin are stable in sequence order, the next one is the oldest not acknowledged
+            long oldest = Long.MAX_VALUE;
+            for (int index = 0; index < this.replicaTimeStamps.length(); index++) {
+                int sequence = Math.max(acknowledged.get(index), baseTimeStamps.get(index)) + 1;
+                Integer position = ledgerIndex.get(new OperationId(index, sequence));
+                if (position == null)
+                    continue;
+                long acceptedAt = ledgerView.getAt(position).getAcceptedAt();
+                if (acceptedAt > 0)
+                    oldest = Math.min(oldest, acceptedAt);
+            }
+            return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+        }));
+    }
+
+    private LongSupplier lockedGauge(LongSupplier supplier) {
+        return () -> {
+            lockState();
+            try {
+                return supplier.getAsLong();
+            } finally {
+                stateLock.unlock();
+            }
+        };
+    }
+
+    /**
+     * Rebuilds the state from the latest snapshot and the log after it: accepted operations are executed 
+     * in the order of their stabilized records, and the others wait for their dependencies again.
+     * 
+     * @return false if there was no previous state
+     * @throws IOException if the snapshot or the log can not be read
+     */
+    private boolean recover() throws IOException {
+        int records;
+        Snapshot snapshot = snapshots.readLatest(replicaRegistry, accountDictionary);
+        lockState();
+        try {
+            recovering = true;
+            if (snapshot != null)
+                restore(snapshot);
+            records = log.recover(snapshot == null ? 0 : snapshot.getLogPosition(), this::recoverRecord);
+            recovering = false;
+
+            // operations accepted right before a crash may have lost their stabilized record
+            List<Operation> ready = new ArrayList<>();
+            for (Operation op : pendingOperations.values()) {
+                if (!pendingDependencies.add(op, op.getPrevTS(), this.timeStamps))
+                    ready.add(op);
+            }
+            for (Operation op : ready) {
+                pendingOperations.remove(op.getId());
+                applyOperation(op);
+            }
+        } finally {
+            stateLock.unlock();
+        }
+        applyReadyOperations();
+        debug(STATE_RECOVERED, ledger.view().size(), pendingOperations.size());
+        return snapshot != null || records > 0;
+    }
+
+    /** Replaces the empty state by the one in a snapshot, called with stateLock locked */
+    private void restore(Snapshot snapshot) {
+        this.accounts = snapshot.getAccounts();
+        this.baseAccounts = snapshot.getBaseAccounts();
+        this.timeStamps.merge(snapshot.getTimeStamps());
+        this.replicaTimeStamps.merge(snapshot.getReplicaTimeStamps());
+        this.baseTimeStamps.merge(snapshot.getBaseTimeStamps());
+        this.ledger = new Ledger(snapshot.getLedgerOffset());
+        for (Operation op : snapshot.getLedger()) {
+            op.setStable(true);
+            addToLedger(op);
+        }
+        for (Operation op : snapshot.getPendingOperations())
+            pendingOperations.put(op.getId(), op);
+        this.snapshotPosition = snapshot.getLogPosition();
+    }
+
+    /**
+     * Writes a snapshot of the state if it changed since the last one, and deletes the log it makes unnecessary.
+     * The state is only copied under stateLock, except the ledger of which a view is kept;
+     * the snapshot is written once the log is durable up to it,
+     * so it never covers records that could still be lost.
+     * Called periodically by the snapshot thread, and after a base state is installed; one call at a time.
+     */
+    public synchronized void takeSnapshot() {
+        Snapshot snapshot;
+        lockState();
+        try {
+            long position = log.appendedLsn();
+            if (position == snapshotPosition)
+                return;
+            LedgerView ledgerView = ledger.view();
+            snapshot = new Snapshot(position, accounts.copy(), baseAccounts.copy(),
+                timeStamps.copy(), replicaTimeStamps.copy(), baseTimeStamps.copy(), 
+                ledgerView.getStart(), ledgerView, new ArrayList<>(pendingOperations.values()));
+        } finally {
+            stateLock.unlock();
+        }
+        try {
+            log.sync(snapshot.getLogPosition()).join();
+            snapshots.write(snapshot);
+            log.deleteSegmentsBefore(snapshot.getLogPosition());
+            snapshotPosition = snapshot.getLogPosition();
+        } catch (IOException | CompletionException exception) {
+            System.err.println(String.format(SNAPSHOT_FAILED, exception.getMessage()));
+        }
+    }
+
+    private void recoverRecord(LogRecord record) {
+        if (record.getType() == RecordType.STABILIZED) {
+            applyOperation(pendingOperations.remove(record.operationId(replicaRegistry)));
+            return;
+        }
+        Operation op = record.operation(replicaRegistry, accountDictionary);
+        this.replicaTimeStamps.merge(op.getTS());
+        pendingOperations.put(op.getId(), op);
+    }
+
+    /**
+     * @return completes once every operation accepted or executed so far is in the log on disk,
+     *         or exceptionally if the log can not be written
+     */
+    public CompletableFuture<Void> durable() {
+        return log.sync(log.appendedLsn());
     }
 
     /**
@@ -97,53 +432,295 @@ public class ServerState {
      * @param userId the ID of the user for whom the account will be created
      * @throws UserException if the user service fails
     */
-    public synchronized Map<String, Integer> createAccount(String userId, Map<String, Integer> timeStamps) throws UserException {
-        Map<String, Integer> prevTimeStamps = createNewTimeStamps(timeStamps);
-        Map<String, Integer> newTimeStamps = new HashMap<String, Integer>(prevTimeStamps);
-        newTimeStamps.put(this.qualifier, this.replicaTimeStamps.get(this.qualifier) + 1);
-        Operation newOp = new CreateOp(userId, prevTimeStamps, newTimeStamps);
-        createAccountLogic(userId, newOp);
-        if (biggerEqualTs(this.timeStamps, prevTimeStamps)) {
-            accounts.put(userId, 0);
-            newOp.setStable(true);
-            this.timeStamps = merge(this.timeStamps, newTimeStamps);
-            debug(String.format(ACCOUNT_CREATED, userId));
-        } 
-        this.replicaTimeStamps.put(this.qualifier, this.replicaTimeStamps.get(this.qualifier) + 1);
-        return merge(this.replicaTimeStamps, newTimeStamps);
-    }
-
-    private Map<String, Integer> createNewTimeStamps(Map<String, Integer> timeStamps) {
-        Map<String, Integer> ts1Copy = sameSize(this.replicaTimeStamps, timeStamps);
-        ts1Copy.put(this.qualifier, this.replicaTimeStamps.get(this.qualifier));
-        return ts1Copy;
-    }
-
-    private Map<String, Integer> sameSize(Map<String, Integer> ts1, Map<String, Integer> ts2) {
-        Map<String, Integer> ts2Copy = new HashMap<String, Integer>(ts2);
-        for (String key : ts1.keySet()) {
-            if (!ts2Copy.containsKey(key))
-                ts2Copy.put(key, 0);
-        }
-        return ts2Copy;
-        
-    }
-
-    /** Auxiliar function to create account */
-    private synchronized void createAccountLogic(String userId, Operation newOp) throws UserException {
+    public VectorClock createAccount(String userId, VectorClock timeStamps) throws UserException {
+        VectorClock responseTimeStamps;
+        accountLocks.lock(userId);
+        try {
+            createAccountLogic(userId);
+            lockState();
+            try {
+                responseTimeStamps = mergedReplicaTimeStamps(registerCreateAccount(userId, timeStamps));
+            } finally {
+                stateLock.unlock();
+            }
+        } finally {
+            accountLocks.unlock(userId);
+        }
+        applyReadyOperations();
+        completeReadyReads();
+        return responseTimeStamps;
+    }
+
+    /**
+     * Creates a new account for every given user ID, as if each one was created by its own request in the 
+     * order of the batch, but locking the accounts and the state once for the whole batch.
+     * Each operation depends on the client timestamp and on the previous operations of the batch.
+     * 
+     * @param userIds the IDs of the users for whom the accounts will be created
+     * @param timeStamps the client timestamp
+     * @return the error of each account that could not be created and the timestamp covering the created ones
+     * @throws UserException if the server is not activated or the batch is too large
+     */
+    public BatchResult createAccountBatch(List<String> userIds, VectorClock timeStamps) throws UserException {
+        checkBatch(userIds.size());
+        List<String> errorMessages = new ArrayList<>(userIds.size());
+        VectorClock batchTimeStamps = timeStamps.copy();
+        VectorClock responseTimeStamps;
+        int[] locked = accountLocks.lockAll(userIds);
+        try {
+            lockState();
+            try {
+                for (String userId : userIds) {
+                    try {
+                        createAccountLogic(userId);
+                        batchTimeStamps.merge(registerCreateAccount(userId, timeStamps));
+                        errorMessages.add(null);
+                    } catch (UserException exception) {
+                        errorMessages.add(exception.getErrorMessage());
+                    }
+                }
+                responseTimeStamps = mergedReplicaTimeStamps(batchTimeStamps);
+            } finally {
+                stateLock.unlock();
+            }
+        } finally {
+            accountLocks.unlockAll(locked);
+        }
+        applyReadyOperations();
+        completeReadyReads();
+        return new BatchResult(errorMessages, responseTimeStamps);
+    }
+
+    /**
+     * Registers the operation creating an account, after its validation.
+     * Called with the account stripe and stateLock locked.
+     * 
+     * @param userId the ID of the user
+     * @param timeStamps the client timestamp
+     * @return the timestamp of the operation
+     * @throws UserException if the operation was already registered
+     */
+    private VectorClock registerCreateAccount(String userId, VectorClock timeStamps) throws UserException {
+        VectorClock prevTimeStamps = createNewTimeStamps(timeStamps);
+        VectorClock newTimeStamps = prevTimeStamps.copy();
+        int sequence = newTimeStamps.increment(this.qualifierIndex);
+        Operation newOp = new CreateOp(accountDictionary, accountDictionary.idOf(userId), prevTimeStamps, newTimeStamps, new OperationId(this.qualifierIndex, sequence));
+        if (isKnown(newOp.getId()))
+            throw new UserException(FAIL_CREATE_ACCOUNT + DUPLICATE_OPERATION);
+        newOp.setAcceptedAt(System.currentTimeMillis());
+        registerOperation(newOp);
+        this.replicaTimeStamps.increment(this.qualifierIndex);
+        return newTimeStamps;
+    }
+
+    /** Rejects a whole batch if the server is not activated or the batch is larger than MAX_BATCH_SIZE */
+    private void checkBatch(int size) throws UserException {
+        if (!activated)
+            throw new UserException(FAIL_BATCH + SERVER_UNAVAILABLE);
+        if (size > MAX_BATCH_SIZE)
+            throw new UserException(FAIL_BATCH + String.format(BATCH_TOO_LARGE, MAX_BATCH_SIZE));
+    }
+
+    /** Copies the client timestamp, replacing this server entry by the current replica timestamp */
+    private VectorClock createNewTimeStamps(VectorClock timeStamps) {
+        VectorClock prevTimeStamps = timeStamps.copy();
+        prevTimeStamps.set(this.qualifierIndex, this.replicaTimeStamps.get(this.qualifierIndex));
+        return prevTimeStamps;
+    }
+
+    /** Returns a new clock with the replica timestamp merged with the given one */
+    private VectorClock mergedReplicaTimeStamps(VectorClock timeStamps) {
+        VectorClock merged = this.replicaTimeStamps.copy();
+        merged.merge(timeStamps);
+        return merged;
+    }
+
+    /** Auxiliar function to create account, called with the account stripe locked */
+    private void createAccountLogic(String userId) throws UserException {
         // check server status, primary server status, and account validity
         if (!activated)
             throw new UserException(FAIL_CREATE_ACCOUNT + SERVER_UNAVAILABLE);
-        if (this.accounts.keySet().contains(userId)) 
+        if (this.accounts.contains(userId)) 
             throw new UserException(FAIL_CREATE_ACCOUNT +
                 String.format(DUPLICATE_ACCOUNT, userId));
-        if (this.ledger.contains(newOp))
-            throw new UserException(FAIL_CREATE_ACCOUNT + DUPLICATE_OPERATION);
-        
-        ledger.add(newOp);
+    }
+
+    /** Checks if the operation is in the ledger or waiting to be executed */
+    private boolean isKnown(OperationId id) {
+        return isCollected(id) || ledgerIndex.containsKey(id) || pendingOperations.containsKey(id);
+    }
+
+    /** Checks if the operation is covered by the base state */
+    private boolean isCollected(OperationId id) {
+        // operations from the same origin are executed in sequence order, so the base state covers a prefix of each origin
+        return id.getSequence() <= baseTimeStamps.get(id.getOrigin());
+    }
+
+    /**
+     * Executes the operation if its dependencies were already executed, otherwise the operation waits as unstable.
+     * Called with the operation accounts and stateLock locked; the operations it unblocks are executed 
+     * afterwards by applyReadyOperations.
+     * 
+     * @param newOp the new operation
+     */
+    private void registerOperation(Operation newOp) {
+        log.append(LogRecord.accepted(newOp));
+        boolean waiting = pendingDependencies.add(newOp, newOp.getPrevTS(), this.timeStamps);
+        if (newOp.getId().getOrigin() == this.qualifierIndex)
+            OperationAcceptedEvent.record(newOp, waiting);
+        if (waiting) {
+            pendingOperations.put(newOp.getId(), newOp);
+            for (LedgerWatcher watcher : watchers)
+                watcher.unstable(newOp);
+            debug(OPERATION_REGISTERED);
+            return;
+        }
+        applyOperation(newOp);
+    }
+
+    /** 
+     * Executes the unstable operations whose dependencies are now executed, until none is left ready.
+     * Each round only has concurrent operations, as an operation can not be ready before the ones it depends on are executed.
+     * Called without any lock, as the accounts of each operation are locked before stateLock.
+     * Ready operations stay in pendingOperations until executed, so they are still known to receiveGossip.
+     */
+    private void applyReadyOperations() {
+        List<Operation> ready = pollReadyOperations();
+        while (!ready.isEmpty()) {
+            for (Operation op : ready) {
+                lockAccounts(op);
+                lockState();
+                try {
+                    pendingOperations.remove(op.getId());
+                    applyOperation(op);
+                } finally {
+                    stateLock.unlock();
+                    unlockAccounts(op);
+                }
+            }
+            ready = pollReadyOperations();
+        }
+    }
+
+    private List<Operation> pollReadyOperations() {
+        lockState();
+        try {
+            return pendingDependencies.pollReady(this.timeStamps);
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void lockAccounts(Operation op) {
+        if (op instanceof TransferOp)
+            accountLocks.lock(op.getAccount(), ((TransferOp) op).getDestAccount());
+        else
+            accountLocks.lock(op.getAccount());
+    }
+
+    private void unlockAccounts(Operation op) {
+        if (op instanceof TransferOp)
+            accountLocks.unlock(op.getAccount(), ((TransferOp) op).getDestAccount());
+        else
+            accountLocks.unlock(op.getAccount());
+    }
+
+    /** Appends the executed operation to the ledger, indexes its position and tells the watchers */
+    private void addToLedger(Operation newOp) {
+        int position = ledger.view().getEnd();
+        ledgerIndex.put(newOp.getId(), position);
+        ledger.append(newOp);
+        for (LedgerWatcher watcher : watchers)
+            watcher.stable(newOp, position);
         debug(OPERATION_REGISTERED);
     }
 
+    /**
+     * Executes an operation whose dependencies are already executed, and marks it as stable.
+     * Operations that became invalid (received by gossip) are kept in the ledger without changing the accounts.
+     * The time operations from other replicas took to get here is recorded, except when recovering.
+     * Called with the operation accounts and stateLock locked.
+     * 
+     * @param op the operation to be executed
+     */
+    private void applyOperation(Operation op) {
+        boolean executed = execute(op, accounts);
+        if (executed) {
+            if (op instanceof TransferOp) {
+                TransferOp tOp = (TransferOp) op;
+                debug(TRANSFER_TO, tOp.getAccount(), tOp.getDestAccount(), tOp.getAmount());
+            } else
+                debug(ACCOUNT_CREATED, op.getAccount());
+        } else
+            debug(OPERATION_DISCARDED, op.getId());
+        op.setStable(true);
+        if (!recovering) {
+            log.append(LogRecord.stabilized(op));
+            long lagMillis = op.getAcceptedAt() > 0 ? Math.max(0, System.currentTimeMillis() - op.getAcceptedAt()) : 0;
+            if (op.getId().getOrigin() != this.qualifierIndex && op.getAcceptedAt() > 0)
+                metrics.getStableLag().record(TimeUnit.MILLISECONDS.toNanos(lagMillis));
+            OperationStabilizedEvent.record(op, executed, lagMillis);
+        }
+        addToLedger(op);
+        this.timeStamps.merge(op.getTS());
+    }
+
+    /**
+     * Applies the effect of an operation to a set of balances.
+     * The outcome only depends on the balances, so executing the ledger in order always gives the same state.
+     * 
+     * @param op the operation to be executed
+     * @param balances the balances of the accounts
+     * @return false if the operation had no effect (it became invalid)
+     */
+    private boolean execute(Operation op, AccountStore balances) {
+        if (op instanceof CreateOp) {
+            // the broker account created by this replica starts with the initial balance
+            boolean ownBroker = op.getAccountId() == brokerId && op.getId().getOrigin() == this.qualifierIndex;
+            return balances.create(op.getAccountId(), ownBroker ? DEFAULT_BALANCE : 0);
+        }
+        if (op instanceof TransferOp) {
+            TransferOp tOp = (TransferOp) op;
+            return balances.transfer(tOp.getAccountId(), tOp.getDestAccountId(), tOp.getAmount());
+        }
+        return false;
+    }
+
+    /**
+     * Removes from the ledger the longest prefix of operations that every other replica acknowledged,
+     * folding them into the base state. Those operations are never sent again, as every replica has them,
+     * and are still recognized as known through the base timestamp.
+     * Replicas that never acknowledged a gossip keep every operation in the ledger.
+     * Called with stateLock locked.
+     */
+    private void collectGarbage() {
+        List<VectorClock> acknowledgements = new ArrayList<>();
+        for (int index = 0; index < replicaRegistry.size(); index++) {
+            if (index == this.qualifierIndex)
+                continue;
+            VectorClock acknowledged = peerTimeStamps.get(replicaRegistry.qualifierOf(index));
+            if (acknowledged == null)
+                return;
+            acknowledgements.add(acknowledged);
+        }
+
+        LedgerView ledgerView = ledger.view();
+        int collected = 0;
+        for (Operation op : ledgerView) {
+            OperationId id = op.getId();
+            if (!acknowledgements.stream().allMatch(acknowledged -> acknowledged.get(id.getOrigin()) >= id.getSequence()))
+                break;
+            execute(op, baseAccounts);
+            baseTimeStamps.set(id.getOrigin(), id.getSequence());
+            ledgerIndex.remove(id);
+            collected++;
+        }
+        if (collected == 0)
+            return;
+        ledger.dropPrefix(ledgerView.getStart() + collected);
+        debug(LEDGER_COLLECTED, collected, ledgerView.size() - collected);
+    }
+
     /**
      * Transfer a certain amount from one account to another
      * 
@@ -153,32 +730,101 @@ public class ServerState {
      * @throws UserException if the user service fails
      * @throws CrossServerException if the cross-server service fails to propagate the updated ledger state
      */
-    public synchronized Map<String, Integer> transferTo(String accountFrom, String accountTo, int amount, Map<String, Integer> timeStamps) throws UserException{
-        Map<String, Integer> prevTimeStamps = createNewTimeStamps(timeStamps);
-        Map<String, Integer> newTimeStamps = new HashMap<String, Integer>(prevTimeStamps);
-        newTimeStamps.put(this.qualifier, this.replicaTimeStamps.get(this.qualifier) + 1);
-        Operation newOp = new TransferOp(accountFrom, accountTo, amount, prevTimeStamps, newTimeStamps);
-        transferToLogic(accountFrom, accountTo, amount, newOp);
-        if (biggerEqualTs(this.timeStamps, prevTimeStamps)) {
-            accounts.put(accountFrom, accounts.get(accountFrom) - amount);
-            accounts.put(accountTo, accounts.get(accountTo) + amount);
-            newOp.setStable(true);
-            this.timeStamps = merge(this.timeStamps, newTimeStamps);
-            debug(String.format(TRANSFER_TO, accountFrom, accountTo, amount));
-        } 
-        this.replicaTimeStamps.put(this.qualifier, this.replicaTimeStamps.get(this.qualifier) + 1);
-        return merge(this.replicaTimeStamps, newTimeStamps);
-    }
-
-    /** Auxiliar function to transfer to */
-    private synchronized void transferToLogic(String accountFrom, String accountTo, int amount, Operation newOp) throws UserException{
+    public VectorClock transferTo(String accountFrom, String accountTo, int amount, VectorClock timeStamps) throws UserException{
+        VectorClock responseTimeStamps;
+        accountLocks.lock(accountFrom, accountTo);
+        try {
+            transferToLogic(accountFrom, accountTo, amount);
+            lockState();
+            try {
+                responseTimeStamps = mergedReplicaTimeStamps(registerTransferTo(accountFrom, accountTo, amount, timeStamps));
+            } finally {
+                stateLock.unlock();
+            }
+        } finally {
+            accountLocks.unlock(accountFrom, accountTo);
+        }
+        applyReadyOperations();
+        completeReadyReads();
+        return responseTimeStamps;
+    }
+
+    /**
+     * Executes every given transfer, as if each one was requested by its own request in the order of the batch,
+     * but locking the accounts and the state once for the whole batch. Each transfer is validated against the
+     * balances left by the previous ones, and depends on the client timestamp and on the previous operations of the batch.
+     * 
+     * @param transfers the transfers
+     * @param timeStamps the client timestamp
+     * @return the error of each transfer that was rejected and the timestamp covering the accepted ones
+     * @throws UserException if the server is not activated or the batch is too large
+     */
+    public BatchResult transferBatch(List<Transfer> transfers, VectorClock timeStamps) throws UserException {
+        checkBatch(transfers.size());
+        List<String> accountIds = new ArrayList<>(transfers.size() * 2);
+        for (Transfer transfer : transfers) {
+            accountIds.add(transfer.getAccountFrom());
+            accountIds.add(transfer.getAccountTo());
+        }
+        List<String> errorMessages = new ArrayList<>(transfers.size());
+        VectorClock batchTimeStamps = timeStamps.copy();
+        VectorClock responseTimeStamps;
+        int[] locked = accountLocks.lockAll(accountIds);
+        try {
+            lockState();
+            try {
+                for (Transfer transfer : transfers) {
+                    try {
+                        transferToLogic(transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getAmount());
+                        batchTimeStamps.merge(registerTransferTo(transfer.getAccountFrom(), transfer.getAccountTo(), 
+                            transfer.getAmount(), timeStamps));
+                        errorMessages.add(null);
+                    } catch (UserException exception) {
+                        errorMessages.add(exception.getErrorMessage());
+                    }
+                }
+                responseTimeStamps = mergedReplicaTimeStamps(batchTimeStamps);
+            } finally {
+                stateLock.unlock();
+            }
+        } finally {
+            accountLocks.unlockAll(locked);
+        }
+        applyReadyOperations();
+        completeReadyReads();
+        return new BatchResult(errorMessages, responseTimeStamps);
+    }
+
+    /**
+     * Registers a transfer operation, after its validation.
+     * Called with the account stripes and stateLock locked.
+     * 
+     * @return the timestamp of the operation
+     * @throws UserException if the operation was already registered
+     */
+    private VectorClock registerTransferTo(String accountFrom, String accountTo, int amount, VectorClock timeStamps) throws UserException {
+        VectorClock prevTimeStamps = createNewTimeStamps(timeStamps);
+        VectorClock newTimeStamps = prevTimeStamps.copy();
+        int sequence = newTimeStamps.increment(this.qualifierIndex);
+        Operation newOp = new TransferOp(accountDictionary, accountDictionary.idOf(accountFrom), accountDictionary.idOf(accountTo), 
+            amount, prevTimeStamps, newTimeStamps, new OperationId(this.qualifierIndex, sequence));
+        if (isKnown(newOp.getId()))
+            throw new UserException(FAIL_TRANSFER_TO + DUPLICATE_OPERATION);
+        newOp.setAcceptedAt(System.currentTimeMillis());
+        registerOperation(newOp);
+        this.replicaTimeStamps.increment(this.qualifierIndex);
+        return newTimeStamps;
+    }
+
+    /** Auxiliar function to transfer to, called with the account stripes locked */
+    private void transferToLogic(String accountFrom, String accountTo, int amount) throws UserException{
         // check server status, primary server status, and account validity        
         if (!activated) 
             throw new UserException(FAIL_TRANSFER_TO + SERVER_UNAVAILABLE);
-        if (!this.accounts.keySet().contains(accountFrom)) 
+        if (!this.accounts.contains(accountFrom)) 
             throw new UserException(FAIL_TRANSFER_TO 
                 + String.format(NO_ACCOUNT, accountFrom));
-        if (!this.accounts.keySet().contains(accountTo)) 
+        if (!this.accounts.contains(accountTo)) 
             throw new UserException(FAIL_TRANSFER_TO 
                 + String.format(NO_ACCOUNT, accountTo));
         if (accountFrom.equals(accountTo)) 
@@ -188,49 +834,84 @@ public class ServerState {
         if (accounts.get(accountFrom) < amount) 
             throw new UserException(FAIL_TRANSFER_TO 
                 + String.format(INVALID_BALANCE, accountFrom, amount));
-        if (this.ledger.contains(newOp))
-            throw new UserException(DUPLICATE_OPERATION);
-        ledger.add(newOp);
-    }
-
-    private Map<String, Integer> merge(Map<String, Integer> ts1, Map<String, Integer> ts2) {
-
-        Map<String, Integer> newTimeStamps = new HashMap<String, Integer>(ts2);
-        for (String key : ts1.keySet()) {
-            if (!newTimeStamps.containsKey(key))
-                newTimeStamps.put(key, ts1.get(key));
-        }
-        for (String key : ts1.keySet()) {
-            if (newTimeStamps.get(key) < ts1.get(key))
-                newTimeStamps.put(key, ts1.get(key));   
-        }
-        return newTimeStamps;
     }
 
     /**
-     * Returns the balance of the account corresponding to the provided user ID.
+     * Returns the balance of the account corresponding to the provided user ID, once the replica timestamp
+     * covers the client timestamp. Reads ahead of the replica are completed by the request that advances 
+     * the replica timestamp, so no thread waits for them. Cancelling the result (or completing it with a 
+     * TimeoutException, as orTimeout does) stops the wait.
      *
      * @param userId the user ID whose balance is requested.
-     * @return the balance of the account.
-     * @throws UserException if the server is not activated, or if the account with the given user ID does not exist.
+     * @param userTS the client timestamp
+     * @return the balance of the account, completed exceptionally with a UserException if the account 
+     *         with the given user ID does not exist.
+     * @throws UserException if the server is not activated
      */
-    public synchronized int balance(String userId, Map<String, Integer> userTS) throws UserException {
+    public CompletableFuture<Integer> balance(String userId, VectorClock userTS) throws UserException {
         // check server status, primary server status, and account validity
         if (!activated)
             throw new UserException(FAIL_BALANCE + SERVER_UNAVAILABLE);
-        while (!biggerEqualTs(this.replicaTimeStamps, userTS)) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        PendingRead read = new PendingRead(userId, result);
+        lockState();
+        try {
+            if (pendingReads.add(read, userTS, this.replicaTimeStamps)) {
+                debug(BALANCE_WAITING, userId, userTS);
+                read.event = BlockedReadEvent.start(userId);
+                result.whenComplete((balance, exception) -> {
+                    if (exception instanceof CancellationException || exception instanceof TimeoutException)
+                        abandonRead(read);
+                });
+                return result;
             }
+        } finally {
+            stateLock.unlock();
+        }
+        completeRead(read);
+        return result;
+    }
+
+    /** Reads the balance of a read whose client timestamp is covered by the replica timestamp */
+    private void completeRead(PendingRead read) {
+        BlockedReadEvent.finish(read.event, false);
+        long balance = this.accounts.get(read.userId);
+        if (balance == AccountStore.NO_ACCOUNT) {
+            read.result.completeExceptionally(new UserException(FAIL_BALANCE + String.format(NO_ACCOUNT, read.userId)));
+            return;
         }
-        if (!this.accounts.keySet().contains(userId))
-            throw new UserException(FAIL_BALANCE + String.format(NO_ACCOUNT, userId));
 
         // balance logic
-        debug(String.format(BALANCE_ACCESSED, userId, accounts.get(userId)));
-        return accounts.get(userId);
+        debug(BALANCE_ACCESSED, read.userId, balance);
+        read.result.complete(Math.toIntExact(balance));
+    }
+
+    /** 
+     * Completes the reads covered by the replica timestamp. 
+     * Called without any lock after the replica timestamp advances, as completing a read sends its response.
+     */
+    private void completeReadyReads() {
+        List<PendingRead> ready;
+        lockState();
+        try {
+            ready = pendingReads.pollReady(this.replicaTimeStamps);
+        } finally {
+            stateLock.unlock();
+        }
+        ready.forEach(this::completeRead);
+    }
+
+    /** Stops waiting for a read that was cancelled or timed out */
+    private void abandonRead(PendingRead read) {
+        lockState();
+        try {
+            if (pendingReads.remove(read)) {
+                debug(BALANCE_ABANDONED, read.userId);
+                BlockedReadEvent.finish(read.event, true);
+            }
+        } finally {
+            stateLock.unlock();
+        }
     }
 
     /**
@@ -238,7 +919,7 @@ public class ServerState {
      * 
      * @throws AdminException if the server is already activated
      */
-    public synchronized void activate() throws AdminException {
+    public void activate() throws AdminException {
         if (activated == true)
             throw new AdminException(FAIL_ACTIVATE);
         activated = true;
@@ -250,104 +931,360 @@ public class ServerState {
      * 
      * @throws AdminException if the server is already deactivated
      */
-    public synchronized void deactivate() throws AdminException {
+    public void deactivate() throws AdminException {
         if (activated == false)
             throw new AdminException(FAIL_DEACTIVATE);
         activated = false;
         debug(SERVER_DEACTIVATED);
     }
 
+    public ReplicaRegistry getReplicaRegistry() {
+        return replicaRegistry;
+    }
+
+    public AccountDictionary getAccountDictionary() {
+        return accountDictionary;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     public boolean isActive() {
         return activated;
     }
 
+    /** Copy of the value timestamp, covering the executed operations */
+    public VectorClock getValueTimeStamps() {
+        lockState();
+        try {
+            return timeStamps.copy();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /** Copy of the replica timestamp, covering the accepted operations, executed or not */
+    public VectorClock getReplicaTimeStamps() {
+        lockState();
+        try {
+            return replicaTimeStamps.copy();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
     /**
-     * Get Ledger State
+     * Get a page of the Ledger State: the stable operations in execution order followed by the unstable ones
+     * in id order, keeping the ones that match the filter. Stable operations are read from a view of the ledger
+     * without locking, and stateLock is only taken to collect the unstable operations. A page stops after 
+     * MAX_SCANNED operations even if it is not full, so a filtered page does not scan the whole ledger.
+     * Operations are not copied, since they do not change after being registered.
      * 
-     * @return list of all the operations executed in the server
+     * @param filter the operations to return
+     * @param cursor where the page starts, LedgerCursor.START for the first page
+     * @param pageSize maximum number of operations of the page, or 0 for every matching operation
+     * @return the page
      */
-    public List<Operation> getLedgerState() {
+    public LedgerPage getLedgerPage(LedgerFilter filter, LedgerCursor cursor, int pageSize) {
         debug(LEDGE_ACCESSED);
-        return cloneLedgerState();
+        List<Operation> page = new ArrayList<>();
+        int scanned = 0;
+        List<Operation> unstable;
+        OperationId after = cursor.isStable() ? null : cursor.getAfter();
+        int stableEnd = -1;
+        if (!cursor.isStable())
+            unstable = unstableOperationsAfter(after, -1);
+        else {
+            LedgerView ledgerView = ledger.view();
+            // operations removed by garbage collection are skipped
+            int position = Math.max(cursor.getPosition(), ledgerView.getStart());
+            while (true) {
+                for (; filter.includesStable() && position < ledgerView.getEnd(); position++, scanned++) {
+                    if (pageSize > 0 && (page.size() == pageSize || scanned == MAX_SCANNED))
+                        return new LedgerPage(page, LedgerCursor.stable(position));
+                    Operation op = ledgerView.getAt(position);
+                    if (filter.matches(op))
+                        page.add(op);
+                }
+                if (!filter.includesUnstable())
+                    return new LedgerPage(page, null);
+                stableEnd = ledgerView.getEnd();
+                unstable = unstableOperationsAfter(null, filter.includesStable() ? stableEnd : -1);
+                if (unstable != null)
+                    break;
+                // operations were executed since the view was taken, they come before the unstable ones
+                ledgerView = ledger.view();
+            }
+        }
+
+        OperationId last = after;
+        for (Operation op : unstable) {
+            if (pageSize > 0 && (page.size() == pageSize || scanned == MAX_SCANNED)) {
+                // a page that ends with the stable operations starts the next one after them
+                return new LedgerPage(page, last == null ? LedgerCursor.stable(stableEnd) : LedgerCursor.unstable(last));
+            }
+            if (filter.matches(op))
+                page.add(op);
+            last = op.getId();
+            scanned++;
+        }
+        return new LedgerPage(page, null);
+    }
+
+    /**
+     * Registers a watcher of the ledger, which is told every change from then on. The ledger and the unstable
+     * operations it starts from are given to it under the same lock, so it neither misses nor repeats a change.
+     * 
+     * @param watcher the watcher, whose methods are called with stateLock locked
+     */
+    public void watchLedger(LedgerWatcher watcher) {
+        lockState();
+        try {
+            watcher.started(ledger.view(), pendingOperations.values().stream()
+                .sorted(Comparator.comparing(Operation::getId, OPERATION_ORDER))
+                .collect(Collectors.toList()));
+            watchers.add(watcher);
+        } finally {
+            stateLock.unlock();
+        }
     }
 
     /**
-     * Returns a synchronized copy of the current ledger state
+     * Removes a watcher of the ledger, which is not called again once this returns
      * 
-     * @return a new ArrayList containing cloned copies of the operations in the original ledger
+     * @param watcher the watcher
      */
-    private synchronized List<Operation> cloneLedgerState() {
-        ArrayList<Operation> clone = new ArrayList<>();
-        ledger.stream().forEach(op -> clone.add(op.clone()));
-        return clone;
+    public void unwatchLedger(LedgerWatcher watcher) {
+        lockState();
+        try {
+            watchers.remove(watcher);
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the unstable operations with a bigger id than the given one, in id order
+     * 
+     * @param after the id of the last unstable operation already returned, or null for all
+     * @param ledgerEnd the end of the ledger the unstable operations must follow, or -1 for any
+     * @return the unstable operations, or null if the ledger no longer ends at ledgerEnd
+     */
+    private List<Operation> unstableOperationsAfter(OperationId after, int ledgerEnd) {
+        lockState();
+        try {
+            if (ledgerEnd >= 0 && ledger.view().getEnd() != ledgerEnd)
+                return null;
+            return pendingOperations.values().stream()
+                .filter(op -> after == null || OPERATION_ORDER.compare(op.getId(), after) > 0)
+                .sorted(Comparator.comparing(Operation::getId, OPERATION_ORDER))
+                .collect(Collectors.toList());
+        } finally {
+            stateLock.unlock();
+        }
     }
 
     /**
      * Receives the Ledger State from the primary server and process the operations 
      * 
      * @param newOps list of operations to be processed
-     * @throws UserException if the process fails
+     * @param timeStamps the timestamp of the sender
+     * @param baseTimeStamps the timestamp newOps was computed from, every older operation must already be known
+     * @return the replica timestamp after processing the operations
+     * @throws CrossServerException if the replica timestamp does not cover baseTimeStamps (STATE_GAP)
      */
-    public synchronized void receiveGossip(List<Operation> newOps, Map<String, Integer> timeStamps) {
-        for (Operation op : newOps) {
-            if (op instanceof CreateOp) {
-                try {
-                    if (!biggerEqualTs(this.replicaTimeStamps, op.getTS())) {
-                        createAccount(op.getAccount(), op.getPrevTS());
-                        this.timeStamps = merge(this.timeStamps, op.getTS());
-                    }
-                } catch (UserException exception) {
-                    debug(exception.getErrorMessage());
-                    this.timeStamps = merge(this.timeStamps, op.getTS());
+    public VectorClock receiveGossip(List<Operation> newOps, VectorClock timeStamps, VectorClock baseTimeStamps) throws CrossServerException {
+        return receiveGossip(newOps, timeStamps, baseTimeStamps, null);
+    }
+
+    /**
+     * Receives the Ledger State from another server, with its base state if it was sent
+     * 
+     * @param newOps list of operations to be processed
+     * @param timeStamps the timestamp of the sender
+     * @param baseTimeStamps the timestamp newOps was computed from
+     * @param baseBalances the balances of the base state of the sender, whose base timestamp is baseTimeStamps, 
+     *                     or null if it was not sent
+     * @return the replica timestamp after processing the operations
+     * @throws CrossServerException if the replica timestamp does not cover baseTimeStamps and the base state
+     *                              can not be installed (STATE_GAP)
+     */
+    public VectorClock receiveGossip(List<Operation> newOps, VectorClock timeStamps, VectorClock baseTimeStamps,
+            Map<String, Long> baseBalances) throws CrossServerException {
+        if (checkGossipBase(baseTimeStamps, baseBalances != null))
+            installBase(baseBalances, baseTimeStamps);
+        receiveOperations(newOps);
+        return completeGossip(timeStamps);
+    }
+
+    /**
+     * Checks that a propagation can be applied, before receiving its operations
+     * 
+     * @param baseTimeStamps the timestamp the propagated operations were computed from
+     * @param withBase whether the propagation has the base state of the sender, whose base timestamp is baseTimeStamps
+     * @return true if the replica is missing operations before baseTimeStamps and must install the base state first
+     * @throws CrossServerException if the replica timestamp does not cover baseTimeStamps and the base state 
+     *                              was not sent or does not cover the one of this replica (STATE_GAP)
+     */
+    public boolean checkGossipBase(VectorClock baseTimeStamps, boolean withBase) throws CrossServerException {
+        lockState();
+        try {
+            if (this.replicaTimeStamps.biggerEqual(baseTimeStamps))
+                return false;
+            if (!withBase || !baseTimeStamps.biggerEqual(this.baseTimeStamps))
+                throw new CrossServerException(STATE_GAP);
+            return true;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Installs the base state of another replica, which has the effect of operations this replica is missing
+     * and can no longer receive, as they were garbage collected. The executed operations it does not cover are
+     * executed again on top of its balances, in the same order, and appended again to the ledger, so the watchers
+     * get them at their new positions; the executed and unstable operations it covers are dropped.
+     * A snapshot is written before returning, so a restart does not replay the log without the base state.
+     * Called without any lock, as every account stripe is locked before stateLock.
+     * 
+     * @param balances the balances of the base state
+     * @param baseTimeStamps the base timestamp of the other replica, covering the operations of the base state
+     * @throws CrossServerException if this replica garbage collected operations the base state does not cover (STATE_GAP)
+     */
+    public void installBase(Map<String, Long> balances, VectorClock baseTimeStamps) throws CrossServerException {
+        int[] locked = accountLocks.lockAll();
+        try {
+            lockState();
+            try {
+                // another propagation may have brought the missing operations meanwhile
+                if (this.replicaTimeStamps.biggerEqual(baseTimeStamps))
+                    return;
+                if (!baseTimeStamps.biggerEqual(this.baseTimeStamps))
+                    throw new CrossServerException(STATE_GAP);
+                this.baseAccounts = new AccountStore(accountDictionary);
+                balances.forEach((account, balance) -> this.baseAccounts.create(accountDictionary.idOf(account), balance));
+                this.baseTimeStamps.merge(baseTimeStamps);
+
+                AccountStore installed = this.baseAccounts.copy();
+                LedgerView ledgerView = ledger.view();
+                ledger.dropPrefix(ledgerView.getEnd());
+                ledgerIndex.clear();
+                int executed = 0;
+                for (Operation op : ledgerView) {
+                    if (isCollected(op.getId()))
+                        continue;
+                    execute(op, installed);
+                    addToLedger(op);
+                    executed++;
                 }
-            } else if (op instanceof TransferOp){
-                try {
-                    if (!biggerEqualTs(this.replicaTimeStamps, op.getTS())) {
-                        TransferOp tOp = (TransferOp) op;
-                        transferTo(tOp.getAccount(), tOp.getDestAccount(), tOp.getAmount(), op.getPrevTS());
-                        this.timeStamps = merge(this.timeStamps, op.getTS());
-                    }
-                } catch (UserException exception) {
-                    this.timeStamps = merge(this.timeStamps, op.getTS());
-                    debug(exception.getErrorMessage());
+                this.accounts.assign(installed);
+
+                List<Operation> covered = pendingOperations.values().stream()
+                    .filter(op -> isCollected(op.getId()))
+                    .collect(Collectors.toList());
+                for (Operation op : covered) {
+                    pendingOperations.remove(op.getId());
+                    pendingDependencies.remove(op);
                 }
+                this.timeStamps.merge(baseTimeStamps);
+                this.replicaTimeStamps.merge(baseTimeStamps);
+                debug(BASE_INSTALLED, (Object) balances.size(), executed, ledgerView.size() - executed + covered.size());
+            } finally {
+                stateLock.unlock();
             }
+        } finally {
+            accountLocks.unlockAll(locked);
         }
-        this.replicaTimeStamps = merge(this.replicaTimeStamps, timeStamps);
-        for (Operation op : this.ledger) {
-            if (biggerEqualTs(this.timeStamps, op.getPrevTS()) && !op.getStable()) {
-                op.setStable(true);
-                if (op instanceof CreateOp) {
-                    accounts.put(op.getAccount(), 0);
-                    this.timeStamps = merge(this.timeStamps, op.getTS());
-                } else {
-                    TransferOp tOp = (TransferOp) op;
-                    accounts.put(op.getAccount(), accounts.get(op.getAccount()) - tOp.getAmount());
-                    accounts.put(tOp.getDestAccount(), accounts.get(tOp.getDestAccount()) + tOp.getAmount());
-                    this.timeStamps = merge(this.timeStamps, op.getTS());
+        applyReadyOperations();
+        completeReadyReads();
+        takeSnapshot();
+    }
+
+    /**
+     * Registers part of the propagated operations and executes the ones that became ready, 
+     * so a streamed propagation is applied as it arrives instead of being kept until the end.
+     * 
+     * @param newOps the operations, in the execution order of the sender
+     */
+    public void receiveOperations(List<Operation> newOps) {
+        for (Operation op : newOps) {
+            lockAccounts(op);
+            lockState();
+            try {
+                // operations already known were received before
+                if (!isKnown(op.getId())) {
+                    this.replicaTimeStamps.merge(op.getTS());
+                    registerOperation(op);
                 }
+            } finally {
+                stateLock.unlock();
+                unlockAccounts(op);
             }
         }
-        notifyAll();
+        applyReadyOperations();
+        completeReadyReads();
     }
 
-    private boolean biggerEqualTs(Map<String, Integer> ts1, Map<String, Integer> ts2) {
-        Map<String, Integer> ts1Copy = sameSize(ts2, ts1);
-        Map<String, Integer> ts2Copy = sameSize(ts1, ts2);
-        for (String key : ts1Copy.keySet()) {
-            if (ts1Copy.get(key) < ts2Copy.get(key))
-                return false;
+    /**
+     * Ends a propagation once all its operations were received
+     * 
+     * @param timeStamps the timestamp of the sender
+     * @return the replica timestamp after processing the operations
+     */
+    public VectorClock completeGossip(VectorClock timeStamps) {
+        VectorClock replicaTimeStamps;
+        lockState();
+        try {
+            this.replicaTimeStamps.merge(timeStamps);
+            replicaTimeStamps = this.replicaTimeStamps.copy();
+        } finally {
+            stateLock.unlock();
         }
-        return true;
+        applyReadyOperations();
+        completeReadyReads();
+        return replicaTimeStamps;
     }
 
     /**
-     * Propagate the Ledger State to all the known servers
+     * Propagate the Ledger State to all the known servers.
+     * Rounds run one at a time on the gossip thread, so the caller is not blocked. In each round the state 
+     * is propagated to every replica at once, and the replicas that fail are looked up again in the naming 
+     * server and retried once; stateLock is only held while collecting the operations to send.
      * 
-     * @param newOps list of operations to be propagated
-     * @throws CrossServerException if the propagation fails
+     * @return completes with the result of each replica, or exceptionally with a CrossServerException 
+     *         if no replica is known
+     */
+    public CompletableFuture<List<GossipResult>> sendGossip() {
+        CompletableFuture<List<GossipResult>> round = new CompletableFuture<>();
+        gossipExecutor.execute(() -> {
+            try {
+                round.complete(gossipRound());
+            } catch (CrossServerException exception) {
+                round.completeExceptionally(exception);
+            }
+        });
+        return round;
+    }
+
+    /**
+     * Stops the gossip rounds and closes the channels to the other replicas, cancelling the propagations
+     * in progress. Called when the replica stops, after its server, so no round is requested after it.
      */
-    public synchronized void sendGossip() throws CrossServerException {
+    public void shutdown() {
+        gossipExecutor.shutdownNow();
+        crossServerServices.values().forEach(CrossServerDistLedgerService::shutdownNow);
+        try {
+            gossipExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        // the round in progress may have looked a replica up again and opened a channel to it
+        crossServerServices.values().forEach(CrossServerDistLedgerService::shutdownNow);
+    }
+
+    /** Runs a gossip round on the gossip thread, waiting for every replica to answer or reach its deadline */
+    private List<GossipResult> gossipRound() throws CrossServerException {
         // if there are no known servers lookup
         if (crossServerServices.isEmpty())
             lookupAddService(this.crossServerServices);
@@ -355,39 +1292,178 @@ public class ServerState {
         if (crossServerServices.isEmpty())
             throw new CrossServerException(FAIL_PROPAGATE_STATE);
 
-        List<String> propagatedQualifiers = new ArrayList<>();
-        // try to propagato to all known servers
-        for (var entry : crossServerServices.entrySet()) {
-            try {
-                entry.getValue().propagateState(ledger.stream().filter(op -> op.getStable()).collect(Collectors.toList()),  new HashMap<>(timeStamps));
-                propagatedQualifiers.add(entry.getKey());
-            } catch (CrossServerException exception) {
-                continue;
-            }
-        }
+        // propagate to all known servers at once
+        Map<String, GossipResult> results = propagateToAll(crossServerServices);
+
         // search new adress for servers that failed propagation
         List<Server> notPropagatedServers;
         try {
             notPropagatedServers = namingService
                 .lookup(DEFAULT_SERVICE)
                 .stream()
-                .filter(server -> !propagatedQualifiers.contains(server.getQualifier()) && !server.getQualifier().equals(this.qualifier))
+                .filter(server -> !server.getQualifier().equals(this.qualifier) 
+                    && (!results.containsKey(server.getQualifier()) || !results.get(server.getQualifier()).isPropagated()))
                 .collect(Collectors.toList());
         } catch (NamingServerException exception) {
-            throw new CrossServerException(exception.getErrorMessage());
+            debug(exception.getErrorMessage());
+            return new ArrayList<>(results.values());
         }
 
-        if (notPropagatedServers.size() == 0) 
-            return ;
+        Map<String, CrossServerDistLedgerService> retried = new HashMap<>();
         for (Server server : notPropagatedServers) {
             CrossServerDistLedgerService crossServerService = new CrossServerDistLedgerService(server.getQualifier(), server.getAddress(), this);
-            crossServerServices.put(server.getQualifier(), crossServerService);
-            try{
-                crossServerService.propagateState(ledger.stream().filter(op -> op.getStable()).collect(Collectors.toList()), new HashMap<>(timeStamps));
-            } catch (CrossServerException exception) {
-                continue;
-            }
+            CrossServerDistLedgerService previous = crossServerServices.put(server.getQualifier(), crossServerService);
+            if (previous != null)
+                previous.shutdown();
+            replicaRegistry.indexOf(server.getQualifier());
+            registerPeerGauges(server.getQualifier());
+            retried.put(server.getQualifier(), crossServerService);
         }
+        results.putAll(propagateToAll(retried));
+        return new ArrayList<>(results.values());
+    }
+
+    /** Propagates to the replicas concurrently and waits for all of them */
+    private Map<String, GossipResult> propagateToAll(Map<String, CrossServerDistLedgerService> services) {
+        Map<String, CompletableFuture<GossipResult>> propagations = new HashMap<>();
+        services.forEach((peerQualifier, crossServerService) -> propagations.put(peerQualifier, 
+            propagateTo(peerQualifier, crossServerService)
+                .exceptionally(exception -> GossipResult.failed(peerQualifier, errorMessage(exception)))));
+
+        Map<String, GossipResult> results = new HashMap<>();
+        propagations.forEach((peerQualifier, propagation) -> results.put(peerQualifier, propagation.join()));
+        return results;
+    }
+
+    private static String errorMessage(Throwable exception) {
+        Throwable cause = exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+        if (cause instanceof CrossServerException)
+            return ((CrossServerException) cause).getErrorMessage();
+        return String.valueOf(cause.getMessage());
+    }
+
+    /**
+     * Propagates to a replica the stable operations it has not acknowledged yet.
+     * If the replica reports it is missing older operations, the whole retained ledger is sent, based on the 
+     * base timestamp. The operations before it were garbage collected and are never sent again, so a replica
+     * that is also missing those (e.g. one that joined later or lost its data) gets the base state with the 
+     * retained ledger instead. Only a replica that garbage collected operations this base state does not cover
+     * reports a gap for it, and fails with STATE_COLLECTED.
+     * Each acknowledgement may let the operations every replica has be removed from the ledger.
+     * 
+     * @param peerQualifier the qualifier of the replica
+     * @param crossServerService the service used to propagate to the replica
+     * @return completes with the result, or exceptionally if the propagation fails
+     */
+    private CompletableFuture<GossipResult> propagateTo(String peerQualifier, CrossServerDistLedgerService crossServerService) {
+        VectorClock acknowledged = peerTimeStamps.get(peerQualifier);
+        // a replica that never acknowledged a propagation gets the whole retained ledger right away
+        if (acknowledged == null)
+            return baseOnGap(peerQualifier, crossServerService, propagateStateAfter(peerQualifier, crossServerService, null, false));
+        return propagateStateAfter(peerQualifier, crossServerService, acknowledged, false)
+            .handle((result, exception) -> {
+                if (exception == null)
+                    return CompletableFuture.completedFuture(result);
+                if (!errorMessage(exception).equals(STATE_GAP))
+                    return CompletableFuture.<GossipResult>failedFuture(exception);
+                debug(FULL_STATE_RESEND, peerQualifier);
+                return baseOnGap(peerQualifier, crossServerService, propagateStateAfter(peerQualifier, crossServerService, null, false));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    /** Sends the base state to a replica that reported a gap for the whole retained ledger */
+    private CompletableFuture<GossipResult> baseOnGap(String peerQualifier, CrossServerDistLedgerService crossServerService,
+            CompletableFuture<GossipResult> propagation) {
+        return propagation
+            .handle((result, exception) -> {
+                if (exception == null)
+                    return CompletableFuture.completedFuture(result);
+                if (!errorMessage(exception).equals(STATE_GAP))
+                    return CompletableFuture.<GossipResult>failedFuture(exception);
+                debug(BASE_STATE_RESEND, peerQualifier);
+                return collectedOnGap(peerQualifier, propagateStateAfter(peerQualifier, crossServerService, null, true));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    /** Fails a propagation of the base state that the replica reported a gap for with STATE_COLLECTED */
+    private CompletableFuture<GossipResult> collectedOnGap(String peerQualifier, CompletableFuture<GossipResult> propagation) {
+        return propagation
+            .handle((result, exception) -> {
+                if (exception == null)
+                    return CompletableFuture.completedFuture(result);
+                if (!errorMessage(exception).equals(STATE_GAP))
+                    return CompletableFuture.<GossipResult>failedFuture(exception);
+                debug(STATE_COLLECTED_FOR, peerQualifier);
+                return CompletableFuture.<GossipResult>failedFuture(new CrossServerException(peerQualifier, STATE_COLLECTED));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    /**
+     * Propagates the stable operations not covered by the given timestamp together with the value timestamp.
+     * A view of the ledger and the value timestamp are taken together under stateLock, so the value timestamp 
+     * never covers an operation that is not sent, and the operations are selected from the view without it.
+     * The operations are only sent once they are on disk, so a crash can not reuse the sequence of an operation
+     * another replica already has.
+     * 
+     * @param acknowledged the timestamp the replica has, or null for the base timestamp taken with the view,
+     *        which sends the whole retained ledger
+     * @param withBase whether the base state is sent too, only with a null acknowledged
+     */
+    private CompletableFuture<GossipResult> propagateStateAfter(String peerQualifier, 
+            CrossServerDistLedgerService crossServerService, VectorClock acknowledged, boolean withBase) {
+        LedgerView ledgerView;
+        VectorClock base;
+        AccountStore baseBalances = null;
+        VectorClock timeStamps;
+        long logPosition;
+        lockState();
+        try {
+            base = acknowledged != null ? acknowledged : baseTimeStamps.copy();
+            if (withBase)
+                baseBalances = baseAccounts.copy();
+            ledgerView = ledger.view();
+            timeStamps = this.timeStamps.copy();
+            logPosition = log.appendedLsn();
+        } finally {
+            stateLock.unlock();
+        }
+        List<Operation> operations = stableOperationsAfter(ledgerView, base);
+        Map<String, Long> balances = baseBalances != null ? new LinkedHashMap<>() : null;
+        if (baseBalances != null)
+            baseBalances.forEach(balances::put);
+        return log.sync(logPosition)
+            .handle((ignored, exception) -> {
+                if (exception != null)
+                    throw new CompletionException(new CrossServerException(peerQualifier, STATE_NOT_DURABLE));
+                return ignored;
+            })
+            .thenCompose(ignored -> crossServerService.propagateState(operations, timeStamps, base, balances))
+            .thenApply(replicaTimeStamps -> {
+                peerTimeStamps.put(peerQualifier, replicaTimeStamps);
+                lockState();
+                try {
+                    collectGarbage();
+                } finally {
+                    stateLock.unlock();
+                }
+                return GossipResult.propagated(peerQualifier, operations.size());
+            });
+    }
+
+    /**
+     * Returns the stable operations that are not covered by the given timestamp
+     * 
+     * @param ledgerView the view of the ledger
+     * @param acknowledged the timestamp acknowledged by a replica
+     * @return list of the stable operations newer than the timestamp
+     */
+    private static List<Operation> stableOperationsAfter(LedgerView ledgerView, VectorClock acknowledged) {
+        return ledgerView.stream()
+            .filter(op -> acknowledged.get(op.getId().getOrigin()) < op.getId().getSequence())
+            .collect(Collectors.toList());
     }
 
     /**
@@ -405,8 +1481,8 @@ public class ServerState {
             .forEach(server -> {
                 crossServerServices.put(server.getQualifier(),
                     new CrossServerDistLedgerService(server.getQualifier(), server.getAddress(), this));
-                this.timeStamps.put(server.getQualifier(), 0);
-                this.replicaTimeStamps.put(server.getQualifier(), 0);
+                replicaRegistry.indexOf(server.getQualifier());
+                registerPeerGauges(server.getQualifier());
             });
         } catch (NamingServerException exception) {
             debug(exception.getErrorMessage());
@@ -0,0 +1,96 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks selected by the hash of a key (an account).
+ * Operations on accounts that fall in different stripes can run in parallel.
+ * Several keys are always locked in stripe order so that two threads locking the same keys can not deadlock.
+ */
+public class StripedLock {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param minStripes minimum number of stripes, rounded up to a power of two
+     */
+    public StripedLock(int minStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++)
+            stripes[i] = new ReentrantLock();
+        this.mask = size - 1;
+    }
+
+    private int stripeOf(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public void lock(String key) {
+        stripes[stripeOf(key)].lock();
+    }
+
+    public void unlock(String key) {
+        stripes[stripeOf(key)].unlock();
+    }
+
+    /** Locks the stripes of both keys, in stripe order */
+    public void lock(String key1, String key2) {
+        int stripe1 = stripeOf(key1);
+        int stripe2 = stripeOf(key2);
+        stripes[Math.min(stripe1, stripe2)].lock();
+        if (stripe1 != stripe2)
+            stripes[Math.max(stripe1, stripe2)].lock();
+    }
+
+    public void unlock(String key1, String key2) {
+        int stripe1 = stripeOf(key1);
+        int stripe2 = stripeOf(key2);
+        if (stripe1 != stripe2)
+            stripes[Math.max(stripe1, stripe2)].unlock();
+        stripes[Math.min(stripe1, stripe2)].unlock();
+    }
+
+    /**
+     * Locks the stripes of all the keys, each once and in stripe order
+     * 
+     * @param keys the keys to lock
+     * @return the locked stripes, to be given to unlockAll
+     */
+    public int[] lockAll(Iterable<String> keys) {
+        BitSet selected = new BitSet(stripes.length);
+        for (String key : keys)
+            selected.set(stripeOf(key));
+        int[] locked = selected.stream().toArray();
+        for (int stripe : locked)
+            stripes[stripe].lock();
+        return locked;
+    }
+
+    /**
+     * Locks every stripe, in stripe order
+     * 
+     * @return the locked stripes, to be given to unlockAll
+     */
+    public int[] lockAll() {
+        int[] locked = new int[stripes.length];
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            stripes[stripe].lock();
+            locked[stripe] = stripe;
+        }
+        return locked;
+    }
+
+    /**
+     * Unlocks the stripes locked by lockAll
+     * 
+     * @param locked the stripes returned by lockAll
+     */
+    public void unlockAll(int[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--)
+            stripes[locked[i]].unlock();
+    }
+}
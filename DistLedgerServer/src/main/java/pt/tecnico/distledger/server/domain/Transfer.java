@@ -0,0 +1,27 @@
+package pt.tecnico.distledger.server.domain;
+
+/** Transfer requested by a client as part of a batch */
+public class Transfer {
+
+    private final String accountFrom;
+    private final String accountTo;
+    private final int amount;
+
+    public Transfer(String accountFrom, String accountTo, int amount) {
+        this.accountFrom = accountFrom;
+        this.accountTo = accountTo;
+        this.amount = amount;
+    }
+
+    public String getAccountFrom() {
+        return accountFrom;
+    }
+
+    public String getAccountTo() {
+        return accountTo;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+}
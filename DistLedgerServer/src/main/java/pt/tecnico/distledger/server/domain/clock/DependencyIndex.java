@@ -0,0 +1,122 @@
+package pt.tecnico.distledger.server.domain.clock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Items waiting for a clock to cover a required timestamp.
+ * Each item is parked under the first entry of the clock that is still behind the required timestamp,
+ * in a queue ordered by the value that entry has to reach. When the clock advances only the items
+ * whose blocking entry was reached are checked again, so the cost of polling depends on the number
+ * of items unblocked and not on the number of items waiting.
+ * 
+ * @param <T> type of the waiting items
+ */
+public class DependencyIndex<T> {
+
+    private static class Waiter<T> implements Comparable<Waiter<T>> {
+        private final T item;
+        private final VectorClock required;
+        private final int value;
+        private final long order;
+
+        private Waiter(T item, VectorClock required, int value, long order) {
+            this.item = item;
+            this.required = required;
+            this.value = value;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Waiter<T> other) {
+            if (value != other.value)
+                return Integer.compare(value, other.value);
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /** Queues of waiting items by the index of the entry blocking them */
+    private final List<PriorityQueue<Waiter<T>>> waiters = new ArrayList<>();
+
+    private int size = 0;
+    private long insertions = 0;
+
+    /**
+     * Parks an item until the clock covers the required timestamp
+     * 
+     * @param item the item waiting
+     * @param required the timestamp the clock has to cover
+     * @param current the current value of the clock
+     * @return false if the current clock already covers the required timestamp, in which case the item is not added
+     */
+    public boolean add(T item, VectorClock required, VectorClock current) {
+        int blocking = firstBlockingEntry(required, current);
+        if (blocking < 0)
+            return false;
+        park(new Waiter<>(item, required, required.get(blocking), insertions++), blocking);
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes and returns the items whose required timestamp is covered by the clock, in insertion order
+     * among the ones unblocked by the same entry
+     * 
+     * @param current the current value of the clock
+     * @return list of the items that stopped waiting
+     */
+    public List<T> pollReady(VectorClock current) {
+        List<T> ready = new ArrayList<>();
+        if (size == 0)
+            return ready;
+        for (int entry = 0; entry < waiters.size(); entry++) {
+            PriorityQueue<Waiter<T>> queue = waiters.get(entry);
+            int value = current.get(entry);
+            while (!queue.isEmpty() && queue.peek().value <= value) {
+                Waiter<T> waiter = queue.poll();
+                int blocking = firstBlockingEntry(waiter.required, current);
+                if (blocking < 0) {
+                    ready.add(waiter.item);
+                    size--;
+                } else
+                    park(new Waiter<>(waiter.item, waiter.required, waiter.required.get(blocking), waiter.order), blocking);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Removes an item that stopped waiting for another reason
+     * 
+     * @param item the item to be removed
+     * @return true if the item was waiting
+     */
+    public boolean remove(T item) {
+        for (PriorityQueue<Waiter<T>> queue : waiters) {
+            if (queue.removeIf(waiter -> waiter.item == item)) {
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void park(Waiter<T> waiter, int entry) {
+        while (waiters.size() <= entry)
+            waiters.add(new PriorityQueue<>());
+        waiters.get(entry).add(waiter);
+    }
+
+    private static int firstBlockingEntry(VectorClock required, VectorClock current) {
+        for (int i = 0; i < required.length(); i++) {
+            if (current.get(i) < required.get(i))
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,63 @@
+package pt.tecnico.distledger.server.domain.clock;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense index to every replica qualifier known by the server.
+ * All the vector clocks of a server share the same registry, so an entry of a clock
+ * is addressed by the index of the qualifier instead of the qualifier itself.
+ * Indexes are never reused or removed.
+ */
+public class ReplicaRegistry {
+
+    /** Map to save the index by the qualifier */
+    private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+
+    /** Qualifiers by index */
+    private volatile String[] qualifiers = new String[0];
+
+    /**
+     * Returns the index of the given qualifier, registering it if it is unknown
+     * 
+     * @param qualifier the replica qualifier
+     * @return the index of the qualifier
+     */
+    public int indexOf(String qualifier) {
+        Integer index = indexes.get(qualifier);
+        if (index != null)
+            return index;
+        return register(qualifier);
+    }
+
+    private synchronized int register(String qualifier) {
+        Integer index = indexes.get(qualifier);
+        if (index != null)
+            return index;
+        String[] newQualifiers = Arrays.copyOf(qualifiers, qualifiers.length + 1);
+        newQualifiers[qualifiers.length] = qualifier;
+        qualifiers = newQualifiers;
+        indexes.put(qualifier, qualifiers.length - 1);
+        return qualifiers.length - 1;
+    }
+
+    /**
+     * Returns the index of the given qualifier without registering it
+     * 
+     * @param qualifier the replica qualifier
+     * @return the index of the qualifier or -1 if it is unknown
+     */
+    public int find(String qualifier) {
+        Integer index = indexes.get(qualifier);
+        return index == null ? -1 : index;
+    }
+
+    public String qualifierOf(int index) {
+        return qualifiers[index];
+    }
+
+    public int size() {
+        return qualifiers.length;
+    }
+}
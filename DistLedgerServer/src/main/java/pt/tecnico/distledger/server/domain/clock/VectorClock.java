@@ -0,0 +1,170 @@
+package pt.tecnico.distledger.server.domain.clock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Vector timestamp backed by a primitive array indexed by the {@link ReplicaRegistry}.
+ * Entries that were never set (including replicas registered after the clock was created) are 0,
+ * so clocks of different lengths can be compared and merged without being resized first.
+ * Comparisons and in-place merges do not allocate.
+ */
+public class VectorClock {
+
+    private final ReplicaRegistry registry;
+    private int[] entries;
+
+    public VectorClock(ReplicaRegistry registry) {
+        this.registry = registry;
+        this.entries = new int[registry.size()];
+    }
+
+    private VectorClock(ReplicaRegistry registry, int[] entries) {
+        this.registry = registry;
+        this.entries = entries;
+    }
+
+    /**
+     * Creates a clock from its map representation, registering unknown qualifiers.
+     * Only used for the clocks of other replicas; the clocks of clients are converted by fromKnownMap.
+     * 
+     * @param timeStamps map of the timestamps by the qualifier
+     * @param registry the registry shared by the server clocks
+     * @return the new clock
+     */
+    public static VectorClock fromMap(Map<String, Integer> timeStamps, ReplicaRegistry registry) {
+        VectorClock clock = new VectorClock(registry);
+        for (Map.Entry<String, Integer> entry : timeStamps.entrySet())
+            clock.set(registry.indexOf(entry.getKey()), entry.getValue());
+        return clock;
+    }
+
+    /**
+     * Creates a clock from its map representation without registering unknown qualifiers,
+     * for clocks sent by clients, which must not add replicas to the registry
+     * 
+     * @param timeStamps map of the timestamps by the qualifier
+     * @param registry the registry shared by the server clocks
+     * @return the new clock, or null if an unknown qualifier has an entry other than 0
+     */
+    public static VectorClock fromKnownMap(Map<String, Integer> timeStamps, ReplicaRegistry registry) {
+        VectorClock clock = new VectorClock(registry);
+        for (Map.Entry<String, Integer> entry : timeStamps.entrySet()) {
+            int index = registry.find(entry.getKey());
+            if (index >= 0)
+                clock.set(index, entry.getValue());
+            else if (entry.getValue() != 0)
+                return null;
+        }
+        return clock;
+    }
+
+    /**
+     * Returns the map representation of the clock, with an entry for every registered replica
+     * 
+     * @return map of the timestamps by the qualifier
+     */
+    public Map<String, Integer> toMap() {
+        int size = registry.size();
+        Map<String, Integer> timeStamps = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++)
+            timeStamps.put(registry.qualifierOf(i), get(i));
+        return timeStamps;
+    }
+
+    public ReplicaRegistry getRegistry() {
+        return registry;
+    }
+
+    public int get(int index) {
+        return index < entries.length ? entries[index] : 0;
+    }
+
+    public void set(int index, int value) {
+        if (index >= entries.length)
+            entries = Arrays.copyOf(entries, Math.max(index + 1, registry.size()));
+        entries[index] = value;
+    }
+
+    /**
+     * Increments the given entry
+     * 
+     * @param index the index of the entry
+     * @return the new value of the entry
+     */
+    public int increment(int index) {
+        set(index, get(index) + 1);
+        return entries[index];
+    }
+
+    /**
+     * Number of entries physically stored; entries at or after this index are 0
+     */
+    public int length() {
+        return entries.length;
+    }
+
+    /**
+     * Merges the given clock into this one, keeping the maximum of every entry
+     * 
+     * @param other the clock to be merged
+     */
+    public void merge(VectorClock other) {
+        int[] otherEntries = other.entries;
+        if (otherEntries.length > entries.length)
+            entries = Arrays.copyOf(entries, otherEntries.length);
+        for (int i = 0; i < otherEntries.length; i++) {
+            if (entries[i] < otherEntries[i])
+                entries[i] = otherEntries[i];
+        }
+    }
+
+    /**
+     * Checks if every entry of this clock is bigger or equal than the same entry of the given clock
+     * 
+     * @param other the clock to compare with
+     * @return true if this clock covers the other
+     */
+    public boolean biggerEqual(VectorClock other) {
+        int[] otherEntries = other.entries;
+        int common = Math.min(entries.length, otherEntries.length);
+        for (int i = 0; i < common; i++) {
+            if (entries[i] < otherEntries[i])
+                return false;
+        }
+        for (int i = common; i < otherEntries.length; i++) {
+            if (otherEntries[i] > 0)
+                return false;
+        }
+        return true;
+    }
+
+    public VectorClock copy() {
+        return new VectorClock(registry, entries.clone());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof VectorClock))
+            return false;
+        VectorClock other = (VectorClock) o;
+        return biggerEqual(other) && other.biggerEqual(this);
+    }
+
+    @Override
+    public int hashCode() {
+        int length = entries.length;
+        while (length > 0 && entries[length - 1] == 0)
+            length--;
+        int hash = 1;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + entries[i];
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
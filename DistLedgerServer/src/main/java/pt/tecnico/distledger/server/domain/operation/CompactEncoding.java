@@ -0,0 +1,192 @@
+package pt.tecnico.distledger.server.domain.operation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+
+/**
+ * Compact contract encoding of the operations of one message (or one stream).
+ * Replicas are named by their position in a replica table sent once with the message, instead of by qualifier.
+ * prevTS is a packed vector of the differences to the prevTS of the previous operation, which are mostly 0
+ * for operations in execution order, and trailing zero differences are left out. TS and the origin are not sent:
+ * TS is prevTS with the origin entry set to the sequence, which holds for every operation a replica accepts.
+ * Operations must be decoded in the order they were encoded, with the table of the encoder.
+ */
+public class CompactEncoding {
+
+    private static final String UNKNOWN_REPLICA = "Replica %s registered after the replica table was created";
+
+    private final ReplicaRegistry registry;
+    /** Dictionary of the decoded operations, null for an encoder */
+    private final AccountDictionary dictionary;
+    /** Local registry index of every replica table entry */
+    private final int[] indexes;
+    /** prevTS of the previous operation, by replica table index */
+    private final int[] previous;
+
+    private CompactEncoding(ReplicaRegistry registry, AccountDictionary dictionary, int[] indexes) {
+        this.registry = registry;
+        this.dictionary = dictionary;
+        this.indexes = indexes;
+        this.previous = new int[indexes.length];
+    }
+
+    /**
+     * Creates an encoder whose replica table is every replica of the registry, by registry index
+     * 
+     * @param registry the registry of the operations to encode
+     * @return the encoder
+     */
+    public static CompactEncoding encoder(ReplicaRegistry registry) {
+        int[] indexes = new int[registry.size()];
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = i;
+        return new CompactEncoding(registry, null, indexes);
+    }
+
+    /**
+     * Creates a decoder for the replica table of a message, registering unknown qualifiers
+     * 
+     * @param replicas the replica table of the message
+     * @param registry the registry used to convert the timestamps
+     * @param dictionary the dictionary used to convert the accounts
+     * @return the decoder
+     */
+    public static CompactEncoding decoder(List<String> replicas, ReplicaRegistry registry, AccountDictionary dictionary) {
+        int[] indexes = new int[replicas.size()];
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = registry.indexOf(replicas.get(i));
+        return new CompactEncoding(registry, dictionary, indexes);
+    }
+
+    /** Replica table to send with the encoded operations */
+    public List<String> replicas() {
+        List<String> replicas = new ArrayList<>(indexes.length);
+        for (int index : indexes)
+            replicas.add(registry.qualifierOf(index));
+        return replicas;
+    }
+
+    /**
+     * Encodes the next operation of the message
+     * 
+     * @param op the operation, whose timestamps only have replicas of the table
+     * @return the operation in the compact encoding
+     */
+    public DistLedgerCommonDefinitions.Operation encode(Operation op) {
+        DistLedgerCommonDefinitions.Operation.Builder builder = op.payloadBuilder()
+            .setOriginIndex(op.getId().getOrigin())
+            .setSequence(op.getId().getSequence());
+        VectorClock prevTS = op.getPrevTS();
+        int packed = packedLength(prevTS);
+        for (int i = 0; i < packed; i++)
+            builder.addPackedPrevTS(prevTS.get(i) - previous[i]);
+        advance(prevTS);
+        return builder.build();
+    }
+
+    /**
+     * Encodes the next operation of the message as a length-delimited field of the enclosing message.
+     * Only the id and prevTS are written, followed by the serialized payload the operation keeps,
+     * so the bytes are the ones of encode with the payload fields last, which decode the same way.
+     * 
+     * @param fieldNumber the number of the repeated operation field of the enclosing message
+     * @param op the operation, whose timestamps only have replicas of the table
+     * @return the field with the operation in the compact encoding
+     */
+    public ByteString encodeField(int fieldNumber, Operation op) {
+        int origin = op.getId().getOrigin();
+        int sequence = op.getId().getSequence();
+        VectorClock prevTS = op.getPrevTS();
+        int packed = packedLength(prevTS);
+        int packedSize = 0;
+        for (int i = 0; i < packed; i++)
+            packedSize += CodedOutputStream.computeSInt32SizeNoTag(prevTS.get(i) - previous[i]);
+        ByteString payload = op.payloadBytes();
+
+        // proto3 leaves out zero values and empty packed fields
+        int size = payload.size();
+        if (origin != 0)
+            size += CodedOutputStream.computeInt32Size(DistLedgerCommonDefinitions.Operation.ORIGININDEX_FIELD_NUMBER, origin);
+        if (sequence != 0)
+            size += CodedOutputStream.computeInt32Size(DistLedgerCommonDefinitions.Operation.SEQUENCE_FIELD_NUMBER, sequence);
+        if (packed > 0)
+            size += CodedOutputStream.computeTagSize(DistLedgerCommonDefinitions.Operation.PACKEDPREVTS_FIELD_NUMBER)
+                + CodedOutputStream.computeUInt32SizeNoTag(packedSize) + packedSize;
+
+        byte[] header = new byte[CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size) 
+            + size - payload.size()];
+        CodedOutputStream output = CodedOutputStream.newInstance(header);
+        try {
+            output.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(size);
+            if (origin != 0)
+                output.writeInt32(DistLedgerCommonDefinitions.Operation.ORIGININDEX_FIELD_NUMBER, origin);
+            if (sequence != 0)
+                output.writeInt32(DistLedgerCommonDefinitions.Operation.SEQUENCE_FIELD_NUMBER, sequence);
+            if (packed > 0) {
+                output.writeTag(DistLedgerCommonDefinitions.Operation.PACKEDPREVTS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(packedSize);
+                for (int i = 0; i < packed; i++)
+                    output.writeSInt32NoTag(prevTS.get(i) - previous[i]);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException exception) {
+            // the array has exactly the computed size
+            throw new UncheckedIOException(exception);
+        }
+        advance(prevTS);
+        return UnsafeByteOperations.unsafeWrap(header).concat(payload);
+    }
+
+    /** Number of prevTS differences to send, leaving out the trailing zeros */
+    private int packedLength(VectorClock prevTS) {
+        // the table of an encoder is the registry, so table and registry indexes are the same
+        for (int i = indexes.length; i < prevTS.length(); i++) {
+            if (prevTS.get(i) != 0)
+                throw new IllegalArgumentException(String.format(UNKNOWN_REPLICA, prevTS.getRegistry().qualifierOf(i)));
+        }
+        int last = indexes.length;
+        while (last > 0 && prevTS.get(last - 1) == previous[last - 1])
+            last--;
+        return last;
+    }
+
+    /** Makes prevTS the base of the differences of the next operation */
+    private void advance(VectorClock prevTS) {
+        for (int i = 0; i < indexes.length; i++)
+            previous[i] = prevTS.get(i);
+    }
+
+    /**
+     * Decodes the next operation of the message
+     * 
+     * @param operation the operation in the compact encoding
+     * @return the converted operation, or null if the type is not known
+     */
+    public Operation decode(DistLedgerCommonDefinitions.Operation operation) {
+        List<Integer> differences = operation.getPackedPrevTSList();
+        VectorClock prevTS = new VectorClock(registry);
+        for (int i = 0; i < indexes.length; i++) {
+            if (i < differences.size())
+                previous[i] += differences.get(i);
+            if (previous[i] != 0)
+                prevTS.set(indexes[i], previous[i]);
+        }
+        int origin = indexes[operation.getOriginIndex()];
+        VectorClock TS = prevTS.copy();
+        TS.set(origin, operation.getSequence());
+        return Operation.fromPayload(operation, dictionary, prevTS, TS, new OperationId(origin, operation.getSequence()));
+    }
+}
@@ -1,28 +1,27 @@
 package pt.tecnico.distledger.server.domain.operation;
 
-import java.util.Map;
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
 
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
 
 public class CreateOp extends Operation {
 
-    public CreateOp(String account, Map<String, Integer> prevTS, Map<String, Integer> TS) {
-        super(account, prevTS, TS);
+    public CreateOp(AccountDictionary dictionary, int account, VectorClock prevTS, VectorClock TS, OperationId id) {
+        super(dictionary, account, prevTS, TS, id);
     }
 
     @Override
-    public DistLedgerCommonDefinitions.Operation proto() {
-        return DistLedgerCommonDefinitions.Operation
-						.newBuilder()
-						.setType(DistLedgerCommonDefinitions.OperationType.OP_CREATE_ACCOUNT)
-						.setUserId(this.getAccount())
-                        .putAllPrevTS(this.getPrevTS())
-                        .putAllTS(this.getTS())
-						.build();
+    protected DistLedgerCommonDefinitions.Operation.Builder payloadBuilder() {
+        return super.payloadBuilder()
+						.setType(DistLedgerCommonDefinitions.OperationType.OP_CREATE_ACCOUNT);
     }
 
     @Override
     public CreateOp clone() {
-        return new CreateOp(getAccount(), this.getPrevTS(), this.getTS());
+        CreateOp clone = new CreateOp(getDictionary(), getAccountId(), this.getPrevTS(), this.getTS(), this.getId());
+        clone.setStable(getStable());
+        clone.setAcceptedAt(getAcceptedAt());
+        return clone;
     }
 }
@@ -1,42 +1,153 @@
 package pt.tecnico.distledger.server.domain.operation;
 
-import java.util.Map;
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+
+import com.google.protobuf.ByteString;
 
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
 
+/**
+ * Operation of the ledger. Accounts are kept as ids of the replica AccountDictionary,
+ * and only converted to names by the getters used at the API and in the contract format.
+ */
 public class Operation {
 
-    private String account;
+    private final OperationId id;
+    private final AccountDictionary dictionary;
+    private int account;
     private boolean stable = false;
-    private Map<String, Integer> TS;
-    private Map<String, Integer> prevTS;
-
-    public Operation(String fromAccount, Map<String, Integer> prevTS, Map<String, Integer> TS) {
+    /** Wall-clock time of the origin replica when it accepted the operation, 0 if unknown */
+    private long acceptedAt = 0;
+    private VectorClock TS;
+    private VectorClock prevTS;
+
+    /**
+     * Serialized payload and map encoding, computed on first use and cleared by the setters of the encoded fields,
+     * so a stable operation is only serialized once however many times it is propagated.
+     * Racing threads compute the same bytes, and ByteString is immutable, so no lock is needed.
+     */
+    private ByteString payloadBytes = null;
+    private ByteString protoBytes = null;
+
+    public Operation(AccountDictionary dictionary, int fromAccount, VectorClock prevTS, VectorClock TS, OperationId id) {
+        this.dictionary = dictionary;
         this.account = fromAccount;
         this.TS = TS;
         this.prevTS = prevTS;
+        this.id = id;
+    }
+
+    public OperationId getId() {
+        return id;
+    }
+
+    public AccountDictionary getDictionary() {
+        return dictionary;
     }
 
     public String getAccount() {
+        return dictionary.nameOf(account);
+    }
+
+    public int getAccountId() {
         return account;
     }
 
-    public void setAccount(String account) {
+    public void setAccountId(int account) {
         this.account = account;
+        clearBytes();
     }
 
     public DistLedgerCommonDefinitions.Operation proto() {
+        return payloadBuilder()
+                        .putAllPrevTS(prevTS.toMap())
+                        .putAllTS(TS.toMap())
+                        .setOrigin(TS.getRegistry().qualifierOf(id.getOrigin()))
+                        .setSequence(id.getSequence())
+                        .build();
+    }
+
+    /** Map encoding of the operation, serialized once */
+    public ByteString protoBytes() {
+        ByteString bytes = protoBytes;
+        if (bytes == null) {
+            bytes = proto().toByteString();
+            protoBytes = bytes;
+        }
+        return bytes;
+    }
+
+    /** Fields of payloadBuilder, serialized once; the compact encoding writes the id and prevTS next to them */
+    ByteString payloadBytes() {
+        ByteString bytes = payloadBytes;
+        if (bytes == null) {
+            bytes = payloadBuilder().build().toByteString();
+            payloadBytes = bytes;
+        }
+        return bytes;
+    }
+
+    /** Discards the serialized forms, called when an encoded field changes */
+    protected void clearBytes() {
+        payloadBytes = null;
+        protoBytes = null;
+    }
+
+    /** Builder with the type and the fields that are not timestamps or the id, overridden by every operation type */
+    protected DistLedgerCommonDefinitions.Operation.Builder payloadBuilder() {
         return DistLedgerCommonDefinitions.Operation
                         .newBuilder()
                         .setType(DistLedgerCommonDefinitions.OperationType.OP_UNSPECIFIED)
-                        .setUserId(account)
-                        .putAllPrevTS(prevTS)
-                        .putAllTS(TS)
-                        .build();
+                        .setUserId(getAccount())
+                        .setAcceptedAt(acceptedAt);
+    }
+
+    /**
+     * Converts an operation from the contract format
+     * 
+     * @param operation the operation to be converted
+     * @param registry the registry used to convert the timestamps
+     * @param dictionary the dictionary used to convert the accounts
+     * @return the converted operation, or null if the type is not known
+     */
+    public static Operation fromProto(DistLedgerCommonDefinitions.Operation operation, ReplicaRegistry registry,
+            AccountDictionary dictionary) {
+        OperationId id = new OperationId(registry.indexOf(operation.getOrigin()), operation.getSequence());
+        return fromPayload(operation, dictionary, VectorClock.fromMap(operation.getPrevTSMap(), registry), 
+            VectorClock.fromMap(operation.getTSMap(), registry), id);
+    }
+
+    /**
+     * Creates an operation from the payload fields of the contract format and the already converted timestamps,
+     * assigning ids to the accounts it names for the first time
+     * 
+     * @return the operation, or null if the type is not known
+     */
+    static Operation fromPayload(DistLedgerCommonDefinitions.Operation operation, AccountDictionary dictionary, 
+            VectorClock prevTS, VectorClock TS, OperationId id) {
+        Operation op;
+        switch (operation.getType()) {
+            case OP_CREATE_ACCOUNT:
+                op = new CreateOp(dictionary, dictionary.idOf(operation.getUserId()), prevTS, TS, id);
+                break;
+            case OP_TRANSFER_TO:
+                op = new TransferOp(dictionary, dictionary.idOf(operation.getUserId()), dictionary.idOf(operation.getDestUserId()), 
+                    operation.getAmount(), prevTS, TS, id);
+                break;
+            default:
+                return null;
+        }
+        op.setAcceptedAt(operation.getAcceptedAt());
+        return op;
     }
 
     public Operation clone() {
-        return new Operation(account, prevTS, TS);
+        Operation clone = new Operation(dictionary, account, prevTS, TS, id);
+        clone.setStable(stable);
+        clone.setAcceptedAt(acceptedAt);
+        return clone;
     }
 
     public void setStable(boolean b) {
@@ -47,19 +158,30 @@ public class Operation {
         return stable;
     }
 
-    public void setTS(Map<String, Integer> TS) {
+    public long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    public void setAcceptedAt(long acceptedAt) {
+        this.acceptedAt = acceptedAt;
+        clearBytes();
+    }
+
+    public void setTS(VectorClock TS) {
         this.TS = TS;
+        clearBytes();
     }
 
-    public void setPrevTS(Map<String, Integer> prevTS) {
+    public void setPrevTS(VectorClock prevTS) {
         this.prevTS = prevTS;
+        clearBytes();
     }
 
-    public Map<String, Integer> getTS() {
+    public VectorClock getTS() {
         return TS;
     }
 
-    public Map<String, Integer> getPrevTS() {
+    public VectorClock getPrevTS() {
         return prevTS;
     }
 
@@ -67,10 +189,11 @@ public class Operation {
     public boolean equals(Object o) {
         if (!(o instanceof Operation)) 
             return false;
-        Operation newOp = (Operation) o;
+        return ((Operation) o).getId().equals(id);
+    }
 
-        if (newOp.getAccount().equals(account))
-            return true;
-        return false;
+    @Override
+    public int hashCode() {
+        return id.hashCode();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,43 @@
+package pt.tecnico.distledger.server.domain.operation;
+
+/**
+ * Globally unique identifier of an operation: the replica that accepted it from a client
+ * and the value of that replica entry in the operation timestamp.
+ * The replica is kept as its index in the server ReplicaRegistry.
+ */
+public class OperationId {
+
+    private final int origin;
+    private final int sequence;
+
+    public OperationId(int origin, int sequence) {
+        this.origin = origin;
+        this.sequence = sequence;
+    }
+
+    public int getOrigin() {
+        return origin;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof OperationId))
+            return false;
+        OperationId id = (OperationId) o;
+        return id.origin == origin && id.sequence == sequence;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * origin + sequence;
+    }
+
+    @Override
+    public String toString() {
+        return origin + ":" + sequence;
+    }
+}
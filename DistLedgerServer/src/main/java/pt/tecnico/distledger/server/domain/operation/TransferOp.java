@@ -1,26 +1,33 @@
 package pt.tecnico.distledger.server.domain.operation;
 
-import java.util.Map;
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
 
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
 
 public class TransferOp extends Operation {
 
-    private String destAccount;
+    private int destAccount;
     private int amount;
 
-    public TransferOp(String fromAccount, String destAccount, int amount, Map<String, Integer> prevTS, Map<String, Integer> TS) {
-        super(fromAccount, prevTS, TS);
+    public TransferOp(AccountDictionary dictionary, int fromAccount, int destAccount, int amount, 
+            VectorClock prevTS, VectorClock TS, OperationId id) {
+        super(dictionary, fromAccount, prevTS, TS, id);
         this.destAccount = destAccount;
         this.amount = amount;
     }
 
     public String getDestAccount() {
+        return getDictionary().nameOf(destAccount);
+    }
+
+    public int getDestAccountId() {
         return destAccount;
     }
 
-    public void setDestAccount(String destAccount) {
+    public void setDestAccountId(int destAccount) {
         this.destAccount = destAccount;
+        clearBytes();
     }
 
     public int getAmount() {
@@ -29,35 +36,22 @@ public class TransferOp extends Operation {
 
     public void setAmount(int amount) {
         this.amount = amount;
+        clearBytes();
     }
 
     @Override
-    public DistLedgerCommonDefinitions.Operation proto() {
-        return DistLedgerCommonDefinitions.Operation.newBuilder()
+    protected DistLedgerCommonDefinitions.Operation.Builder payloadBuilder() {
+        return super.payloadBuilder()
             .setType(DistLedgerCommonDefinitions.OperationType.OP_TRANSFER_TO)
-            .setUserId(getAccount())
             .setAmount(amount)
-            .setDestUserId(destAccount)
-            .putAllPrevTS(this.getPrevTS())
-            .putAllTS(this.getTS())
-            .build();
+            .setDestUserId(getDestAccount());
     }
     
     @Override
     public TransferOp clone() {
-        return new TransferOp(getAccount(), destAccount, amount, this.getPrevTS(), this.getTS());
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (!(o instanceof TransferOp)) 
-            return false;
-            TransferOp newOp = (TransferOp) o;
-
-        if (newOp.getAccount().equals(this.getAccount())
-            && newOp.getDestAccount().equals(destAccount)
-            && newOp.getAmount() == amount)
-            return true;
-        return false;
+        TransferOp clone = new TransferOp(getDictionary(), getAccountId(), destAccount, amount, this.getPrevTS(), this.getTS(), this.getId());
+        clone.setStable(getStable());
+        clone.setAcceptedAt(getAcceptedAt());
+        return clone;
     }
 }
\ No newline at end of file
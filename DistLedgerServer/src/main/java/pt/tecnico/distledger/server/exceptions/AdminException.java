@@ -7,6 +7,14 @@ public class AdminException extends Exception {
 
         public static final String FAIL_ACTIVATE = "Error: Server activation failed: Server is already active";
         public static final String FAIL_DEACTIVATE = "Error: Server deactivation failed: Server is already inactive";
+        public static final String INVALID_PAGE_TOKEN = "Error: Invalid page token";
+        public static final String INVALID_PAGE_SIZE = "Error: Page size can not be negative";
+        public static final String RECORDING_UNAVAILABLE = "Error: Flight Recorder is not available in the server";
+        public static final String RECORDING_ALREADY_STARTED = "Error: A recording is already running";
+        public static final String NO_RECORDING = "Error: No recording is running";
+        public static final String INVALID_RECORDING_CONFIGURATION = "Error: Unknown recording configuration: %s";
+        public static final String RECORDING_NOT_WRITTEN = "Error: Recording could not be written: %s";
+        public static final String WATCHER_TOO_SLOW = "Error: Watcher fell more than %d changes behind, watch again from position %d";
     }
 
     private final String errorMessage;
@@ -6,6 +6,10 @@ public class CrossServerException extends Exception {
         private ErrorMessages() {}
 
         public static final String FAIL_PROPAGATE_STATE = "State propagation failed: Secundary server is not running/is inactive";        
+        public static final String PROPAGATE_TIMEOUT = "State propagation failed: Replica did not answer before the deadline";
+        public static final String STATE_NOT_DURABLE = "State propagation failed: Operations could not be written to the log";
+        public static final String STATE_GAP = "State propagation failed: Replica is missing operations older than the propagated state";
+        public static final String STATE_COLLECTED = "State propagation failed: Replica garbage collected operations the base state does not cover, it can not catch up by gossip";
     }
 
     private final String errorMessage;
@@ -9,6 +9,7 @@ public class UserException extends Exception {
         public static final String FAIL_CREATE_ACCOUNT = "Error: Account creation failed: ";
         public static final String FAIL_BALANCE = "Error: Balance access failed: ";
         public static final String FAIL_TRANSFER_TO = "Error: Transfer failed: ";
+        public static final String FAIL_BATCH = "Error: Batch failed: ";
 
         public static final String DUPLICATE_ACCOUNT = "Account already exists: %s";
         public static final String DUPLICATE_OPERATION = "Operation was already added";
@@ -18,7 +19,11 @@ public class UserException extends Exception {
         public static final String SERVER_UNAVAILABLE = "Server is unavailable";
         public static final String INVALID_AMOUNT = "Transfer amount is not valid";
         public static final String TRANSFER_TO_SELF = "Origin and destination accounts are the same";
+        public static final String BALANCE_TIMEOUT = "Replica did not reach the client timestamp before the deadline";
+        public static final String OPERATION_NOT_DURABLE = "Operation could not be written to the log";
+        public static final String BATCH_TOO_LARGE = "Batch has more than %s operations";
         public static final String DELETE_BROKER = "Broker account cannot be deleted";
+        public static final String UNKNOWN_REPLICA_TIMESTAMP = "Timestamp has an entry of an unknown replica: %s";
     }
 
     private final String errorMessage;
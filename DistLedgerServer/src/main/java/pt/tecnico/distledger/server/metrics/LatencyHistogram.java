@@ -0,0 +1,86 @@
+package pt.tecnico.distledger.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in microseconds, with logarithmic buckets: every power of two is split in
+ * SUB_BUCKETS buckets of the same width, so a percentile is within 1/SUB_BUCKETS of the exact value
+ * with a fixed number of counters for any duration.
+ * Recording is lock-free and does not allocate; the values read while durations are being recorded
+ * are not a consistent snapshot, but each of them is.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Enough buckets for every non-negative long */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param nanos the duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /** Largest duration that falls in the bucket */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMicros() {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : (double) sum.sum() / recorded;
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the duration, in microseconds, that the given percentage of the recorded durations does not exceed
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += buckets.get(i);
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), getMaxMicros());
+        }
+        return getMaxMicros();
+    }
+}
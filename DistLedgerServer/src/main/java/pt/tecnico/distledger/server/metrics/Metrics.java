@@ -0,0 +1,71 @@
+package pt.tecnico.distledger.server.metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of a replica: the latency of every RPC it serves (recorded by MetricsInterceptor),
+ * the time spent waiting for the state lock, the time operations from other replicas take to be executed
+ * at this one, and gauges read when the metrics are requested.
+ * Everything is kept in memory since the server started.
+ */
+public class Metrics {
+
+    private final long startTime = System.currentTimeMillis();
+
+    /** Map to save the metrics of each RPC by its method name */
+    private final Map<String, RpcMetrics> rpcs = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram stateLockWait = new LatencyHistogram();
+
+    /** Time from the acceptance of an operation at its origin replica to its execution here, by the wall clocks of both */
+    private final LatencyHistogram stableLag = new LatencyHistogram();
+
+    /** Map to save the gauges by name, sorted so they are always reported in the same order */
+    private final Map<String, LongSupplier> gauges = new TreeMap<>();
+
+    /**
+     * @param name the method name of the RPC
+     * @return the metrics of the RPC, created on its first call
+     */
+    public RpcMetrics rpc(String name) {
+        return rpcs.computeIfAbsent(name, RpcMetrics::new);
+    }
+
+    public Collection<RpcMetrics> getRpcs() {
+        return new TreeMap<>(rpcs).values();
+    }
+
+    public LatencyHistogram getStateLockWait() {
+        return stateLockWait;
+    }
+
+    public LatencyHistogram getStableLag() {
+        return stableLag;
+    }
+
+    /**
+     * Registers a gauge, whose supplier is called every time the metrics are read
+     *
+     * @param name the name of the gauge
+     * @param supplier the supplier of its current value
+     */
+    public synchronized void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /** Reads every gauge, by name */
+    public synchronized Map<String, Long> readGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet())
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        return values;
+    }
+
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+}
@@ -0,0 +1,49 @@
+package pt.tecnico.distledger.server.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Records the latency of every call served, from its start to the moment the service closes it,
+ * so calls answered asynchronously (after the log is durable, or once a read is covered) include their wait.
+ * Streaming calls are measured as a whole, and calls cancelled before they are closed count as errors.
+ */
+public class MetricsInterceptor implements ServerInterceptor {
+
+    private final Metrics metrics;
+
+    public MetricsInterceptor(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        RpcMetrics rpc = metrics.rpc(call.getMethodDescriptor().getBareMethodName());
+        long start = System.nanoTime();
+        AtomicBoolean recorded = new AtomicBoolean(false);
+        ServerCall.Listener<ReqT> listener = next.startCall(new SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void close(Status status, Metadata trailers) {
+                if (recorded.compareAndSet(false, true))
+                    rpc.record(System.nanoTime() - start, !status.isOk());
+                super.close(status, trailers);
+            }
+        }, headers);
+        return new SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onCancel() {
+                if (recorded.compareAndSet(false, true))
+                    rpc.record(System.nanoTime() - start, true);
+                super.onCancel();
+            }
+        };
+    }
+}
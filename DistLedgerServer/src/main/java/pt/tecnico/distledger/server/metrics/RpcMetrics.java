@@ -0,0 +1,37 @@
+package pt.tecnico.distledger.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Latency of the calls of one RPC and the number of them that failed */
+public class RpcMetrics {
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+
+    public RpcMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param nanos the time from the call to its close, in nanoseconds
+     * @param failed whether the call closed with a status other than OK
+     */
+    public void record(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed)
+            errors.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+}
@@ -1,16 +1,33 @@
 package pt.tecnico.distledger.server.service;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import static io.grpc.Status.FAILED_PRECONDITION;
+import static io.grpc.Status.INVALID_ARGUMENT;
+import static io.grpc.Status.UNAVAILABLE;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import pt.tecnico.distledger.server.domain.*;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.tecnico.distledger.server.domain.operation.CreateOp;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferOp;
 import pt.tecnico.distledger.server.exceptions.AdminException;
+import static pt.tecnico.distledger.server.exceptions.AdminException.ErrorMessages.*;
 import pt.tecnico.distledger.server.exceptions.CrossServerException;
-import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+import pt.tecnico.distledger.server.metrics.LatencyHistogram;
+import pt.tecnico.distledger.server.metrics.Metrics;
+import pt.tecnico.distledger.server.metrics.RpcMetrics;
+import pt.tecnico.distledger.server.trace.TraceRecorder;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerState;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.OperationType;
 import pt.ulisboa.tecnico.distledger.contract.admin.AdminServiceGrpc;
 import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.*;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
 
 public class AdminDistLedgerService extends AdminServiceGrpc.AdminServiceImplBase {
 
@@ -21,29 +38,40 @@ public class AdminDistLedgerService extends AdminServiceGrpc.AdminServiceImplBas
 	private static final String DEACTIVATE_RESPONSE = "Deactivate Server Response Sent";
 
 	private static final String GET_LEDGER_STATE_REQUEST = "Get Ledger State Request received";
-	private static final String GET_LEDGER_STATE_RESPONSE = "Get Ledger State Response Sent: \n";
+	private static final String GET_LEDGER_STATE_RESPONSE = "Get Ledger State Response Sent: \n%s";
 
-	private static final String GOSSIP_REQUEST = "Gossip Response Sent: \n";
-	private static final String GOSSIP_RESPONSE = "Gossip Response received";
+	private static final String WATCH_LEDGER_REQUEST = "Watch Ledger Request received: from position %d";
 
+	private static final String GOSSIP_REQUEST = "Gossip Request received";
+	private static final String GOSSIP_RESPONSE = "Gossip Response sent";
+
+	private static final String GET_METRICS_REQUEST = "Get Metrics Request received";
+	private static final String GET_METRICS_RESPONSE = "Get Metrics Response sent";
+
+	private static final String START_RECORDING_REQUEST = "Start Recording Request received";
+	private static final String START_RECORDING_RESPONSE = "Start Recording Response sent";
+
+	private static final String STOP_RECORDING_REQUEST = "Stop Recording Request received";
+	private static final String STOP_RECORDING_RESPONSE = "Stop Recording Response sent: %s";
 
-	/**
-	 * Set flag to true to print debug messages.
-	 * The flag can be set using the -Ddebug command line option.
-	 */
-	private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
 
-	/** Helper method to print debug messages. */
-	private static void debug(String debugMessage) {
-		if (DEBUG_FLAG)
-			System.err.println(debugMessage);
-	}
 
 	/** Server state */
 	private ServerState serverState;
 
-	public AdminDistLedgerService(ServerState serverState) {
+	/** Recorder of the trace events of the replica */
+	private TraceRecorder recorder;
+
+	/** Thread sending the changes of the ledger to the watchers */
+	private final ExecutorService watchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "ledger-watch");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public AdminDistLedgerService(ServerState serverState, TraceRecorder recorder) {
 		this.serverState = serverState;
+		this.recorder = recorder;
 	}
 
 	/**
@@ -97,7 +125,8 @@ public class AdminDistLedgerService extends AdminServiceGrpc.AdminServiceImplBas
 	}
 
 	/**
-	 * Retrieves the current ledger state of the server and sends it as a response to the client.
+	 * Retrieves a page of the current ledger state of the server, with the operations that match the filters
+	 * of the request, and sends it as a response to the client.
 	 * 
 	 * @param request the request message of the current state of the Ledger
 	 * @param responseObserver the response observer that will receive the response message
@@ -105,38 +134,200 @@ public class AdminDistLedgerService extends AdminServiceGrpc.AdminServiceImplBas
 	@Override
 	public void getLedgerState(getLedgerStateRequest request, StreamObserver<getLedgerStateResponse> responseObserver) {
 		debug(GET_LEDGER_STATE_REQUEST);
-		List<DistLedgerCommonDefinitions.Operation> ledger = new ArrayList<>();
+		try {
+			if (request.getPageSize() < 0)
+				throw new AdminException(INVALID_PAGE_SIZE);
+			LedgerCursor cursor = LedgerCursor.fromToken(request.getPageToken());
+			LedgerPage page;
+			VectorClock minTimeStamps = VectorClock.fromKnownMap(request.getMinTSMap(), serverState.getReplicaRegistry());
+			if (minTimeStamps == null) {
+				// minTS has a replica this server never heard of, so no operation covers it
+				page = new LedgerPage(new ArrayList<>(), null);
+			} else {
+				LedgerFilter filter = new LedgerFilter(
+					request.getAccount().isEmpty() ? null : request.getAccount(),
+					operationClass(request.getType()),
+					request.getStability() == Stability.STABILITY_ANY ? null : request.getStability() == Stability.STABILITY_STABLE,
+					request.getMinTSCount() == 0 ? null : minTimeStamps,
+					request.getMaxTSCount() == 0 ? null : maxTimeStamps(request.getMaxTSMap()));
+				page = serverState.getLedgerPage(filter, cursor, request.getPageSize());
+			}
 
-		serverState.getLedgerState().stream().forEach(op -> ledger.add(op.proto()));
-		getLedgerStateResponse response = getLedgerStateResponse
-			.newBuilder()
-			.setLedgerState(LedgerState
+			LedgerState.Builder ledger = LedgerState.newBuilder();
+			page.getOperations().forEach(op -> ledger.addLedger(op.proto()));
+			getLedgerStateResponse response = getLedgerStateResponse
 				.newBuilder()
-				.addAllLedger(ledger)
-				.build())
-			.build();
-		debug(GET_LEDGER_STATE_RESPONSE + response);
+				.setLedgerState(ledger)
+				.setNextPageToken(page.getNext() == null ? "" : page.getNext().toToken())
+				.build();
+			debug(GET_LEDGER_STATE_RESPONSE, response);
+
+			responseObserver.onNext(response);
+			responseObserver.onCompleted();
+		} catch (AdminException exception) {
+			responseObserver.onError(INVALID_ARGUMENT.withDescription(exception.getErrorMessage()).asRuntimeException());
+			debug(exception.getErrorMessage());
+		}
+	}
 
-		responseObserver.onNext(response);
+	/**
+	 * Streams the stable operations from the requested position and the unstable ones, then every change of
+	 * the ledger as it happens, until the client cancels the call. Changes are sent as the client reads them,
+	 * and a client that falls more than LedgerTail.MAX_QUEUED changes behind is disconnected with RESOURCE_EXHAUSTED.
+	 * 
+	 * @param request the request with the position of the first stable operation
+	 * @param responseObserver the response observer that will receive each operation and change
+	 */
+	@Override
+	public void watchLedger(WatchLedgerRequest request, StreamObserver<WatchLedgerResponse> responseObserver) {
+		debug(WATCH_LEDGER_REQUEST, request.getFromPosition());
+		new LedgerTail(serverState, (ServerCallStreamObserver<WatchLedgerResponse>) responseObserver, watchExecutor, 
+			request.getFromPosition()).start();
+	}
+
+	/**
+	 * Helper method to convert an upper bound timestamp without registering unknown replicas.
+	 * Replicas that are not in the timestamp are not bounded, and unknown replicas are ignored.
+	 * 
+	 * @param timeStamps the timestamp of the request
+	 * @return the converted timestamp
+	 */
+	private VectorClock maxTimeStamps(Map<String, Integer> timeStamps) {
+		ReplicaRegistry registry = serverState.getReplicaRegistry();
+		VectorClock clock = new VectorClock(registry);
+		for (int i = 0; i < registry.size(); i++)
+			clock.set(i, timeStamps.getOrDefault(registry.qualifierOf(i), Integer.MAX_VALUE));
+		return clock;
+	}
+
+	/**
+	 * Sends the metrics of the server: the latency of each RPC served, the wait for the state lock,
+	 * the lag of the operations from other replicas and the gauges
+	 * 
+	 * @param request the request of the metrics
+	 * @param responseObserver the response observer that will receive the metrics
+	 */
+	@Override
+	public void getMetrics(GetMetricsRequest request, StreamObserver<GetMetricsResponse> responseObserver) {
+		debug(GET_METRICS_REQUEST);
+		Metrics metrics = serverState.getMetrics();
+		GetMetricsResponse.Builder response = GetMetricsResponse
+			.newBuilder()
+			.setUptimeMillis(metrics.getUptimeMillis())
+			.setStateLockWait(latencyMetrics("stateLockWait", metrics.getStateLockWait(), 0))
+			.setStableLag(latencyMetrics("stableLag", metrics.getStableLag(), 0))
+			.putAllGauges(metrics.readGauges());
+		for (RpcMetrics rpc : metrics.getRpcs()) {
+			// calls still in progress, like this one, are only counted once they close
+			if (rpc.getLatency().getCount() > 0)
+				response.addRpcs(latencyMetrics(rpc.getName(), rpc.getLatency(), rpc.getErrors()));
+		}
+		debug(GET_METRICS_RESPONSE);
+
+		responseObserver.onNext(response.build());
 		responseObserver.onCompleted();
 	}
 
+	/** Helper method to convert a latency histogram to the contract format */
+	private static LatencyMetrics latencyMetrics(String name, LatencyHistogram latency, long errors) {
+		return LatencyMetrics
+			.newBuilder()
+			.setName(name)
+			.setCount(latency.getCount())
+			.setErrors(errors)
+			.setMeanMicros(latency.getMeanMicros())
+			.setP50Micros(latency.getPercentileMicros(50))
+			.setP90Micros(latency.getPercentileMicros(90))
+			.setP99Micros(latency.getPercentileMicros(99))
+			.setMaxMicros(latency.getMaxMicros())
+			.build();
+	}
+
+	/** Helper method to convert the operation type filter, null for every type */
+	private static Class<? extends Operation> operationClass(OperationType type) {
+		switch (type) {
+			case OP_CREATE_ACCOUNT:
+				return CreateOp.class;
+			case OP_TRANSFER_TO:
+				return TransferOp.class;
+			default:
+				return null;
+		}
+	}
+
 	/**
-	 * Retrieves the current ledger state of the server and sends it as a response to the client.
+	 * Propagates the state of the server to the other replicas and sends the result of each one as a response.
+	 * The response is sent once every replica answered or reached its deadline.
 	 * 
-	 * @param request the request message of the current state of the Ledger
+	 * @param request the gossip request
 	 * @param responseObserver the response observer that will receive the response message
 	 */
 	@Override
 	public void gossip(GossipRequest request, StreamObserver<GossipResponse> responseObserver) {
-		try {
-			debug(GOSSIP_REQUEST);
-			serverState.sendGossip();
+		debug(GOSSIP_REQUEST);
+		serverState.sendGossip().whenComplete((results, exception) -> {
+			if (exception != null) {
+				String errorMessage = exception instanceof CrossServerException 
+					? ((CrossServerException) exception).getErrorMessage() : exception.getMessage();
+				responseObserver.onError(UNAVAILABLE.withDescription(errorMessage).asRuntimeException());
+				debug(errorMessage);
+				return;
+			}
+			GossipResponse.Builder response = GossipResponse.newBuilder();
+			for (GossipResult result : results) {
+				PeerGossip.Builder peer = PeerGossip.newBuilder()
+					.setQualifier(result.getQualifier())
+					.setPropagated(result.isPropagated())
+					.setOperations(result.getOperations());
+				if (!result.isPropagated())
+					peer.setError(result.getErrorMessage());
+				response.addPeers(peer);
+			}
 			debug(GOSSIP_RESPONSE);
-			responseObserver.onNext(GossipResponse.getDefaultInstance());
+			responseObserver.onNext(response.build());
+			responseObserver.onCompleted();
+		});
+	}
+
+	/**
+	 * Starts a Flight Recorder recording of the trace events of the replica
+	 * 
+	 * @param request the request with the JDK configuration and whether the debug messages are recorded
+	 * @param responseObserver the response observer for sending the response
+	 */
+	@Override
+	public void startRecording(StartRecordingRequest request, StreamObserver<StartRecordingResponse> responseObserver) {
+		debug(START_RECORDING_REQUEST);
+		try {
+			recorder.start(request.getConfiguration(), request.getMessages());
+			debug(START_RECORDING_RESPONSE);
+
+			responseObserver.onNext(StartRecordingResponse.getDefaultInstance());
 			responseObserver.onCompleted();
-		} catch (CrossServerException exception) {
-			debug("Error Gossiping");
-		}		
+		} catch (AdminException exception) {
+			responseObserver.onError(FAILED_PRECONDITION.withDescription(exception.getErrorMessage()).asRuntimeException());
+			debug(exception.getErrorMessage());
+		}
+	}
+
+	/**
+	 * Stops the running recording and writes it to the data directory of the replica
+	 * 
+	 * @param request the request to stop the recording
+	 * @param responseObserver the response observer that will receive the path of the recording
+	 */
+	@Override
+	public void stopRecording(StopRecordingRequest request, StreamObserver<StopRecordingResponse> responseObserver) {
+		debug(STOP_RECORDING_REQUEST);
+		try {
+			Path file = recorder.stop();
+			debug(STOP_RECORDING_RESPONSE, file);
+
+			responseObserver.onNext(StopRecordingResponse.newBuilder().setPath(file.toAbsolutePath().toString()).build());
+			responseObserver.onCompleted();
+		} catch (AdminException exception) {
+			responseObserver.onError(FAILED_PRECONDITION.withDescription(exception.getErrorMessage()).asRuntimeException());
+			debug(exception.getErrorMessage());
+		}
 	}
 }
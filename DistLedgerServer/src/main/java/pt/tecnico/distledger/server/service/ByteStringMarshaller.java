@@ -0,0 +1,82 @@
+package pt.tecnico.distledger.server.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Marshaller of messages that are already serialized, e.g. assembled from the cached bytes of their fields.
+ * The transport gets the size up front and the fragments of the ByteString are written to it as they are,
+ * without being copied into one array first.
+ */
+final class ByteStringMarshaller implements MethodDescriptor.Marshaller<ByteString> {
+
+    static final ByteStringMarshaller INSTANCE = new ByteStringMarshaller();
+
+    private ByteStringMarshaller() {
+    }
+
+    @Override
+    public InputStream stream(ByteString value) {
+        return new ByteStringInputStream(value);
+    }
+
+    @Override
+    public ByteString parse(InputStream stream) {
+        try {
+            return ByteString.readFrom(stream);
+        } catch (IOException exception) {
+            throw Status.INTERNAL.withCause(exception).asRuntimeException();
+        }
+    }
+
+    /** Stream of a ByteString, drained into the transport in one call when it supports it */
+    private static final class ByteStringInputStream extends InputStream implements KnownLength, Drainable {
+
+        private ByteString remaining;
+        /** Stream of remaining, created if the transport reads instead of draining */
+        private InputStream input = null;
+
+        private ByteStringInputStream(ByteString value) {
+            this.remaining = value;
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            if (input != null)
+                return (int) input.transferTo(target);
+            int size = remaining.size();
+            remaining.writeTo(target);
+            remaining = ByteString.EMPTY;
+            return size;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return input != null ? input.available() : remaining.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return input().read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return input().read(buffer, offset, length);
+        }
+
+        private InputStream input() {
+            if (input == null)
+                input = remaining.newInput();
+            return input;
+        }
+    }
+}
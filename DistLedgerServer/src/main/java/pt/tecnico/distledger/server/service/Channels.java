@@ -0,0 +1,32 @@
+package pt.tecnico.distledger.server.service;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+
+/**
+ * Creates the channels of the server to the naming server and to the other replicas.
+ * Addresses are host:port, or inprocess:name for a server in the same process,
+ * which is how the replicas of a simulation reach each other.
+ */
+public final class Channels {
+
+    public static final String IN_PROCESS_PREFIX = "inprocess:";
+
+    private Channels() {}
+
+    /**
+     * @param address the address, as host:port or inprocess:name
+     * @return a plaintext channel to the address
+     */
+    public static ManagedChannel forAddress(String address) {
+        if (address.startsWith(IN_PROCESS_PREFIX))
+            return InProcessChannelBuilder.forName(address.substring(IN_PROCESS_PREFIX.length())).build();
+        return ManagedChannelBuilder.forTarget(address).usePlaintext().build();
+    }
+
+    /** Address of the server with the given name in this process */
+    public static String inProcessAddress(String name) {
+        return IN_PROCESS_PREFIX + name;
+    }
+}
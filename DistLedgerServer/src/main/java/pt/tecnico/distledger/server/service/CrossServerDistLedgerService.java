@@ -1,26 +1,53 @@
 package pt.tecnico.distledger.server.service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static io.grpc.Status.DEADLINE_EXCEEDED;
+import static io.grpc.Status.INTERNAL;
 import static io.grpc.Status.UNAVAILABLE;
+import static io.grpc.Status.UNIMPLEMENTED;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+
+import io.grpc.CallOptions;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.MethodDescriptor;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import pt.tecnico.distledger.server.domain.ServerState;
-import pt.tecnico.distledger.server.domain.operation.CreateOp;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.tecnico.distledger.server.domain.operation.CompactEncoding;
 import pt.tecnico.distledger.server.domain.operation.Operation;
-import pt.tecnico.distledger.server.domain.operation.TransferOp;
 import pt.tecnico.distledger.server.exceptions.CrossServerException;
+import pt.tecnico.distledger.server.trace.GossipReceivedEvent;
+import pt.tecnico.distledger.server.trace.GossipSentEvent;
 import static pt.tecnico.distledger.server.exceptions.CrossServerException.ErrorMessages.*;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.*;
 import pt.ulisboa.tecnico.distledger.contract.distledgerserver.DistLedgerCrossServerServiceGrpc;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.BaseState;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateChunk;
 import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateRequest;
 import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateResponse;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
 
 public class CrossServerDistLedgerService extends DistLedgerCrossServerServiceGrpc.DistLedgerCrossServerServiceImplBase {
 
@@ -29,26 +56,54 @@ public class CrossServerDistLedgerService extends DistLedgerCrossServerServiceGr
     private static final String STATE_REQUEST_SENT = "Propagate State request sent";
     private static final String STATE_RESPONSE_RECEIVED = "Propagate State response received";
 
-    private static final String STATE_REQUEST_RECEIVED = "Propagate State request received: \n";
+    private static final String STATE_REQUEST_RECEIVED = "Propagate State request received: \n%s";
     private static final String STATE_RESPONSE_SENT = "Propagate State response sent";
+    private static final String STATE_GAP_SENT = "Propagate State response sent: gap detected";
+    private static final String STATE_STREAM_SENT = "Propagate State stream sent: %s operations in %s chunks (%s bytes, %s encoding)";
+    private static final String STATE_STREAM_RECEIVED = "Propagate State stream received: %s operations";
+    private static final String STATE_STREAM_FAILED = "Propagate State stream failed after %s operations: %s";
+    private static final String STATE_STREAM_UNIMPLEMENTED = "Propagate State stream not implemented by the replica, propagating in one request";
+
+    /** Outcomes of a propagation in its trace event, the error message otherwise */
+    private static final String ACKNOWLEDGED = "acknowledged";
+    private static final String GAP = "gap";
+
+    /**
+     * Seconds a streamed propagation may go without progress: a chunk taken by the transport, 
+     * or the answer after the last one. A long catch-up is not cut as long as the replica keeps reading it.
+     */
+    private static final long PROPAGATE_DEADLINE = 5;
+
+    /** Thread checking the streamed propagations for progress, shared by all the replicas of the process */
+    private static final ScheduledExecutorService IDLE_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "propagate-idle");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Bytes of operations after which a streamed chunk is sent */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Bytes of a base state account besides its name, at most: the tags, lengths and balance */
+    private static final int BASE_ENTRY_OVERHEAD = 16;
+
+    /**
+     * propagateStateStream with the chunks sent as bytes: they are assembled from the serialized operations 
+     * each Operation keeps, instead of building every operation again for every replica and round.
+     * The replica parses them as PropagateStateChunk.
+     */
+    private static final MethodDescriptor<ByteString, PropagateStateResponse> PROPAGATE_STATE_STREAM = 
+        DistLedgerCrossServerServiceGrpc.getPropagateStateStreamMethod().toBuilder(ByteStringMarshaller.INSTANCE,
+            DistLedgerCrossServerServiceGrpc.getPropagateStateStreamMethod().getResponseMarshaller()).build();
 
     private String address;
     private String qualifier;
     private ManagedChannel channel;
-    private DistLedgerCrossServerServiceGrpc.DistLedgerCrossServerServiceBlockingStub stub;
     private ServerState serverState = null;
+    /** Whether the replica answered that it accepts the compact encoding, the map encoding is used until then */
+    private volatile boolean compact = false;
+    /** Whether the replica implements propagateStateStream, the state is propagated in one request otherwise */
+    private volatile boolean streaming = true;
 
-    /**
-     * Set flag to true to print debug messages.
-     * The flag can be set using the -Ddebug command line option.
-     */
-    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
-
-    /** Helper method to print debug messages. */
-    private static void debug(String debugMessage) {
-        if (DEBUG_FLAG)
-            System.err.println(debugMessage);
-    }
 
     public CrossServerDistLedgerService(ServerState serverState) {
 		this.serverState = serverState;
@@ -59,76 +114,401 @@ public class CrossServerDistLedgerService extends DistLedgerCrossServerServiceGr
         this.serverState = serverState;
         this.address = address;
         this.qualifier = qualifier;
-        this.channel = ManagedChannelBuilder.forTarget(this.address).usePlaintext().build();
-        this.stub = DistLedgerCrossServerServiceGrpc.newBlockingStub(this.channel);
+        this.channel = Channels.forAddress(this.address);
         debug(CROSS_SERVER_SERVICE_STARTED);
     }
 
     /**
-     *  Propagate the server state to the server's replica
+     *  Propagate the server state to the server's replica, without blocking the caller.
+     *  The operations are streamed in chunks of about CHUNK_SIZE bytes, and a chunk is only built when the 
+     *  transport is ready to send it, so a large catch-up does not hold the whole state as one message.
+     *  Operations use the compact encoding once the replica reported it accepts it.
+     *  The propagation fails with PROPAGATE_TIMEOUT after PROPAGATE_DEADLINE seconds without progress.
+     *  A replica that does not implement the stream is sent the state in one propagateState request instead.
      * 
      * @param listOperations a list of operations to be included in the propagated state
-     * @throws CrossServerException if there is an error propagating the state to other servers
+     * @param timeStamps the timestamp of the propagated state
+     * @param baseTimeStamps the replica timestamp last acknowledged by the replica, 
+     *                       listOperations only has the operations not covered by it
+     * @param baseBalances the balances of the base state, whose base timestamp is baseTimeStamps, 
+     *                     sent before the operations; null if the base state is not sent
+     * @return completes with the replica timestamp acknowledged by the replica, or exceptionally 
+     *         with a CrossServerException if there is an error propagating the state to the replica
+     *         or if the replica does not cover baseTimeStamps (STATE_GAP)
      */
-    public void propagateState(List<Operation> listOperations, Map<String, Integer> timeStamps) throws CrossServerException {
-        // This creates ledgerState from CrossServer_DistLedger.proto and the request
-        PropagateStateRequest request = PropagateStateRequest
+    public CompletableFuture<VectorClock> propagateState(List<Operation> listOperations, VectorClock timeStamps, 
+            VectorClock baseTimeStamps, Map<String, Long> baseBalances) {
+        if (!streaming)
+            return propagateStateUnary(listOperations, timeStamps, baseTimeStamps, baseBalances);
+        CompletableFuture<VectorClock> acknowledged = new CompletableFuture<>();
+        ClientCalls.asyncClientStreamingCall(
+                channel.newCall(PROPAGATE_STATE_STREAM, CallOptions.DEFAULT),
+                new ClientResponseObserver<ByteString, PropagateStateResponse>() {
+            private ClientCallStreamObserver<ByteString> requestStream;
+            private int sentOperations = 0;
+            private int sentChunks = 0;
+            private long sentBytes = 0;
+            private boolean sentAll = false;
+            private final Iterator<Map.Entry<String, Long>> baseEntries = baseBalances != null ? baseBalances.entrySet().iterator() : null;
+            private final CompactEncoding encoding = compact ? CompactEncoding.encoder(serverState.getReplicaRegistry()) : null;
+            private final GossipSentEvent event = GossipSentEvent.start(qualifier);
+            /** Time of the last progress of the stream, checked by IDLE_TIMER */
+            private volatile long lastProgress = System.nanoTime();
+            private volatile boolean timedOut = false;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<ByteString> requestStream) {
+                this.requestStream = requestStream;
+                requestStream.setOnReadyHandler(this::sendChunks);
+                IDLE_TIMER.schedule(this::checkIdle, PROPAGATE_DEADLINE, TimeUnit.SECONDS);
+            }
+
+            /** Cancels the stream if it made no progress for PROPAGATE_DEADLINE, otherwise checks again when it could */
+            private void checkIdle() {
+                if (acknowledged.isDone())
+                    return;
+                long idle = System.nanoTime() - lastProgress;
+                long limit = TimeUnit.SECONDS.toNanos(PROPAGATE_DEADLINE);
+                if (idle < limit) {
+                    IDLE_TIMER.schedule(this::checkIdle, limit - idle, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                timedOut = true;
+                requestStream.cancel(PROPAGATE_TIMEOUT, null);
+            }
+
+            /** Sends chunks while the transport accepts them, called again each time it becomes ready */
+            private void sendChunks() {
+                while (!sentAll && requestStream.isReady()) {
+                    List<ByteString> chunk = new ArrayList<>();
+                    PropagateStateChunk.Builder header = PropagateStateChunk.newBuilder();
+                    // the first chunk carries the timestamps and the replica table, even if there are no operations
+                    if (sentChunks == 0) {
+                        header.putAllReplicaTS(timeStamps.toMap()).putAllBaseTS(baseTimeStamps.toMap());
+                        if (encoding != null)
+                            header.addAllReplicas(encoding.replicas());
+                    }
+                    // the base state goes in the first chunks, before any operation
+                    int chunkSize = 0;
+                    if (baseEntries != null && (sentChunks == 0 || baseEntries.hasNext())) {
+                        BaseState.Builder base = BaseState.newBuilder();
+                        while (baseEntries.hasNext() && chunkSize < CHUNK_SIZE) {
+                            Map.Entry<String, Long> account = baseEntries.next();
+                            base.putAccounts(account.getKey(), account.getValue());
+                            chunkSize += account.getKey().length() + BASE_ENTRY_OVERHEAD;
+                        }
+                        header.setBase(base);
+                    }
+                    if (sentChunks == 0 || header.hasBase())
+                        chunk.add(header.build().toByteString());
+                    while ((baseEntries == null || !baseEntries.hasNext()) && sentOperations < listOperations.size() 
+                            && chunkSize < CHUNK_SIZE) {
+                        Operation op = listOperations.get(sentOperations++);
+                        ByteString operation = encoding != null ? encoding.encodeField(PropagateStateChunk.LEDGER_FIELD_NUMBER, op)
+                            : ledgerField(op.protoBytes());
+                        chunk.add(operation);
+                        chunkSize += operation.size();
+                    }
+                    ByteString message = ByteString.copyFrom(chunk);
+                    requestStream.onNext(message);
+                    lastProgress = System.nanoTime();
+                    sentChunks++;
+                    sentBytes += message.size();
+                    if (sentOperations == listOperations.size()) {
+                        sentAll = true;
+                        requestStream.onCompleted();
+                        debug(STATE_STREAM_SENT, listOperations.size(), sentChunks, sentBytes, 
+                            encoding != null ? "compact" : "map");
+                    }
+                }
+            }
+
+            @Override
+            public void onNext(PropagateStateResponse response) {
+                debug(STATE_RESPONSE_RECEIVED);
+                compact = response.getCompact();
+                GossipSentEvent.finish(event, sentOperations, sentChunks, sentBytes, encoding != null, response.getGap() ? GAP : ACKNOWLEDGED);
+                if (response.getGap())
+                    acknowledged.completeExceptionally(new CrossServerException(qualifier, STATE_GAP));
+                else
+                    acknowledged.complete(VectorClock.fromMap(response.getReplicaTSMap(), serverState.getReplicaRegistry()));
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (!timedOut && throwable instanceof StatusRuntimeException 
+                        && ((StatusRuntimeException) throwable).getStatus().getCode().equals(UNIMPLEMENTED.getCode())) {
+                    // a replica from before the stream, nothing was applied by it
+                    streaming = false;
+                    GossipSentEvent.finish(event, 0, sentChunks, sentBytes, encoding != null, STATE_STREAM_UNIMPLEMENTED);
+                    debug(STATE_STREAM_UNIMPLEMENTED);
+                    propagateStateUnary(listOperations, timeStamps, baseTimeStamps, baseBalances).whenComplete((replicaTimeStamps, exception) -> {
+                        if (exception != null)
+                            acknowledged.completeExceptionally(exception);
+                        else
+                            acknowledged.complete(replicaTimeStamps);
+                    });
+                    return;
+                }
+                CrossServerException exception = timedOut ? new CrossServerException(qualifier, PROPAGATE_TIMEOUT) 
+                    : propagateFailure(throwable);
+                GossipSentEvent.finish(event, sentOperations, sentChunks, sentBytes, encoding != null, exception.getErrorMessage());
+                acknowledged.completeExceptionally(exception);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        return acknowledged;
+    }
+
+    /**
+     *  Propagate the server state to the server's replica in one propagateState request, for a replica 
+     *  that does not implement propagateStateStream. The whole call is bounded by PROPAGATE_DEADLINE.
+     * 
+     * @param listOperations a list of operations to be included in the propagated state
+     * @param timeStamps the timestamp of the propagated state
+     * @param baseTimeStamps the replica timestamp last acknowledged by the replica
+     * @param baseBalances the balances of the base state, or null if it is not sent
+     * @return completes as propagateState does
+     */
+    private CompletableFuture<VectorClock> propagateStateUnary(List<Operation> listOperations, VectorClock timeStamps, 
+            VectorClock baseTimeStamps, Map<String, Long> baseBalances) {
+        CompactEncoding encoding = compact ? CompactEncoding.encoder(serverState.getReplicaRegistry()) : null;
+        PropagateStateRequest.Builder builder = PropagateStateRequest
             .newBuilder()
             .setState(LedgerState
                 .newBuilder()
                 .addAllLedger(listOperations
                     .stream()
-                    .map(operation -> operation.proto())
+                    .map(operation -> encoding != null ? encoding.encode(operation) : operation.proto())
                     .collect(Collectors.toList())))
-            .putAllReplicaTS(timeStamps)
-            .build();
+            .putAllReplicaTS(timeStamps.toMap())
+            .putAllBaseTS(baseTimeStamps.toMap());
+        if (encoding != null)
+            builder.addAllReplicas(encoding.replicas());
+        if (baseBalances != null)
+            builder.setBase(BaseState.newBuilder().putAllAccounts(baseBalances));
+        PropagateStateRequest request = builder.build();
+        GossipSentEvent event = GossipSentEvent.start(qualifier);
         debug(STATE_REQUEST_SENT);
 
-        try {
-            stub.propagateState(request);
-            debug(STATE_RESPONSE_RECEIVED);
+        CompletableFuture<VectorClock> acknowledged = new CompletableFuture<>();
+        DistLedgerCrossServerServiceGrpc.newStub(channel).withDeadlineAfter(PROPAGATE_DEADLINE, TimeUnit.SECONDS)
+                .propagateState(request, new StreamObserver<PropagateStateResponse>() {
+            @Override
+            public void onNext(PropagateStateResponse response) {
+                debug(STATE_RESPONSE_RECEIVED);
+                compact = response.getCompact();
+                GossipSentEvent.finish(event, listOperations.size(), 1, request.getSerializedSize(), encoding != null, 
+                    response.getGap() ? GAP : ACKNOWLEDGED);
+                if (response.getGap())
+                    acknowledged.completeExceptionally(new CrossServerException(qualifier, STATE_GAP));
+                else
+                    acknowledged.complete(VectorClock.fromMap(response.getReplicaTSMap(), serverState.getReplicaRegistry()));
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                CrossServerException exception = propagateFailure(throwable);
+                GossipSentEvent.finish(event, 0, 1, request.getSerializedSize(), encoding != null, exception.getErrorMessage());
+                acknowledged.completeExceptionally(exception);
+            }
 
-        } catch (StatusRuntimeException exception) {
-            if (exception.getStatus().getCode().equals(UNAVAILABLE.getCode())) {
-                throw new CrossServerException(qualifier, FAIL_PROPAGATE_STATE);
+            @Override
+            public void onCompleted() {
             }
-            throw new CrossServerException(qualifier, exception.getStatus().getDescription());
+        });
+        return acknowledged;
+    }
+
+    /** Helper method to write an operation in the map encoding as an entry of the ledger of a chunk */
+    private static ByteString ledgerField(ByteString operation) {
+        byte[] header = new byte[CodedOutputStream.computeTagSize(PropagateStateChunk.LEDGER_FIELD_NUMBER) 
+            + CodedOutputStream.computeUInt32SizeNoTag(operation.size())];
+        CodedOutputStream output = CodedOutputStream.newInstance(header);
+        try {
+            output.writeTag(PropagateStateChunk.LEDGER_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(operation.size());
+        } catch (IOException exception) {
+            // the array has exactly the computed size
+            throw new UncheckedIOException(exception);
         }
+        return UnsafeByteOperations.unsafeWrap(header).concat(operation);
+    }
+
+    /** Helper method to convert the error of a propagation to a CrossServerException */
+    private CrossServerException propagateFailure(Throwable throwable) {
+        if (!(throwable instanceof StatusRuntimeException))
+            return new CrossServerException(qualifier, FAIL_PROPAGATE_STATE);
+        StatusRuntimeException exception = (StatusRuntimeException) throwable;
+        if (exception.getStatus().getCode().equals(UNAVAILABLE.getCode()))
+            return new CrossServerException(qualifier, FAIL_PROPAGATE_STATE);
+        if (exception.getStatus().getCode().equals(DEADLINE_EXCEEDED.getCode()))
+            return new CrossServerException(qualifier, PROPAGATE_TIMEOUT);
+        return new CrossServerException(qualifier, exception.getStatus().getDescription());
     }
 
     /** 
-     * Process the request to propagate the state to the other servers
+     * Process the request to propagate the state to the other servers.
+     * The replica timestamp is only acknowledged once the received operations are in the log on disk.
      * 
      * @param request the request to propagate the state
      */
     @Override
     public void propagateState(PropagateStateRequest request, StreamObserver<PropagateStateResponse> responseObserver) {
-        debug(STATE_REQUEST_RECEIVED + request);
-        serverState.receiveGossip(unProto(request.getState().getLedgerList()), request.getReplicaTSMap());
-        responseObserver.onNext(PropagateStateResponse.getDefaultInstance());
-        responseObserver.onCompleted();
-        debug(STATE_RESPONSE_SENT);	
+        debug(STATE_REQUEST_RECEIVED, request);
+        GossipReceivedEvent event = GossipReceivedEvent.start();
+        ReplicaRegistry registry = serverState.getReplicaRegistry();
+        try {
+            VectorClock replicaTimeStamps = serverState.receiveGossip(unProto(request.getState().getLedgerList(), 
+                    decoder(request.getReplicasList(), registry), registry), 
+                VectorClock.fromMap(request.getReplicaTSMap(), registry), VectorClock.fromMap(request.getBaseTSMap(), registry),
+                request.hasBase() ? request.getBase().getAccountsMap() : null);
+            GossipReceivedEvent.finish(event, request.getState().getLedgerCount(), false);
+            serverState.durable().whenComplete((ignored, exception) -> {
+                if (exception != null) {
+                    responseObserver.onError(INTERNAL.withDescription(STATE_NOT_DURABLE).asRuntimeException());
+                    debug(STATE_NOT_DURABLE);
+                    return;
+                }
+                responseObserver.onNext(PropagateStateResponse.newBuilder().putAllReplicaTS(replicaTimeStamps.toMap()).setCompact(true).build());
+                responseObserver.onCompleted();
+                debug(STATE_RESPONSE_SENT);
+            });
+        } catch (CrossServerException exception) {
+            GossipReceivedEvent.finish(event, 0, true);
+            responseObserver.onNext(PropagateStateResponse.newBuilder().setGap(true).setCompact(true).build());
+            responseObserver.onCompleted();
+            debug(STATE_GAP_SENT);
+        }
+    }
+
+    /** 
+     * Process a streamed propagation. Each chunk is applied as it arrives, and the next one is only 
+     * requested after that, so the replica never holds more than one chunk of the stream.
+     * The replica timestamp is only acknowledged once the received operations are in the log on disk.
+     * 
+     * @param responseObserver the observer of the response, sent after the last chunk
+     * @return the observer of the chunks
+     */
+    @Override
+    public StreamObserver<PropagateStateChunk> propagateStateStream(StreamObserver<PropagateStateResponse> responseObserver) {
+        ServerCallStreamObserver<PropagateStateResponse> serverObserver = (ServerCallStreamObserver<PropagateStateResponse>) responseObserver;
+        serverObserver.disableAutoInboundFlowControl();
+        serverObserver.request(1);
+        ReplicaRegistry registry = serverState.getReplicaRegistry();
+
+        return new StreamObserver<PropagateStateChunk>() {
+            private VectorClock timeStamps = null;
+            private VectorClock baseTimeStamps = null;
+            /** Balances of the base state received so far, while it is still to be installed */
+            private Map<String, Long> baseBalances = null;
+            private CompactEncoding decoder = null;
+            private int receivedOperations = 0;
+            private boolean gap = false;
+            private final GossipReceivedEvent event = GossipReceivedEvent.start();
+
+            @Override
+            public void onNext(PropagateStateChunk chunk) {
+                if (gap)
+                    return;
+                try {
+                    if (timeStamps == null) {
+                        timeStamps = VectorClock.fromMap(chunk.getReplicaTSMap(), registry);
+                        baseTimeStamps = VectorClock.fromMap(chunk.getBaseTSMap(), registry);
+                        decoder = decoder(chunk.getReplicasList(), registry);
+                        if (serverState.checkGossipBase(baseTimeStamps, chunk.hasBase()))
+                            baseBalances = new HashMap<>();
+                    }
+                    if (baseBalances != null && chunk.hasBase())
+                        baseBalances.putAll(chunk.getBase().getAccountsMap());
+                    if (chunk.getLedgerCount() > 0)
+                        installBase();
+                } catch (CrossServerException exception) {
+                    sendGap();
+                    return;
+                }
+                serverState.receiveOperations(unProto(chunk.getLedgerList(), decoder, registry));
+                receivedOperations += chunk.getLedgerCount();
+                serverObserver.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                // the operations already received stay, they are known if the sender propagates them again
+                debug(STATE_STREAM_FAILED, receivedOperations, throwable.getMessage());
+            }
+
+            /** Installs the base state once all of it was received, before the first operation */
+            private void installBase() throws CrossServerException {
+                if (baseBalances == null)
+                    return;
+                serverState.installBase(baseBalances, baseTimeStamps);
+                baseBalances = null;
+            }
+
+            private void sendGap() {
+                gap = true;
+                GossipReceivedEvent.finish(event, 0, true);
+                responseObserver.onNext(PropagateStateResponse.newBuilder().setGap(true).setCompact(true).build());
+                responseObserver.onCompleted();
+                debug(STATE_GAP_SENT);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (gap || timeStamps == null)
+                    return;
+                try {
+                    installBase();
+                } catch (CrossServerException exception) {
+                    sendGap();
+                    return;
+                }
+                debug(STATE_STREAM_RECEIVED, receivedOperations);
+                VectorClock replicaTimeStamps = serverState.completeGossip(timeStamps);
+                GossipReceivedEvent.finish(event, receivedOperations, false);
+                serverState.durable().whenComplete((ignored, exception) -> {
+                    if (exception != null) {
+                        responseObserver.onError(INTERNAL.withDescription(STATE_NOT_DURABLE).asRuntimeException());
+                        debug(STATE_NOT_DURABLE);
+                        return;
+                    }
+                    responseObserver.onNext(PropagateStateResponse.newBuilder().putAllReplicaTS(replicaTimeStamps.toMap()).setCompact(true).build());
+                    responseObserver.onCompleted();
+                    debug(STATE_RESPONSE_SENT);
+                });
+            }
+        };
+    }
+
+    /**
+     * Helper method to create the decoder of the compact encoding of a message
+     * 
+     * @param replicas the replica table of the message
+     * @param registry the registry used to convert the timestamps
+     * @return the decoder, or null if the message uses the map encoding
+     */
+    private CompactEncoding decoder(List<String> replicas, ReplicaRegistry registry) {
+        return replicas.isEmpty() ? null : CompactEncoding.decoder(replicas, registry, serverState.getAccountDictionary());
     }
 
     /**
      * Helper method to convert operation type from proto to domain 
      * 
      * @param ledger the ledger to be converted
+     * @param decoder the decoder of the compact encoding, or null if the ledger uses the map encoding
+     * @param registry the registry used to convert the timestamps
      * @return the converted ledger
      */
-    private List<Operation> unProto(List<DistLedgerCommonDefinitions.Operation> ledger) {
+    private List<Operation> unProto(List<DistLedgerCommonDefinitions.Operation> ledger, CompactEncoding decoder, ReplicaRegistry registry) {
         List<Operation> toReturn = new ArrayList<>();
         for(DistLedgerCommonDefinitions.Operation operation : ledger) {
-            switch (operation.getType()) {
-                case OP_CREATE_ACCOUNT:
-                    toReturn.add(new CreateOp(operation.getUserId(), operation.getPrevTSMap(), operation.getTSMap()));
-                    break;
-                case OP_TRANSFER_TO:
-                    toReturn.add(new TransferOp(operation.getUserId(), operation.getDestUserId(), operation.getAmount(), operation.getPrevTSMap(), operation.getTSMap()));
-                    break;
-                default:
-                    break;
-            }
+            Operation op = decoder != null ? decoder.decode(operation) : Operation.fromProto(operation, registry, serverState.getAccountDictionary());
+            if (op != null)
+                toReturn.add(op);
         }
         return toReturn;
     }
@@ -136,4 +516,16 @@ public class CrossServerDistLedgerService extends DistLedgerCrossServerServiceGr
     public ServerState getServerState() {
         return this.serverState;
     }
+
+    /** Closes the channel to the replica, letting the propagations in progress finish */
+    public void shutdown() {
+        if (channel != null)
+            channel.shutdown();
+    }
+
+    /** Closes the channel to the replica, cancelling the propagations in progress */
+    public void shutdownNow() {
+        if (channel != null)
+            channel.shutdownNow();
+    }
 }
@@ -0,0 +1,199 @@
+package pt.tecnico.distledger.server.service;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.grpc.Status.RESOURCE_EXHAUSTED;
+import io.grpc.stub.ServerCallStreamObserver;
+import pt.tecnico.distledger.server.domain.LedgerView;
+import pt.tecnico.distledger.server.domain.LedgerWatcher;
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import static pt.tecnico.distledger.server.exceptions.AdminException.ErrorMessages.*;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.Stability;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.WatchLedgerResponse;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
+
+/**
+ * Stream of a watchLedger call: the stable operations from the requested position and the unstable ones,
+ * then the changes of the ledger as they happen. The changes are queued by ServerState under stateLock and
+ * sent on the executor only while the transport is ready, so a watcher costs nothing while nothing changes
+ * and the replica never waits for it. A watcher more than MAX_QUEUED changes behind is disconnected.
+ */
+class LedgerTail implements LedgerWatcher {
+
+    private static final String WATCH_STARTED = "Ledger watch started at position %d";
+    private static final String WATCH_CANCELLED = "Ledger watch cancelled at position %d";
+
+    /** Changes a watcher can fall behind before it is disconnected */
+    static final int MAX_QUEUED = 10000;
+
+    /** Change of the ledger, an unstable operation if position is -1 */
+    private static final class Change {
+        private final Operation op;
+        private final int position;
+
+        private Change(Operation op, int position) {
+            this.op = op;
+            this.position = position;
+        }
+    }
+
+    private final ServerState serverState;
+    private final ServerCallStreamObserver<WatchLedgerResponse> observer;
+    private final Executor executor;
+    private final int fromPosition;
+
+    /** Stable operations still to send from the ledger the watcher started from, guarded by this */
+    private LedgerView replay = null;
+    private int replayPosition;
+
+    /** Unstable operations still to send from the ones the watcher started from, guarded by this */
+    private List<Operation> replayUnstable = List.of();
+    private int replayUnstableIndex = 0;
+
+    /** Changes after the start not sent yet, guarded by this */
+    private final ArrayDeque<Change> queue = new ArrayDeque<>();
+    private boolean overflowed = false;
+
+    /** Position after the last stable operation sent, only used by the sending thread after the start */
+    private int nextPosition;
+
+    /** Whether the sending task is scheduled or running, so only one thread sends at a time */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    /**
+     * @param serverState the state whose ledger is watched
+     * @param observer the observer of the call
+     * @param executor the executor of the sending task
+     * @param fromPosition the position of the first stable operation sent, or negative for only the changes
+     */
+    LedgerTail(ServerState serverState, ServerCallStreamObserver<WatchLedgerResponse> observer, Executor executor, int fromPosition) {
+        this.serverState = serverState;
+        this.observer = observer;
+        this.executor = executor;
+        this.fromPosition = fromPosition;
+    }
+
+    /** Starts watching the ledger, called by the service method of the call */
+    void start() {
+        observer.setOnReadyHandler(this::schedule);
+        observer.setOnCancelHandler(() -> {
+            closed = true;
+            serverState.unwatchLedger(this);
+            debug(WATCH_CANCELLED, nextPosition);
+        });
+        serverState.watchLedger(this);
+        debug(WATCH_STARTED, nextPosition);
+        schedule();
+    }
+
+    @Override
+    public synchronized void started(LedgerView ledger, List<Operation> unstable) {
+        if (fromPosition < 0) {
+            nextPosition = ledger.getEnd();
+            return;
+        }
+        // operations removed by garbage collection are skipped, and a position after the end starts at the end
+        replay = ledger;
+        replayPosition = Math.min(Math.max(fromPosition, ledger.getStart()), ledger.getEnd());
+        replayUnstable = unstable;
+        nextPosition = replayPosition;
+    }
+
+    @Override
+    public void unstable(Operation op) {
+        queue(new Change(op, -1));
+    }
+
+    @Override
+    public void stable(Operation op, int position) {
+        queue(new Change(op, position));
+    }
+
+    private void queue(Change change) {
+        synchronized (this) {
+            if (overflowed)
+                return;
+            if (queue.size() == MAX_QUEUED) {
+                overflowed = true;
+                queue.clear();
+            } else
+                queue.add(change);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (!closed && scheduled.compareAndSet(false, true))
+            executor.execute(this::send);
+    }
+
+    /** Sends while the transport is ready, scheduled again by the next change or when it becomes ready */
+    private void send() {
+        do {
+            sendReady();
+            scheduled.set(false);
+        } while (hasWork() && scheduled.compareAndSet(false, true));
+    }
+
+    private void sendReady() {
+        while (!closed) {
+            boolean overflow;
+            Change change;
+            // ServerState calls the watcher with stateLock locked, so stateLock is never taken with this locked
+            synchronized (this) {
+                overflow = overflowed;
+                change = overflow || !observer.isReady() ? null : next();
+            }
+            if (overflow) {
+                disconnect();
+                return;
+            }
+            if (change == null)
+                return;
+            observer.onNext(WatchLedgerResponse.newBuilder()
+                .setStability(change.position < 0 ? Stability.STABILITY_UNSTABLE : Stability.STABILITY_STABLE)
+                .setOperation(change.op.proto())
+                .setPosition(Math.max(change.position, 0))
+                .build());
+            if (change.position >= 0)
+                nextPosition = change.position + 1;
+        }
+    }
+
+    /** Whether there is something to send now: a disconnection, or changes the transport is ready for */
+    private synchronized boolean hasWork() {
+        if (closed)
+            return false;
+        if (overflowed)
+            return true;
+        boolean pending = (replay != null && replayPosition < replay.getEnd())
+            || replayUnstableIndex < replayUnstable.size() || !queue.isEmpty();
+        return pending && observer.isReady();
+    }
+
+    /** Next change to send, first the ones from before the start; called with this locked */
+    private Change next() {
+        if (replay != null && replayPosition < replay.getEnd()) {
+            int position = replayPosition++;
+            return new Change(replay.getAt(position), position);
+        }
+        replay = null;
+        if (replayUnstableIndex < replayUnstable.size())
+            return new Change(replayUnstable.get(replayUnstableIndex++), -1);
+        return queue.poll();
+    }
+
+    /** Ends the call of a watcher that fell too far behind, with the position it can watch again from */
+    private void disconnect() {
+        closed = true;
+        serverState.unwatchLedger(this);
+        String errorMessage = String.format(WATCHER_TOO_SLOW, MAX_QUEUED, nextPosition);
+        observer.onError(RESOURCE_EXHAUSTED.withDescription(errorMessage).asRuntimeException());
+        debug(errorMessage);
+    }
+}
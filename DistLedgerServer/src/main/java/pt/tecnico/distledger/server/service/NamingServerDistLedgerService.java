@@ -3,26 +3,26 @@ package pt.tecnico.distledger.server.service;
 import java.util.List;
 
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
 import pt.tecnico.distledger.server.exceptions.NamingServerException;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.Server;
 import pt.ulisboa.tecnico.distledger.contract.namingserverservice.NamingServerDistledgerServiceGrpc;
 import pt.ulisboa.tecnico.distledger.contract.namingserverservice.NamingServerDistLedger.*;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
 
 public class NamingServerDistLedgerService {
 
     private static final String NAMING_SERVER_SERVICE_STARTED = "NamingServerDistledgerServices created";
 
-    private static final String REGISTER_REQUEST = "Register request sent: \n";
+    private static final String REGISTER_REQUEST = "Register request sent: \n%s";
     private static final String REGISTER_RESPONSE = "Register response received";
     private static final String REGISTER_FAILED = "Register failed: ";
 
-    private static final String DELETE_REQUEST = "Delete request sent: \n";
+    private static final String DELETE_REQUEST = "Delete request sent: \n%s";
     private static final String DELETE_RESPONSE = "Delete response received";
     private static final String DELETE_FAILED = "Delete failed: ";
 
-    private static final String LOOKUP_REQUEST = "Lookup request sent: \n";
+    private static final String LOOKUP_REQUEST = "Lookup request sent: \n%s";
     private static final String LOOKUP_RESPONSE = "Lookup response received";
     private static final String LOOKUP_FAILED = "Lookup failed: ";
 
@@ -30,22 +30,11 @@ public class NamingServerDistLedgerService {
     private ManagedChannel channel;
     private NamingServerDistledgerServiceGrpc.NamingServerDistledgerServiceBlockingStub stub;
 
-    /**
-     * Set flag to true to print debug messages.
-     * The flag can be set using the -Ddebug command line option.
-     */
-    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
-
-    /** Helper method to print debug messages. */
-    private static void debug(String debugMessage) {
-        if (DEBUG_FLAG)
-            System.err.println(debugMessage);
-    }
 
     public NamingServerDistLedgerService(String address) {
         this.address = address;
         // Create a channel to the provided address
-        this.channel = ManagedChannelBuilder.forTarget(this.address).usePlaintext().build();
+        this.channel = Channels.forAddress(this.address);
         // Create a stub to send requests to the provided address
         this.stub = NamingServerDistledgerServiceGrpc.newBlockingStub(this.channel);
         debug(NAMING_SERVER_SERVICE_STARTED);
@@ -61,7 +50,7 @@ public class NamingServerDistLedgerService {
      */
     public void register(String serviceName, String qualifier, String address) throws NamingServerException {
         RegisterRequest request = RegisterRequest.newBuilder().setServiceName(serviceName).setQualifier(qualifier).setAddress(address).build();
-        debug(REGISTER_REQUEST + request);
+        debug(REGISTER_REQUEST, request);
         try {
             stub.register(request);
         } catch (StatusRuntimeException exception) {
@@ -79,7 +68,7 @@ public class NamingServerDistLedgerService {
      */
     public void delete(String serviceName, String address) throws NamingServerException {
         DeleteRequest request = DeleteRequest.newBuilder().setServiceName(serviceName).setAddress(address).build();
-        debug(DELETE_REQUEST + request);
+        debug(DELETE_REQUEST, request);
         try {
             stub.delete(request);
         } catch (StatusRuntimeException exception) {
@@ -97,7 +86,7 @@ public class NamingServerDistLedgerService {
      */
     public List<Server> lookup(String serviceName, String qualifier) throws NamingServerException {
         LookupRequest request = LookupRequest.newBuilder().setServiceName(serviceName).setQualifier(qualifier).build();
-        debug(LOOKUP_REQUEST + request);
+        debug(LOOKUP_REQUEST, request);
         try {
             LookupResponse response = stub.lookup(request);
             debug(LOOKUP_RESPONSE);
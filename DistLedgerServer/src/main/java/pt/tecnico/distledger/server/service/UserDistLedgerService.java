@@ -1,40 +1,48 @@
 package pt.tecnico.distledger.server.service;
 
+import static io.grpc.Status.DEADLINE_EXCEEDED;
+import static io.grpc.Status.INTERNAL;
 import static io.grpc.Status.INVALID_ARGUMENT;
 import static io.grpc.Status.UNAVAILABLE;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import pt.tecnico.distledger.server.domain.*;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
 import pt.tecnico.distledger.server.exceptions.UserException;
 import pt.ulisboa.tecnico.distledger.contract.user.*;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.*;
 import static pt.tecnico.distledger.server.exceptions.UserException.ErrorMessages.*;
-
-import java.util.Map;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
 
 public class UserDistLedgerService extends UserServiceGrpc.UserServiceImplBase {
 
 	private static final String USER_DISTLEDGER_SERVICE_STARTED = "UserService created";
 
-	private static final String CREATE_ACCOUNT_REQUEST = "CreateAccount request received: \n";
-	private static final String CREATE_ACCOUNT_RESPONSE = "CreateAccount response sent: \n";
+	private static final String CREATE_ACCOUNT_REQUEST = "CreateAccount request received: \n%s";
+	private static final String CREATE_ACCOUNT_RESPONSE = "CreateAccount response sent: \n%s";
 
-	private static final String TRANSFER_TO_REQUEST = "TransferTo request received: \n";
-	private static final String TRANSFER_TO_RESPONSE = "TransferTo response sent: \n";
+	private static final String TRANSFER_TO_REQUEST = "TransferTo request received: \n%s";
+	private static final String TRANSFER_TO_RESPONSE = "TransferTo response sent: \n%s";
 
-	private static final String BALANCE_REQUEST = "Balance request received: \n";
-	private static final String BALANCE_RESPONSE = "Balance response sent";
+	private static final String TRANSFER_BATCH_REQUEST = "TransferBatch request received: %s transfers";
+	private static final String TRANSFER_BATCH_RESPONSE = "TransferBatch response sent: %s transfers accepted";
 
-	/**
-	 * Set flag to true to print debug messages.
-	 * The flag can be set using the -Ddebug command line option.
-	 */
-	private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+	private static final String CREATE_ACCOUNT_BATCH_REQUEST = "CreateAccountBatch request received: %s accounts";
+	private static final String CREATE_ACCOUNT_BATCH_RESPONSE = "CreateAccountBatch response sent: %s accounts created";
+
+	private static final String BALANCE_REQUEST = "Balance request received: \n%s";
+	private static final String BALANCE_RESPONSE = "Balance response sent";
+	private static final String BALANCE_CANCELLED = "Balance request cancelled by the client";
 
-	/** Helper method to print debug messages. */
-	private static void debug(String debugMessage) {
-		if (DEBUG_FLAG)
-			System.err.println(debugMessage);
-	}
 
 	private ServerState serverState;
 
@@ -44,7 +52,8 @@ public class UserDistLedgerService extends UserServiceGrpc.UserServiceImplBase {
 	}
 
 	/**
-	 * Request to create a new account in the server
+	 * Request to create a new account in the server.
+	 * The response is sent once the operation is in the log on disk.
 	 * 
 	 * @param request the create account request with the new account data
 	 * @param responseObserver the response observer for sending the activation response
@@ -52,13 +61,21 @@ public class UserDistLedgerService extends UserServiceGrpc.UserServiceImplBase {
 	@Override
 	public void createAccount(CreateAccountRequest request, StreamObserver<CreateAccountResponse> responseObserver) {
 		try {
-			debug(CREATE_ACCOUNT_REQUEST + request);
-			Map<String, Integer> timeStamps = serverState.createAccount(request.getUserId(), request.getPrevTSMap());
-			CreateAccountResponse response = CreateAccountResponse.newBuilder().putAllTS(timeStamps).build();
-			debug(CREATE_ACCOUNT_RESPONSE + response);
+			debug(CREATE_ACCOUNT_REQUEST, request);
+			VectorClock timeStamps = serverState.createAccount(request.getUserId(), 
+				clientTimeStamps(request.getPrevTSMap(), FAIL_CREATE_ACCOUNT));
+			serverState.durable().whenComplete((ignored, exception) -> {
+				if (exception != null) {
+					responseObserver.onError(INTERNAL.withDescription(FAIL_CREATE_ACCOUNT + OPERATION_NOT_DURABLE).asRuntimeException());
+					debug(FAIL_CREATE_ACCOUNT + OPERATION_NOT_DURABLE);
+					return;
+				}
+				CreateAccountResponse response = CreateAccountResponse.newBuilder().putAllTS(timeStamps.toMap()).build();
+				debug(CREATE_ACCOUNT_RESPONSE, response);
 
-			responseObserver.onNext(response);
-			responseObserver.onCompleted();
+				responseObserver.onNext(response);
+				responseObserver.onCompleted();
+			});
 		} catch (UserException exception) {
 			if (exception.getErrorMessage().equals(SERVER_UNAVAILABLE)) 
 				responseObserver.onError(UNAVAILABLE.withDescription(exception.getErrorMessage()).asRuntimeException());
@@ -70,7 +87,32 @@ public class UserDistLedgerService extends UserServiceGrpc.UserServiceImplBase {
 	}
 
 	/**
-	 * Request to transfer an amount from one account to another
+	 * Helper method to convert the timestamp of a client without registering the replicas it names, 
+	 * so a client can not add replicas that never acknowledge gossip or that reads wait for forever
+	 * 
+	 * @param timeStamps the timestamp of the request
+	 * @param failure the error message prefix of the request
+	 * @return the converted timestamp, where unknown replicas with entry 0 are left out
+	 * @throws UserException if an unknown replica has an entry other than 0
+	 */
+	private VectorClock clientTimeStamps(Map<String, Integer> timeStamps, String failure) throws UserException {
+		VectorClock clock = VectorClock.fromKnownMap(timeStamps, serverState.getReplicaRegistry());
+		if (clock == null)
+			throw new UserException(failure + String.format(UNKNOWN_REPLICA_TIMESTAMP, unknownReplica(timeStamps)));
+		return clock;
+	}
+
+	private String unknownReplica(Map<String, Integer> timeStamps) {
+		return timeStamps.entrySet().stream()
+			.filter(entry -> entry.getValue() != 0 && serverState.getReplicaRegistry().find(entry.getKey()) < 0)
+			.map(Map.Entry::getKey)
+			.findFirst()
+			.orElse("");
+	}
+
+	/**
+	 * Request to transfer an amount from one account to another.
+	 * The response is sent once the operation is in the log on disk.
 	 * 
 	 * @param request the transfer request with the transfer data (from, to, amount)
 	 * @param responseObserver the response observer for sending the transfer response
@@ -78,12 +120,20 @@ public class UserDistLedgerService extends UserServiceGrpc.UserServiceImplBase {
 	@Override
 	public void transferTo(TransferToRequest request, StreamObserver<TransferToResponse> responseObserver) {
 		try {
-			debug(TRANSFER_TO_REQUEST + request);
-			Map<String, Integer> timeStamps = serverState.transferTo(request.getAccountFrom(), request.getAccountTo(), request.getAmount(), request.getPrevTSMap());
-			TransferToResponse response = TransferToResponse.newBuilder().putAllTS(timeStamps).build();
-			debug(TRANSFER_TO_RESPONSE + response);
-			responseObserver.onNext(response);
-			responseObserver.onCompleted();
+			debug(TRANSFER_TO_REQUEST, request);
+			VectorClock timeStamps = serverState.transferTo(request.getAccountFrom(), request.getAccountTo(), request.getAmount(), 
+				clientTimeStamps(request.getPrevTSMap(), FAIL_TRANSFER_TO));
+			serverState.durable().whenComplete((ignored, exception) -> {
+				if (exception != null) {
+					responseObserver.onError(INTERNAL.withDescription(FAIL_TRANSFER_TO + OPERATION_NOT_DURABLE).asRuntimeException());
+					debug(FAIL_TRANSFER_TO + OPERATION_NOT_DURABLE);
+					return;
+				}
+				TransferToResponse response = TransferToResponse.newBuilder().putAllTS(timeStamps.toMap()).build();
+				debug(TRANSFER_TO_RESPONSE, response);
+				responseObserver.onNext(response);
+				responseObserver.onCompleted();
+			});
 		} catch (UserException exception) {
 			if (exception.getErrorMessage().equals(SERVER_UNAVAILABLE)) {
 				responseObserver.onError(UNAVAILABLE.withDescription(exception.getErrorMessage()).asRuntimeException());
@@ -97,7 +147,104 @@ public class UserDistLedgerService extends UserServiceGrpc.UserServiceImplBase {
 	}
 	
 	/**
-	 * Request the balance of an account
+	 * Request to create many accounts, applied in one pass over the state.
+	 * The response is sent once the accepted operations are in the log on disk.
+	 * 
+	 * @param request the user IDs of the accounts and the client timestamp
+	 * @param responseObserver the response observer for sending the result of each account
+	 */
+	@Override
+	public void createAccountBatch(CreateAccountBatchRequest request, StreamObserver<CreateAccountBatchResponse> responseObserver) {
+		try {
+			debug(CREATE_ACCOUNT_BATCH_REQUEST, request.getUserIdsCount());
+			BatchResult result = serverState.createAccountBatch(request.getUserIdsList(), 
+				clientTimeStamps(request.getPrevTSMap(), FAIL_BATCH));
+			serverState.durable().whenComplete((ignored, exception) -> {
+				if (exception != null) {
+					responseObserver.onError(INTERNAL.withDescription(FAIL_BATCH + OPERATION_NOT_DURABLE).asRuntimeException());
+					debug(FAIL_BATCH + OPERATION_NOT_DURABLE);
+					return;
+				}
+				CreateAccountBatchResponse response = CreateAccountBatchResponse
+					.newBuilder()
+					.addAllResults(batchResults(result))
+					.putAllTS(result.getTimeStamps().toMap())
+					.build();
+				debug(CREATE_ACCOUNT_BATCH_RESPONSE, acceptedCount(result));
+				responseObserver.onNext(response);
+				responseObserver.onCompleted();
+			});
+		} catch (UserException exception) {
+			batchError(exception, responseObserver);
+		}
+	}
+
+	/**
+	 * Request to execute many transfers, applied in one pass over the state.
+	 * The response is sent once the accepted operations are in the log on disk.
+	 * 
+	 * @param request the transfers and the client timestamp
+	 * @param responseObserver the response observer for sending the result of each transfer
+	 */
+	@Override
+	public void transferBatch(TransferBatchRequest request, StreamObserver<TransferBatchResponse> responseObserver) {
+		try {
+			debug(TRANSFER_BATCH_REQUEST, request.getTransfersCount());
+			List<Transfer> transfers = new ArrayList<>(request.getTransfersCount());
+			for (TransferItem item : request.getTransfersList())
+				transfers.add(new Transfer(item.getAccountFrom(), item.getAccountTo(), item.getAmount()));
+			BatchResult result = serverState.transferBatch(transfers, 
+				clientTimeStamps(request.getPrevTSMap(), FAIL_BATCH));
+			serverState.durable().whenComplete((ignored, exception) -> {
+				if (exception != null) {
+					responseObserver.onError(INTERNAL.withDescription(FAIL_BATCH + OPERATION_NOT_DURABLE).asRuntimeException());
+					debug(FAIL_BATCH + OPERATION_NOT_DURABLE);
+					return;
+				}
+				TransferBatchResponse response = TransferBatchResponse
+					.newBuilder()
+					.addAllResults(batchResults(result))
+					.putAllTS(result.getTimeStamps().toMap())
+					.build();
+				debug(TRANSFER_BATCH_RESPONSE, acceptedCount(result));
+				responseObserver.onNext(response);
+				responseObserver.onCompleted();
+			});
+		} catch (UserException exception) {
+			batchError(exception, responseObserver);
+		}
+	}
+
+	/** Helper method to convert the result of each operation of a batch */
+	private static List<BatchItemResult> batchResults(BatchResult result) {
+		List<BatchItemResult> results = new ArrayList<>(result.getErrorMessages().size());
+		for (String errorMessage : result.getErrorMessages()) {
+			if (errorMessage == null)
+				results.add(BatchItemResult.newBuilder().setAccepted(true).build());
+			else
+				results.add(BatchItemResult.newBuilder().setError(errorMessage).build());
+		}
+		return results;
+	}
+
+	private static long acceptedCount(BatchResult result) {
+		return result.getErrorMessages().stream().filter(errorMessage -> errorMessage == null).count();
+	}
+
+	/** Helper method to reject a whole batch */
+	private static void batchError(UserException exception, StreamObserver<?> responseObserver) {
+		if (exception.getErrorMessage().endsWith(SERVER_UNAVAILABLE))
+			responseObserver.onError(UNAVAILABLE.withDescription(exception.getErrorMessage()).asRuntimeException());
+		else
+			responseObserver.onError(INVALID_ARGUMENT.withDescription(exception.getErrorMessage()).asRuntimeException());
+		debug(exception.getErrorMessage());
+	}
+
+	/**
+	 * Request the balance of an account.
+	 * The response is sent asynchronously once the replica reaches the client timestamp, so the calling
+	 * thread is released right away. The wait ends early with DEADLINE_EXCEEDED if the client set a deadline,
+	 * or when the client cancels the call.
 	 * 
 	 * @param request the balance request with the account identifier
 	 * @param responseObserver the response observer for sending the balance response
@@ -105,22 +252,44 @@ public class UserDistLedgerService extends UserServiceGrpc.UserServiceImplBase {
 	@Override
 	public void balance(BalanceRequest request, StreamObserver<BalanceResponse> responseObserver) {
 		try {
-			debug(BALANCE_REQUEST + request);
-			int balance = serverState.balance(request.getUserId(), request.getPrevTSMap());
-			BalanceResponse response = BalanceResponse.newBuilder().setValue(balance).build();
-			debug(BALANCE_RESPONSE);
+			debug(BALANCE_REQUEST, request);
+			CompletableFuture<Integer> balance = serverState.balance(request.getUserId(), 
+				clientTimeStamps(request.getPrevTSMap(), FAIL_BALANCE));
+
+			Deadline deadline = Context.current().getDeadline();
+			if (deadline != null)
+				balance.orTimeout(deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+			((ServerCallStreamObserver<BalanceResponse>) responseObserver).setOnCancelHandler(() -> balance.cancel(false));
 
-			responseObserver.onNext(response);
-			responseObserver.onCompleted();
+			balance.whenComplete((value, exception) -> {
+				if (exception == null) {
+					BalanceResponse response = BalanceResponse.newBuilder().setValue(value).build();
+					debug(BALANCE_RESPONSE);
+
+					responseObserver.onNext(response);
+					responseObserver.onCompleted();
+				} else if (exception instanceof CancellationException) {
+					debug(BALANCE_CANCELLED);
+				} else if (exception instanceof TimeoutException) {
+					responseObserver.onError(DEADLINE_EXCEEDED.withDescription(FAIL_BALANCE + BALANCE_TIMEOUT).asRuntimeException());
+					debug(FAIL_BALANCE + BALANCE_TIMEOUT);
+				} else {
+					balanceError((UserException) exception, responseObserver);
+				}
+			});
 		} catch (UserException exception) {
-			if (exception.getErrorMessage().equals(SERVER_UNAVAILABLE)) {
-				responseObserver.onError(UNAVAILABLE.withDescription(exception.getErrorMessage()).asRuntimeException());
-				debug(exception.getErrorMessage());
-			} else {
-				responseObserver
-						.onError(INVALID_ARGUMENT.withDescription(exception.getErrorMessage()).asRuntimeException());
-				debug(exception.getErrorMessage());
-			}
+			balanceError(exception, responseObserver);
+		}
+	}
+
+	private void balanceError(UserException exception, StreamObserver<BalanceResponse> responseObserver) {
+		if (exception.getErrorMessage().equals(SERVER_UNAVAILABLE)) {
+			responseObserver.onError(UNAVAILABLE.withDescription(exception.getErrorMessage()).asRuntimeException());
+			debug(exception.getErrorMessage());
+		} else {
+			responseObserver
+					.onError(INVALID_ARGUMENT.withDescription(exception.getErrorMessage()).asRuntimeException());
+			debug(exception.getErrorMessage());
 		}
 	}
 }
@@ -0,0 +1,77 @@
+package pt.tecnico.distledger.server.snapshot;
+
+import java.util.List;
+
+import pt.tecnico.distledger.server.domain.AccountStore;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+
+/**
+ * Consistent copy of the state of a replica, equal to the state rebuilt from the write-ahead log up to logPosition.
+ * The collections are copies owned by the snapshot or immutable views, so it can be written while the replica keeps changing.
+ */
+public class Snapshot {
+
+    private final long logPosition;
+    private final AccountStore accounts;
+    private final AccountStore baseAccounts;
+    private final VectorClock timeStamps;
+    private final VectorClock replicaTimeStamps;
+    private final VectorClock baseTimeStamps;
+    private final int ledgerOffset;
+    private final List<Operation> ledger;
+    private final List<Operation> pendingOperations;
+
+    public Snapshot(long logPosition, AccountStore accounts, AccountStore baseAccounts,
+            VectorClock timeStamps, VectorClock replicaTimeStamps, VectorClock baseTimeStamps,
+            int ledgerOffset, List<Operation> ledger, List<Operation> pendingOperations) {
+        this.logPosition = logPosition;
+        this.accounts = accounts;
+        this.baseAccounts = baseAccounts;
+        this.timeStamps = timeStamps;
+        this.replicaTimeStamps = replicaTimeStamps;
+        this.baseTimeStamps = baseTimeStamps;
+        this.ledgerOffset = ledgerOffset;
+        this.ledger = ledger;
+        this.pendingOperations = pendingOperations;
+    }
+
+    /** Position of the write-ahead log covered by the snapshot; only later records have to be replayed */
+    public long getLogPosition() {
+        return logPosition;
+    }
+
+    public AccountStore getAccounts() {
+        return accounts;
+    }
+
+    public AccountStore getBaseAccounts() {
+        return baseAccounts;
+    }
+
+    public VectorClock getTimeStamps() {
+        return timeStamps;
+    }
+
+    public VectorClock getReplicaTimeStamps() {
+        return replicaTimeStamps;
+    }
+
+    public VectorClock getBaseTimeStamps() {
+        return baseTimeStamps;
+    }
+
+    public int getLedgerOffset() {
+        return ledgerOffset;
+    }
+
+    /** Stable operations, in execution order */
+    public List<Operation> getLedger() {
+        return ledger;
+    }
+
+    /** Unstable operations, in the order they were accepted */
+    public List<Operation> getPendingOperations() {
+        return pendingOperations;
+    }
+}
@@ -0,0 +1,239 @@
+package pt.tecnico.distledger.server.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.AccountStore;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.clock.VectorClock;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
+
+/**
+ * Snapshot files of a replica, kept next to its write-ahead log.
+ *
+ * Format: magic, version, log position, balances (name, long value), clocks (qualifier, value), ledger offset,
+ * operations (length and contract encoding) and a CRC32 of everything before it.
+ * Clocks and operations name replicas by qualifier and accounts by name, so a snapshot does not depend on
+ * registry indexes or account ids.
+ * A snapshot is written to a temporary file that is forced and renamed, so the latest snapshot is always complete;
+ * only the latest one is kept.
+ */
+public class SnapshotStore {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x444c534e;
+    private static final int VERSION = 2;
+
+    private static final String SNAPSHOT_WRITTEN = "Snapshot written: %s (%s accounts, %s operations)";
+    private static final String SNAPSHOT_LOADED = "Snapshot loaded: %s";
+    private static final String INVALID_SNAPSHOT = "Invalid snapshot file: %s";
+
+
+    private final Path directory;
+
+    /**
+     * @param directory the directory of the snapshots, created if it does not exist
+     * @throws IOException if the directory can not be created
+     */
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Writes a snapshot and deletes the previous ones
+     *
+     * @param snapshot the snapshot to write
+     * @throws IOException if the snapshot can not be written
+     */
+    public void write(Snapshot snapshot) throws IOException {
+        Path target = directory.resolve(snapshotName(snapshot.getLogPosition()));
+        Path temporary = directory.resolve(snapshotName(snapshot.getLogPosition()) + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)), checksum));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(snapshot.getLogPosition());
+            writeAccounts(output, snapshot.getAccounts());
+            writeAccounts(output, snapshot.getBaseAccounts());
+            writeClock(output, snapshot.getTimeStamps());
+            writeClock(output, snapshot.getReplicaTimeStamps());
+            writeClock(output, snapshot.getBaseTimeStamps());
+            output.writeInt(snapshot.getLedgerOffset());
+            writeOperations(output, snapshot.getLedger());
+            writeOperations(output, snapshot.getPendingOperations());
+            output.flush();
+            // the checksum itself is not part of the checked content
+            new DataOutputStream(Channels.newOutputStream(channel)).writeLong(checksum.getValue());
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        debug(SNAPSHOT_WRITTEN, target.getFileName(), snapshot.getAccounts().size(),
+            snapshot.getLedger().size() + snapshot.getPendingOperations().size());
+
+        for (Path previous : listSnapshots()) {
+            if (!previous.equals(target))
+                Files.deleteIfExists(previous);
+        }
+    }
+
+    /**
+     * Reads the latest snapshot
+     *
+     * @param registry the registry used to convert the clocks and operations
+     * @param dictionary the dictionary used to convert the balances and operations
+     * @return the snapshot, or null if there is none
+     * @throws IOException if the snapshot can not be read or is corrupted
+     */
+    public Snapshot readLatest(ReplicaRegistry registry, AccountDictionary dictionary) throws IOException {
+        List<Path> snapshots = listSnapshots();
+        if (snapshots.isEmpty())
+            return null;
+        Path latest = snapshots.get(snapshots.size() - 1);
+        try (InputStream file = Files.newInputStream(latest)) {
+            CRC32 checksum = new CRC32();
+            DataInputStream input = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file), checksum));
+            if (input.readInt() != MAGIC)
+                throw new IOException(String.format(INVALID_SNAPSHOT, latest));
+            if (input.readInt() != VERSION)
+                throw new IOException(String.format(INVALID_SNAPSHOT, latest));
+            long logPosition = input.readLong();
+            AccountStore accounts = readAccounts(input, dictionary);
+            AccountStore baseAccounts = readAccounts(input, dictionary);
+            VectorClock timeStamps = readClock(input, registry);
+            VectorClock replicaTimeStamps = readClock(input, registry);
+            VectorClock baseTimeStamps = readClock(input, registry);
+            int ledgerOffset = input.readInt();
+            List<Operation> ledger = readOperations(input, registry, dictionary);
+            List<Operation> pendingOperations = readOperations(input, registry, dictionary);
+            long expected = checksum.getValue();
+            if (input.readLong() != expected)
+                throw new IOException(String.format(INVALID_SNAPSHOT, latest));
+            debug(SNAPSHOT_LOADED, latest.getFileName());
+            return new Snapshot(logPosition, accounts, baseAccounts, timeStamps, replicaTimeStamps, baseTimeStamps,
+                ledgerOffset, ledger, pendingOperations);
+        }
+    }
+
+    private static void writeAccounts(DataOutputStream output, AccountStore accounts) throws IOException {
+        output.writeInt(accounts.size());
+        IOException[] failure = new IOException[1];
+        accounts.forEach((account, balance) -> {
+            if (failure[0] != null)
+                return;
+            try {
+                output.writeUTF(account);
+                output.writeLong(balance);
+            } catch (IOException exception) {
+                failure[0] = exception;
+            }
+        });
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    private static AccountStore readAccounts(DataInputStream input, AccountDictionary dictionary) throws IOException {
+        int size = input.readInt();
+        AccountStore accounts = new AccountStore(dictionary);
+        for (int i = 0; i < size; i++) {
+            int account = dictionary.idOf(input.readUTF());
+            accounts.create(account, input.readLong());
+        }
+        return accounts;
+    }
+
+    private static void writeBalances(DataOutputStream output, Map<String, Integer> balances) throws IOException {
+        output.writeInt(balances.size());
+        for (Map.Entry<String, Integer> entry : balances.entrySet()) {
+            output.writeUTF(entry.getKey());
+            output.writeInt(entry.getValue());
+        }
+    }
+
+    private static Map<String, Integer> readBalances(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        Map<String, Integer> balances = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++)
+            balances.put(input.readUTF(), input.readInt());
+        return balances;
+    }
+
+    private static void writeClock(DataOutputStream output, VectorClock clock) throws IOException {
+        writeBalances(output, clock.toMap());
+    }
+
+    private static VectorClock readClock(DataInputStream input, ReplicaRegistry registry) throws IOException {
+        return VectorClock.fromMap(readBalances(input), registry);
+    }
+
+    private static void writeOperations(DataOutputStream output, List<Operation> operations) throws IOException {
+        output.writeInt(operations.size());
+        for (Operation op : operations) {
+            byte[] bytes = op.proto().toByteArray();
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static List<Operation> readOperations(DataInputStream input, ReplicaRegistry registry, 
+            AccountDictionary dictionary) throws IOException {
+        int size = input.readInt();
+        List<Operation> operations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            operations.add(Operation.fromProto(DistLedgerCommonDefinitions.Operation.parseFrom(bytes), registry, dictionary));
+        }
+        return operations;
+    }
+
+    private List<Path> listSnapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> {
+                    String name = path.getFileName().toString();
+                    return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+                })
+                .sorted(Comparator.comparingLong(SnapshotStore::positionOf))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static String snapshotName(long logPosition) {
+        return String.format("%s%020d%s", SNAPSHOT_PREFIX, logPosition, SNAPSHOT_SUFFIX);
+    }
+
+    private static long positionOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+}
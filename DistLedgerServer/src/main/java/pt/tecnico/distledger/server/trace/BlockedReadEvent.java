@@ -0,0 +1,46 @@
+package pt.tecnico.distledger.server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pt.tecnico.distledger.BlockedRead")
+@Label("Blocked Read")
+@Category({"DistLedger", "Operations"})
+@Description("Balance read waiting for the replica timestamp to cover the timestamp of the client")
+public class BlockedReadEvent extends Event {
+
+    @Label("Account")
+    String account;
+
+    @Label("Abandoned")
+    @Description("Whether the read was cancelled or timed out before the replica caught up")
+    boolean abandoned;
+
+    /** Starts timing a blocked read, returns null if no recording is running */
+    public static BlockedReadEvent start(String account) {
+        if (!Trace.isRecording())
+            return null;
+        BlockedReadEvent event = new BlockedReadEvent();
+        event.account = account;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records a blocked read timed from start
+     *
+     * @param event the event returned by start, ignored if null
+     */
+    public static void finish(BlockedReadEvent event, boolean abandoned) {
+        if (event == null)
+            return;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.abandoned = abandoned;
+        event.commit();
+    }
+}
@@ -0,0 +1,46 @@
+package pt.tecnico.distledger.server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pt.tecnico.distledger.GossipReceived")
+@Label("Gossip Received")
+@Category({"DistLedger", "Gossip"})
+@Description("Propagation received from another replica, from its first message until its operations were applied")
+public class GossipReceivedEvent extends Event {
+
+    @Label("Operations")
+    int operations;
+
+    @Label("Gap")
+    @Description("Whether the propagation was refused as the replica is missing older operations")
+    boolean gap;
+
+    /** Starts timing a propagation, returns null if no recording is running */
+    public static GossipReceivedEvent start() {
+        if (!Trace.isRecording())
+            return null;
+        GossipReceivedEvent event = new GossipReceivedEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records a propagation timed from start
+     *
+     * @param event the event returned by start, ignored if null
+     */
+    public static void finish(GossipReceivedEvent event, int operations, boolean gap) {
+        if (event == null)
+            return;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.operations = operations;
+        event.gap = gap;
+        event.commit();
+    }
+}
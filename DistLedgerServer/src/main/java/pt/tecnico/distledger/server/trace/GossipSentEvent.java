@@ -0,0 +1,65 @@
+package pt.tecnico.distledger.server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pt.tecnico.distledger.GossipSent")
+@Label("Gossip Sent")
+@Category({"DistLedger", "Gossip"})
+@Description("Propagation of operations to another replica, from the call until its answer")
+public class GossipSentEvent extends Event {
+
+    @Label("Peer")
+    String peer;
+
+    @Label("Operations")
+    int operations;
+
+    @Label("Chunks")
+    int chunks;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Compact")
+    @Description("Whether the operations used the compact encoding")
+    boolean compact;
+
+    @Label("Outcome")
+    @Description("Acknowledged, gap, or the error of the propagation")
+    String outcome;
+
+    /** Starts timing a propagation, returns null if no recording is running */
+    public static GossipSentEvent start(String peer) {
+        if (!Trace.isRecording())
+            return null;
+        GossipSentEvent event = new GossipSentEvent();
+        event.peer = peer;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records a propagation timed from start
+     *
+     * @param event the event returned by start, ignored if null
+     */
+    public static void finish(GossipSentEvent event, int operations, int chunks, long bytes, boolean compact, String outcome) {
+        if (event == null)
+            return;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.operations = operations;
+        event.chunks = chunks;
+        event.bytes = bytes;
+        event.compact = compact;
+        event.outcome = outcome;
+        event.commit();
+    }
+}
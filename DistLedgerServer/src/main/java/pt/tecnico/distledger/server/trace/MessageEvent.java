@@ -0,0 +1,20 @@
+package pt.tecnico.distledger.server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Debug message of the replica, disabled unless a recording asks for it as formatting every message is not free */
+@Name("pt.tecnico.distledger.Message")
+@Label("Debug Message")
+@Category("DistLedger")
+@Description("Message printed by the replica with -Ddebug")
+@Enabled(false)
+class MessageEvent extends Event {
+
+    @Label("Message")
+    String message;
+}
@@ -0,0 +1,67 @@
+package pt.tecnico.distledger.server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferOp;
+
+@Name("pt.tecnico.distledger.OperationAccepted")
+@Label("Operation Accepted")
+@Category({"DistLedger", "Operations"})
+@Description("Operation accepted from a client by the replica, its origin")
+public class OperationAcceptedEvent extends Event {
+
+    @Label("Origin")
+    String origin;
+
+    @Label("Sequence")
+    int sequence;
+
+    @Label("Type")
+    String type;
+
+    @Label("Account")
+    String account;
+
+    @Label("Destination Account")
+    String destination;
+
+    @Label("Amount")
+    int amount;
+
+    @Label("Waiting")
+    @Description("Whether the operation waits for operations it depends on before it is executed")
+    boolean waiting;
+
+    /**
+     * Records an accepted operation if a recording is running
+     *
+     * @param op the operation
+     * @param waiting whether the operation waits for its dependencies
+     */
+    public static void record(Operation op, boolean waiting) {
+        if (!Trace.isRecording())
+            return;
+        OperationAcceptedEvent event = new OperationAcceptedEvent();
+        if (!event.shouldCommit())
+            return;
+        event.origin = op.getTS().getRegistry().qualifierOf(op.getId().getOrigin());
+        event.sequence = op.getId().getSequence();
+        event.type = typeOf(op);
+        event.account = op.getAccount();
+        if (op instanceof TransferOp) {
+            event.destination = ((TransferOp) op).getDestAccount();
+            event.amount = ((TransferOp) op).getAmount();
+        }
+        event.waiting = waiting;
+        event.commit();
+    }
+
+    /** Name of the type of an operation, as in the commands of the clients */
+    static String typeOf(Operation op) {
+        return op instanceof TransferOp ? "transferTo" : "createAccount";
+    }
+}
@@ -0,0 +1,55 @@
+package pt.tecnico.distledger.server.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+
+@Name("pt.tecnico.distledger.OperationStabilized")
+@Label("Operation Stabilized")
+@Category({"DistLedger", "Operations"})
+@Description("Operation executed by the replica once the operations it depends on were executed")
+public class OperationStabilizedEvent extends Event {
+
+    @Label("Origin")
+    String origin;
+
+    @Label("Sequence")
+    int sequence;
+
+    @Label("Type")
+    String type;
+
+    @Label("Executed")
+    @Description("False if the operation became invalid and did not change the accounts")
+    boolean executed;
+
+    @Label("Lag")
+    @Description("Time since the origin accepted the operation, by the wall clocks of both replicas")
+    @Timespan(Timespan.MILLISECONDS)
+    long lag;
+
+    /**
+     * Records a stabilized operation if a recording is running
+     *
+     * @param op the operation
+     * @param executed whether the operation changed the accounts
+     * @param lagMillis the time since the origin accepted the operation
+     */
+    public static void record(Operation op, boolean executed, long lagMillis) {
+        if (!Trace.isRecording())
+            return;
+        OperationStabilizedEvent event = new OperationStabilizedEvent();
+        if (!event.shouldCommit())
+            return;
+        event.origin = op.getTS().getRegistry().qualifierOf(op.getId().getOrigin());
+        event.sequence = op.getId().getSequence();
+        event.type = OperationAcceptedEvent.typeOf(op);
+        event.executed = executed;
+        event.lag = lagMillis;
+        event.commit();
+    }
+}
@@ -0,0 +1,128 @@
+package pt.tecnico.distledger.server.trace;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Tracing of the replica, shared by all its classes. Debug messages are printed to System.err with the
+ * -Ddebug command line option, and recorded as MessageEvent when a Flight Recorder recording enables it;
+ * the structured events of the package are recorded by any running recording.
+ * Nothing is formatted or allocated while the messages are not printed and no recording is running:
+ * messages are given as a format and its arguments, with overloads for primitive arguments,
+ * and the events are only created while a recording runs.
+ */
+public final class Trace {
+
+    /**
+     * Set flag to true to print debug messages.
+     * The flag can be set using the -Ddebug command line option.
+     */
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+
+    /** Whether a Flight Recorder recording is running, kept by a listener of the recorder */
+    private static volatile boolean recording = false;
+
+    static {
+        if (FlightRecorder.isAvailable()) {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recordingStateChanged(Recording changed) {
+                    updateRecording();
+                }
+            });
+            // recordings started with the JVM, e.g. by -XX:StartFlightRecording, run before the listener
+            if (FlightRecorder.isInitialized())
+                updateRecording();
+        }
+    }
+
+    private Trace() {
+    }
+
+    private static void updateRecording() {
+        recording = FlightRecorder.getFlightRecorder().getRecordings().stream()
+            .anyMatch(running -> running.getState() == RecordingState.RUNNING);
+    }
+
+    /** Whether a recording is running, so the events of the package are worth creating */
+    public static boolean isRecording() {
+        return recording;
+    }
+
+    public static void debug(String message) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, message);
+    }
+
+    public static void debug(String format, Object arg) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg));
+    }
+
+    public static void debug(String format, long arg) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg));
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg1, arg2));
+    }
+
+    public static void debug(String format, Object arg1, long arg2) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg1, arg2));
+    }
+
+    public static void debug(String format, long arg1, Object arg2) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg1, arg2));
+    }
+
+    public static void debug(String format, long arg1, long arg2) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg1, arg2));
+    }
+
+    public static void debug(String format, Object arg1, Object arg2, long arg3) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg1, arg2, arg3));
+    }
+
+    public static void debug(String format, Object arg1, long arg2, long arg3) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg1, arg2, arg3));
+    }
+
+    public static void debug(String format, long arg1, long arg2, long arg3, Object arg4) {
+        MessageEvent event = messageEvent();
+        if (event != null)
+            emit(event, String.format(format, arg1, arg2, arg3, arg4));
+    }
+
+    /** Event of a message, or null if the message is neither printed nor recorded */
+    private static MessageEvent messageEvent() {
+        if (!DEBUG_FLAG && !recording)
+            return null;
+        MessageEvent event = new MessageEvent();
+        return DEBUG_FLAG || event.isEnabled() ? event : null;
+    }
+
+    private static void emit(MessageEvent event, String message) {
+        if (DEBUG_FLAG)
+            System.err.println(message);
+        event.message = message;
+        event.commit();
+    }
+}
@@ -0,0 +1,96 @@
+package pt.tecnico.distledger.server.trace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import pt.tecnico.distledger.server.exceptions.AdminException;
+import static pt.tecnico.distledger.server.exceptions.AdminException.ErrorMessages.*;
+
+/**
+ * Flight Recorder recording of a replica, started and stopped by the admin, at most one at a time.
+ * It records the events of the package, and optionally the JDK events of a configuration and the debug messages.
+ * The recording is kept in memory and written to the data directory of the replica when stopped.
+ * Events are recorded for the whole process, so with several replicas in one process it has the events of all of them.
+ */
+public class TraceRecorder {
+
+    private static final String RECORDING_NAME = "DistLedger %s";
+    private static final String RECORDING_FILE = "recording-%s.jfr";
+
+    private final String qualifier;
+    private final Path directory;
+    private Recording recording = null;
+
+    /**
+     * @param qualifier the qualifier of the replica, in the name of the recording
+     * @param directory the directory the recordings are written to
+     */
+    public TraceRecorder(String qualifier, Path directory) {
+        this.qualifier = qualifier;
+        this.directory = directory;
+    }
+
+    /**
+     * Starts a recording
+     *
+     * @param configuration the name of the JFR configuration of the JDK events also recorded, empty for none
+     * @param messages whether the debug messages are recorded
+     * @throws AdminException if a recording is already running or the configuration does not exist
+     */
+    public synchronized void start(String configuration, boolean messages) throws AdminException {
+        if (!FlightRecorder.isAvailable())
+            throw new AdminException(RECORDING_UNAVAILABLE);
+        if (recording != null)
+            throw new AdminException(RECORDING_ALREADY_STARTED);
+        Recording started;
+        try {
+            started = configuration.isEmpty() ? new Recording() : new Recording(Configuration.getConfiguration(configuration));
+        } catch (IOException | ParseException exception) {
+            throw new AdminException(String.format(INVALID_RECORDING_CONFIGURATION, configuration));
+        }
+        started.setName(String.format(RECORDING_NAME, qualifier));
+        started.enable(OperationAcceptedEvent.class);
+        started.enable(OperationStabilizedEvent.class);
+        started.enable(GossipSentEvent.class);
+        started.enable(GossipReceivedEvent.class);
+        started.enable(BlockedReadEvent.class);
+        if (messages)
+            started.enable(MessageEvent.class);
+        started.start();
+        recording = started;
+    }
+
+    /**
+     * Stops the running recording and writes it to the directory
+     *
+     * @return the file of the recording
+     * @throws AdminException if no recording is running or it could not be written
+     */
+    public synchronized Path stop() throws AdminException {
+        if (recording == null)
+            throw new AdminException(NO_RECORDING);
+        Path file = directory.resolve(String.format(RECORDING_FILE, System.currentTimeMillis()));
+        try {
+            recording.stop();
+            recording.dump(file);
+        } catch (IOException exception) {
+            throw new AdminException(String.format(RECORDING_NOT_WRITTEN, exception.getMessage()));
+        } finally {
+            recording.close();
+            recording = null;
+        }
+        return file;
+    }
+
+    /** Discards the running recording, if any, without writing it */
+    public synchronized void close() {
+        if (recording == null)
+            return;
+        recording.close();
+        recording = null;
+    }
+}
@@ -0,0 +1,78 @@
+package pt.tecnico.distledger.server.wal;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import pt.tecnico.distledger.server.domain.AccountDictionary;
+import pt.tecnico.distledger.server.domain.clock.ReplicaRegistry;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.OperationId;
+import pt.tecnico.distledger.server.domain.operation.TransferOp;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+
+/**
+ * Record of the write-ahead log.
+ * The payload is the operation in the contract format, which names replicas by qualifier, so records
+ * do not depend on the registry indexes of the process that wrote them. Stabilized records only keep
+ * the origin and sequence of the operation.
+ */
+public class LogRecord {
+
+    private final RecordType type;
+    private final byte[] payload;
+
+    public LogRecord(RecordType type, byte[] payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /** Record of an operation accepted by the replica */
+    public static LogRecord accepted(Operation op) {
+        RecordType type = op instanceof TransferOp ? RecordType.TRANSFERRED : RecordType.CREATED;
+        return new LogRecord(type, op.proto().toByteArray());
+    }
+
+    /** Record of an operation executed by the replica */
+    public static LogRecord stabilized(Operation op) {
+        return new LogRecord(RecordType.STABILIZED, DistLedgerCommonDefinitions.Operation
+            .newBuilder()
+            .setOrigin(op.getTS().getRegistry().qualifierOf(op.getId().getOrigin()))
+            .setSequence(op.getId().getSequence())
+            .build()
+            .toByteArray());
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @param registry the registry used to convert the timestamps
+     * @param dictionary the dictionary used to convert the accounts
+     * @return the operation of a CREATED or TRANSFERRED record
+     */
+    public Operation operation(ReplicaRegistry registry, AccountDictionary dictionary) {
+        return Operation.fromProto(parse(), registry, dictionary);
+    }
+
+    /**
+     * @param registry the registry used to convert the origin
+     * @return the id of the operation of a STABILIZED record
+     */
+    public OperationId operationId(ReplicaRegistry registry) {
+        DistLedgerCommonDefinitions.Operation operation = parse();
+        return new OperationId(registry.indexOf(operation.getOrigin()), operation.getSequence());
+    }
+
+    private DistLedgerCommonDefinitions.Operation parse() {
+        try {
+            return DistLedgerCommonDefinitions.Operation.parseFrom(payload);
+        } catch (InvalidProtocolBufferException exception) {
+            // the checksum was already verified, so the record was written wrong
+            throw new IllegalStateException(exception);
+        }
+    }
+}
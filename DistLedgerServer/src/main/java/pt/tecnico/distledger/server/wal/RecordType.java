@@ -0,0 +1,33 @@
+package pt.tecnico.distledger.server.wal;
+
+/** Types of the records of the write-ahead log, stored as one byte */
+public enum RecordType {
+    /** A create account operation was accepted (from a client or by gossip) */
+    CREATED((byte) 1),
+    /** A transfer operation was accepted (from a client or by gossip) */
+    TRANSFERRED((byte) 2),
+    /** An accepted operation was executed, in execution order */
+    STABILIZED((byte) 3);
+
+    private final byte code;
+
+    RecordType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @param code the stored byte
+     * @return the record type, or null if the code is unknown
+     */
+    public static RecordType fromCode(byte code) {
+        for (RecordType type : values()) {
+            if (type.code == code)
+                return type;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,395 @@
+package pt.tecnico.distledger.server.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import static pt.tecnico.distledger.server.trace.Trace.debug;
+
+/**
+ * Append-only log of the operations accepted and executed by a replica, split in segment files.
+ *
+ * Each record is stored as its payload length, a CRC32 of its type and payload, its type and its payload.
+ * Positions in the log (LSN) count the bytes appended since the log was created; each segment is named
+ * after the LSN of its first record.
+ *
+ * Appends only copy the record to a memory buffer. A single flusher thread writes everything appended
+ * since its last round and forces it to disk, so all the writes that arrive during one fsync share the next one
+ * (group commit). Callers that need durability wait on sync(lsn), which completes once the flusher forced
+ * the log up to that position.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** Size after which the flusher starts a new segment */
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /** Record length, checksum and type */
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + 1;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final String LOG_RECOVERED = "Write-ahead log recovered: %s records up to position %s";
+    private static final String SEGMENT_TRUNCATED = "Write-ahead log: discarded the incomplete tail of %s after %s bytes";
+    private static final String SEGMENT_DISCARDED = "Write-ahead log: discarded %s, written after an incomplete record";
+    private static final String SEGMENT_STARTED = "Write-ahead log: started segment %s";
+    private static final String SEGMENT_DELETED = "Write-ahead log: deleted %s, covered by a snapshot";
+    private static final String LOG_BEFORE_SNAPSHOT = "Write-ahead log ends at %s, before the snapshot position %s";
+    private static final String LOG_NOT_RECOVERED = "Write-ahead log must be recovered before appending";
+    private static final String LOG_CLOSED = "Write-ahead log closed";
+
+
+    /** Caller waiting for the log to be durable up to a position */
+    private static class Waiter {
+        private final long lsn;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        private Waiter(long lsn) {
+            this.lsn = lsn;
+        }
+    }
+
+    private final Path directory;
+
+    /** Segment being written and its first LSN, only used by the flusher after recovery */
+    private FileChannel segment;
+    private long segmentStart;
+
+    /** Records appended since the last flush, swapped with flushing at the start of each flush */
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    private final CRC32 checksum = new CRC32();
+
+    /** Position after the last appended record */
+    private long appendedLsn = 0;
+
+    /** Position up to which the log is on disk */
+    private long durableLsn = 0;
+
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(Comparator.comparingLong((Waiter waiter) -> waiter.lsn));
+
+    /** Error that stopped the flusher, after which the log is no longer durable */
+    private IOException failure = null;
+
+    private boolean closed = false;
+
+    private Thread flusher = null;
+
+    /**
+     * @param directory the directory of the segments, created if it does not exist
+     * @throws IOException if the directory can not be created
+     */
+    public WriteAheadLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Replays every complete record in log order and opens the log for appending after the last one.
+     * An incomplete or corrupted record (from a crash in the middle of a write) ends the log:
+     * it is truncated there and later segments are deleted.
+     *
+     * @param consumer receives the records
+     * @return the number of records replayed
+     * @throws IOException if the segments can not be read
+     */
+    public int recover(Consumer<LogRecord> consumer) throws IOException {
+        return recover(0, consumer);
+    }
+
+    /**
+     * Replays the complete records from a position (the end of the records a snapshot covers) and opens the log
+     * for appending after the last one. Segments that end before the position are not read.
+     *
+     * @param fromLsn position of the first record to replay
+     * @param consumer receives the records
+     * @return the number of records replayed
+     * @throws IOException if the segments can not be read, or if the log ends before the position
+     */
+    public int recover(long fromLsn, Consumer<LogRecord> consumer) throws IOException {
+        if (flusher != null)
+            throw new IllegalStateException();
+        List<Path> segments = listSegments();
+        int records = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            if (i + 1 < segments.size() && startOf(segments.get(i + 1)) <= fromLsn)
+                continue;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+                while (content.hasRemaining() && channel.read(content) >= 0);
+                content.flip();
+                records += replaySegment(content, (int) Math.max(0, fromLsn - startOf(path)), consumer);
+                if (content.position() == channel.size())
+                    continue;
+                debug(SEGMENT_TRUNCATED, path.getFileName(), content.position());
+                channel.truncate(content.position());
+                channel.force(true);
+            }
+            for (Path discarded : segments.subList(i + 1, segments.size())) {
+                debug(SEGMENT_DISCARDED, discarded.getFileName());
+                Files.delete(discarded);
+            }
+            segments = segments.subList(0, i + 1);
+            break;
+        }
+
+        if (segments.isEmpty()) {
+            segmentStart = 0;
+            segment = openSegment(0);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            segmentStart = startOf(last);
+            segment = FileChannel.open(last, StandardOpenOption.WRITE);
+            segment.position(segment.size());
+        }
+        appendedLsn = durableLsn = segmentStart + segment.size();
+        if (appendedLsn < fromLsn)
+            throw new IOException(String.format(LOG_BEFORE_SNAPSHOT, appendedLsn, fromLsn));
+        debug(LOG_RECOVERED, records, appendedLsn);
+
+        flusher = new Thread(this::flushLoop, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        return records;
+    }
+
+    /** 
+     * Replays the complete records of a segment that start at or after skipBytes,
+     * leaving the buffer positioned after the last complete record 
+     */
+    private int replaySegment(ByteBuffer content, int skipBytes, Consumer<LogRecord> consumer) {
+        int records = 0;
+        while (content.remaining() >= HEADER_SIZE) {
+            int start = content.position();
+            int length = content.getInt();
+            int expected = content.getInt();
+            byte code = content.get();
+            RecordType type = RecordType.fromCode(code);
+            if (length < 0 || length > content.remaining() || type == null) {
+                content.position(start);
+                break;
+            }
+            byte[] payload = new byte[length];
+            content.get(payload);
+            checksum.reset();
+            checksum.update(code);
+            checksum.update(payload);
+            if ((int) checksum.getValue() != expected) {
+                content.position(start);
+                break;
+            }
+            if (start < skipBytes)
+                continue;
+            consumer.accept(new LogRecord(type, payload));
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Appends a record. The record is only durable once sync of the returned position completes.
+     *
+     * @param record the record to append
+     * @return the position after the record
+     */
+    public synchronized long append(LogRecord record) {
+        if (flusher == null)
+            throw new IllegalStateException(LOG_NOT_RECOVERED);
+        if (failure != null || closed)
+            return appendedLsn;
+        byte[] payload = record.getPayload();
+        int size = HEADER_SIZE + payload.length;
+        if (pending.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        checksum.reset();
+        checksum.update(record.getType().getCode());
+        checksum.update(payload);
+        pending.putInt(payload.length)
+            .putInt((int) checksum.getValue())
+            .put(record.getType().getCode())
+            .put(payload);
+        appendedLsn += size;
+        notifyAll();
+        return appendedLsn;
+    }
+
+    /**
+     * Deletes the segments that only have records before a position, once a snapshot covers them.
+     * The segment being written is never deleted.
+     *
+     * @param lsn position covered by a snapshot
+     * @throws IOException if a segment can not be deleted
+     */
+    public void deleteSegmentsBefore(long lsn) throws IOException {
+        List<Path> segments = listSegments();
+        for (int i = 0; i + 1 < segments.size() && startOf(segments.get(i + 1)) <= lsn; i++) {
+            Files.deleteIfExists(segments.get(i));
+            debug(SEGMENT_DELETED, segments.get(i).getFileName());
+        }
+    }
+
+    /** @return the position after the last appended record */
+    public synchronized long appendedLsn() {
+        return appendedLsn;
+    }
+
+    /**
+     * @param lsn a position returned by append
+     * @return completes once the log is on disk up to the position,
+     *         or exceptionally with an IOException if the log can not be written
+     */
+    public synchronized CompletableFuture<Void> sync(long lsn) {
+        if (lsn <= durableLsn)
+            return CompletableFuture.completedFuture(null);
+        if (failure != null)
+            return CompletableFuture.failedFuture(failure);
+        if (closed)
+            return CompletableFuture.failedFuture(new IOException(LOG_CLOSED));
+        Waiter waiter = new Waiter(lsn);
+        waiters.add(waiter);
+        return waiter.durable;
+    }
+
+    private void flushLoop() {
+        long written = durableLsn;
+        while (true) {
+            long batchEnd;
+            synchronized (this) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.position() == 0)
+                    return;
+                ByteBuffer batch = pending;
+                pending = flushing;
+                flushing = batch;
+                batchEnd = appendedLsn;
+            }
+
+            try {
+                if (written - segmentStart >= SEGMENT_SIZE)
+                    startSegment(written);
+                flushing.flip();
+                while (flushing.hasRemaining())
+                    segment.write(flushing);
+                segment.force(false);
+                flushing.clear();
+                written = batchEnd;
+            } catch (IOException exception) {
+                fail(exception);
+                return;
+            }
+            completeUpTo(batchEnd);
+        }
+    }
+
+    /** Completes the waiters covered by the flushed position, outside the monitor as they resume callers */
+    private void completeUpTo(long lsn) {
+        List<Waiter> durable = new ArrayList<>();
+        synchronized (this) {
+            durableLsn = lsn;
+            while (!waiters.isEmpty() && waiters.peek().lsn <= lsn)
+                durable.add(waiters.poll());
+        }
+        durable.forEach(waiter -> waiter.durable.complete(null));
+    }
+
+    private void fail(IOException exception) {
+        List<Waiter> failed;
+        synchronized (this) {
+            failure = exception;
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        failed.forEach(waiter -> waiter.durable.completeExceptionally(exception));
+    }
+
+    private void startSegment(long start) throws IOException {
+        segment.close();
+        segment = openSegment(start);
+        segmentStart = start;
+        debug(SEGMENT_STARTED, segmentName(start));
+    }
+
+    private FileChannel openSegment(long start) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(segmentName(start)),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // make the new file itself durable, not only its content
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException exception) {
+            // some platforms can not open directories, the file is still written
+        }
+        return channel;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> {
+                    String name = path.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                })
+                .sorted(Comparator.comparingLong(WriteAheadLog::startOf))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static String segmentName(long start) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX);
+    }
+
+    private static long startOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /** Flushes the records already appended and closes the log */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Waiter> abandoned;
+        synchronized (this) {
+            abandoned = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        abandoned.forEach(waiter -> waiter.durable.completeExceptionally(new IOException(LOG_CLOSED)));
+        if (segment != null)
+            segment.close();
+    }
+}
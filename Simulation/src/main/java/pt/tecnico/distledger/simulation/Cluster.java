@@ -0,0 +1,241 @@
+package pt.tecnico.distledger.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessServerBuilder;
+import pt.tecnico.distledger.namingserver.domain.NamingServerState;
+import pt.tecnico.distledger.namingserver.service.NamingServerServiceImpl;
+import pt.tecnico.distledger.server.ReplicaServer;
+import pt.tecnico.distledger.server.service.Channels;
+import pt.tecnico.distledger.server.service.NamingServerDistLedgerService;
+import pt.tecnico.distledger.simulation.exceptions.SimulationException;
+import static pt.tecnico.distledger.simulation.exceptions.SimulationException.ErrorMessages.*;
+
+/**
+ * A naming server and replicas in this process, reaching each other over the in-process transport.
+ * Each replica keeps its log and snapshots in a temporary directory, deleted when the cluster is closed.
+ * Gossip only happens when asked for, in rounds on every replica at once, or periodically.
+ * In-process server names are global to the JVM, so they start with an id of the cluster and several clusters
+ * can run in the same process.
+ */
+public class Cluster implements AutoCloseable {
+
+    private static final String NAMING_SERVER = "naming";
+
+    /** Clusters created in this process, which gives each one its id */
+    private static final AtomicInteger CLUSTERS = new AtomicInteger();
+
+    private static final String REPLICA_STARTED = "Replica %s started";
+    private static final String GOSSIP_FAILED = "Gossip of %s failed: %s";
+
+    /**
+     * Set flag to true to print debug messages.
+     * The flag can be set using the -Ddebug command line option.
+     */
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+
+    /** Helper method to print debug messages. */
+    private static void debug(String debugMessage) {
+        if (DEBUG_FLAG)
+            System.err.println(debugMessage);
+    }
+
+    /** Prefix of the in-process server names of this cluster */
+    private final String namePrefix = "cluster" + CLUSTERS.incrementAndGet() + "-";
+
+    private final Path directory;
+    private final Server namingServer;
+    private final DelayInterceptor delay = new DelayInterceptor();
+
+    /** Replicas by the qualifier, in the order they started */
+    private final Map<String, ReplicaServer> replicas = new LinkedHashMap<>();
+
+    /** Channels of the clients to each replica, by the qualifier */
+    private final Map<String, ManagedChannel> channels = new HashMap<>();
+
+    private final ScheduledExecutorService gossipScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "simulation-gossip");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> periodicGossip = null;
+    private final AtomicLong gossipRounds = new AtomicLong();
+
+    /**
+     * Starts the naming server and the replicas, registering each replica once it is up
+     *
+     * @param size the number of replicas, with qualifiers A, B, ... and R26, R27, ... after Z
+     * @throws SimulationException if a replica can not be started
+     */
+    public Cluster(int size) throws SimulationException {
+        try {
+            this.directory = Files.createTempDirectory("distledger-simulation");
+            this.namingServer = InProcessServerBuilder.forName(namePrefix + NAMING_SERVER)
+                .addService(new NamingServerServiceImpl(new NamingServerState()))
+                .build()
+                .start();
+            for (int i = 0; i < size; i++) {
+                String qualifier = qualifierOf(i);
+                ReplicaServer replica = new ReplicaServer(qualifier, Channels.inProcessAddress(namePrefix + qualifier), 
+                    directory.resolve(qualifier), new NamingServerDistLedgerService(Channels.inProcessAddress(namePrefix + NAMING_SERVER)),
+                    InProcessServerBuilder.forName(namePrefix + qualifier).intercept(delay));
+                replica.register();
+                replicas.put(qualifier, replica);
+                debug(String.format(REPLICA_STARTED, qualifier));
+            }
+        } catch (IOException exception) {
+            close();
+            throw new SimulationException(String.format(CLUSTER_NOT_STARTED, exception.getMessage()));
+        }
+    }
+
+    /** Qualifier of the replica started in the given order: A, B, ... then R26, R27, ... */
+    public static String qualifierOf(int replica) {
+        return replica < 26 ? String.valueOf((char) ('A' + replica)) : "R" + replica;
+    }
+
+    public List<String> getQualifiers() {
+        return new ArrayList<>(replicas.keySet());
+    }
+
+    public ReplicaServer getReplica(String qualifier) throws SimulationException {
+        ReplicaServer replica = replicas.get(qualifier);
+        if (replica == null)
+            throw new SimulationException(String.format(UNKNOWN_REPLICA, qualifier));
+        return replica;
+    }
+
+    /** Channel of the clients to a replica, shared by all of them */
+    public synchronized ManagedChannel channel(String qualifier) throws SimulationException {
+        ReplicaServer replica = getReplica(qualifier);
+        return channels.computeIfAbsent(qualifier, ignored -> Channels.forAddress(replica.getAddress()));
+    }
+
+    public DelayInterceptor getDelay() {
+        return delay;
+    }
+
+    /** Number of gossip rounds run by the cluster, each on every replica */
+    public long getGossipRounds() {
+        return gossipRounds.get();
+    }
+
+    /** Runs a gossip round on every replica at once and waits for all of them */
+    public void gossip() {
+        List<CompletableFuture<?>> rounds = new ArrayList<>();
+        replicas.forEach((qualifier, replica) -> rounds.add(gossipOf(qualifier, replica)));
+        CompletableFuture.allOf(rounds.toArray(new CompletableFuture[0])).join();
+        gossipRounds.incrementAndGet();
+    }
+
+    /** Runs a gossip round on one replica and waits for it */
+    public void gossip(String qualifier) throws SimulationException {
+        gossipOf(qualifier, getReplica(qualifier)).join();
+    }
+
+    /** Round of a replica, which completes normally even if the round fails */
+    private static CompletableFuture<?> gossipOf(String qualifier, ReplicaServer replica) {
+        return replica.getServerState().sendGossip().handle((results, exception) -> {
+            if (exception != null)
+                debug(String.format(GOSSIP_FAILED, qualifier, exception.getMessage()));
+            return results;
+        });
+    }
+
+    /**
+     * Runs gossip rounds on every replica with the given time between the end of a round and the start of the next
+     *
+     * @param intervalMillis the time between rounds, or 0 to stop the periodic rounds
+     */
+    public synchronized void setGossipInterval(long intervalMillis) {
+        if (periodicGossip != null)
+            periodicGossip.cancel(false);
+        periodicGossip = intervalMillis > 0
+            ? gossipScheduler.scheduleWithFixedDelay(this::gossip, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS)
+            : null;
+    }
+
+    private synchronized boolean isGossipPeriodic() {
+        return periodicGossip != null;
+    }
+
+    /**
+     * Waits until every replica executed every operation accepted by any of them, which is when the value and
+     * replica timestamps of all the replicas are the same. Without periodic gossip, rounds are run until then.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return the milliseconds until the replicas converged, or -1 if they did not converge in time
+     */
+    public long awaitConvergence(long timeoutMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!isConverged()) {
+            if (System.nanoTime() >= deadline)
+                return -1;
+            if (isGossipPeriodic())
+                Thread.sleep(1);
+            else
+                gossip();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /** Whether the value and replica timestamps of every replica are the same */
+    public boolean isConverged() {
+        Map<String, Integer> expected = null;
+        for (ReplicaServer replica : replicas.values()) {
+            Map<String, Integer> valueTimeStamps = withoutZeros(replica.getServerState().getValueTimeStamps().toMap());
+            Map<String, Integer> replicaTimeStamps = withoutZeros(replica.getServerState().getReplicaTimeStamps().toMap());
+            if (!valueTimeStamps.equals(replicaTimeStamps))
+                return false;
+            if (expected == null)
+                expected = valueTimeStamps;
+            else if (!expected.equals(valueTimeStamps))
+                return false;
+        }
+        return true;
+    }
+
+    /** Replicas only registered in a clock have a zero entry, which is the same as no entry */
+    private static Map<String, Integer> withoutZeros(Map<String, Integer> timeStamps) {
+        timeStamps.values().removeIf(value -> value == 0);
+        return timeStamps;
+    }
+
+    /** Stops the gossip, the replicas and the naming server, and deletes the directories of the replicas */
+    @Override
+    public void close() {
+        setGossipInterval(0);
+        gossipScheduler.shutdownNow();
+        channels.values().forEach(ManagedChannel::shutdownNow);
+        replicas.values().forEach(ReplicaServer::shutdown);
+        if (namingServer != null)
+            namingServer.shutdownNow();
+        if (directory == null)
+            return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.deleteIfExists(file);
+        } catch (IOException exception) {
+            System.err.println(exception.getMessage());
+        }
+    }
+}
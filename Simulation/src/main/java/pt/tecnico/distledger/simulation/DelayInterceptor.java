@@ -0,0 +1,55 @@
+package pt.tecnico.distledger.simulation;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.DistLedgerCrossServerServiceGrpc;
+
+/**
+ * Delays the calls between replicas, as a network between them would.
+ * A call only starts after the delay, plus a random part up to the jitter, and its messages wait for it;
+ * the wait blocks a thread of the receiving server, so other calls are not delayed by it.
+ * User and admin calls are not delayed.
+ */
+public class DelayInterceptor implements ServerInterceptor {
+
+    private volatile long delayMillis = 0;
+    private volatile long jitterMillis = 0;
+
+    /**
+     * @param delayMillis the delay of every call between replicas
+     * @param jitterMillis the maximum random delay added to it
+     */
+    public void setDelay(long delayMillis, long jitterMillis) {
+        this.delayMillis = delayMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        if (call.getMethodDescriptor().getServiceName().equals(DistLedgerCrossServerServiceGrpc.SERVICE_NAME)) {
+            long jitter = jitterMillis;
+            long delay = delayMillis + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return next.startCall(call, headers);
+    }
+}
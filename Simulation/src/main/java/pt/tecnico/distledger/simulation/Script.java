@@ -0,0 +1,170 @@
+package pt.tecnico.distledger.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.StatusRuntimeException;
+import pt.tecnico.distledger.simulation.exceptions.SimulationException;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc.UserServiceBlockingStub;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.*;
+import static pt.tecnico.distledger.simulation.exceptions.SimulationException.ErrorMessages.*;
+
+/**
+ * Commands run in order on a cluster, one per line; empty lines and lines starting with # are ignored.
+ *
+ * load [sessions] [duration]                   runs a workload, with the defaults of the configuration
+ * converge                                     waits for the replicas to converge and reports the time
+ * gossip [qualifier]                           runs a gossip round on every replica, or on one
+ * gossipInterval millis                        starts periodic gossip rounds, or stops them with 0
+ * delay millis [jitter]                        changes the delay of the calls between replicas
+ * sleep millis
+ * createAccount qualifier name                 requests with the timestamp of the script
+ * transferTo qualifier from to amount
+ * balance qualifier name
+ */
+public class Script {
+
+    private static final String COMMENT = "#";
+
+    private static final String LOAD = "load";
+    private static final String CONVERGE = "converge";
+    private static final String GOSSIP = "gossip";
+    private static final String GOSSIP_INTERVAL = "gossipInterval";
+    private static final String DELAY = "delay";
+    private static final String SLEEP = "sleep";
+    private static final String CREATE_ACCOUNT = "createAccount";
+    private static final String TRANSFER_TO = "transferTo";
+    private static final String BALANCE = "balance";
+
+    /** Script used without a script file: a workload, then the time the replicas take to converge */
+    public static final List<String> DEFAULT = Arrays.asList(LOAD, CONVERGE);
+
+    private static final String CONVERGED = "Converged in %s ms, %s gossip rounds%n";
+    private static final String NOT_CONVERGED = "Not converged after %s s%n";
+    private static final String OK = "OK%n";
+    private static final String VALUE = "OK%n%s%n";
+
+    private final Cluster cluster;
+    private final SimulationConfig config;
+    private final Workload workload;
+
+    /** Timestamp of the requests of the script */
+    private final Map<String, Integer> timeStamps = new HashMap<>();
+
+    public Script(Cluster cluster, SimulationConfig config) {
+        this.cluster = cluster;
+        this.config = config;
+        this.workload = new Workload(cluster, config.getAccounts(), config.getTransferPercent());
+    }
+
+    /** Reads the lines of a script file */
+    public static List<String> read(String path) throws SimulationException {
+        try {
+            return Files.readAllLines(Paths.get(path));
+        } catch (IOException exception) {
+            throw new SimulationException(String.format(SCRIPT_NOT_READ, exception.getMessage()));
+        }
+    }
+
+    /**
+     * Runs the commands, printing the result of each one
+     *
+     * @throws SimulationException with the line of the first command that fails
+     */
+    public void run(List<String> lines) throws SimulationException, InterruptedException {
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith(COMMENT))
+                continue;
+            System.out.println("> " + line);
+            try {
+                System.out.print(command(line.split(" +")));
+            } catch (SimulationException exception) {
+                throw new SimulationException(String.format(SCRIPT_LINE, i + 1, exception.getErrorMessage()));
+            } catch (NumberFormatException exception) {
+                throw new SimulationException(String.format(SCRIPT_LINE, i + 1, INVALID_ARG_FORMAT));
+            } catch (StatusRuntimeException exception) {
+                throw new SimulationException(String.format(SCRIPT_LINE, i + 1, exception.getStatus().getDescription()));
+            }
+        }
+    }
+
+    private String command(String[] split) throws SimulationException, InterruptedException {
+        switch (split[0]) {
+            case LOAD:
+                arguments(split, 0, 2);
+                return workload.run(split.length > 1 ? SimulationConfig.positive(split[1]) : config.getSessions(),
+                    split.length > 2 ? SimulationConfig.positive(split[2]) : config.getDurationSeconds());
+            case CONVERGE:
+                arguments(split, 0, 0);
+                long rounds = cluster.getGossipRounds();
+                long millis = cluster.awaitConvergence(TimeUnit.SECONDS.toMillis(config.getTimeoutSeconds()));
+                return millis < 0 ? String.format(NOT_CONVERGED, config.getTimeoutSeconds())
+                    : String.format(CONVERGED, millis, cluster.getGossipRounds() - rounds);
+            case GOSSIP:
+                arguments(split, 0, 1);
+                if (split.length > 1)
+                    cluster.gossip(split[1]);
+                else
+                    cluster.gossip();
+                return String.format(OK);
+            case GOSSIP_INTERVAL:
+                arguments(split, 1, 1);
+                cluster.setGossipInterval(SimulationConfig.notNegative(split[1]));
+                return String.format(OK);
+            case DELAY:
+                arguments(split, 1, 2);
+                cluster.getDelay().setDelay(SimulationConfig.notNegative(split[1]), split.length > 2 ? SimulationConfig.notNegative(split[2]) : 0);
+                return String.format(OK);
+            case SLEEP:
+                arguments(split, 1, 1);
+                Thread.sleep(SimulationConfig.notNegative(split[1]));
+                return String.format(OK);
+            case CREATE_ACCOUNT:
+            case TRANSFER_TO:
+            case BALANCE:
+                return request(split);
+            default:
+                throw new SimulationException(UNKNOWN_COMMAND);
+        }
+    }
+
+    /** Sends a user request to a replica, with the timestamp of the script */
+    private String request(String[] split) throws SimulationException {
+        arguments(split, split[0].equals(TRANSFER_TO) ? 4 : 2, split[0].equals(TRANSFER_TO) ? 4 : 2);
+        UserServiceBlockingStub stub = UserServiceGrpc.newBlockingStub(cluster.channel(split[1]));
+        try {
+            switch (split[0]) {
+                case CREATE_ACCOUNT:
+                    merge(stub.createAccount(CreateAccountRequest.newBuilder().setUserId(split[2]).putAllPrevTS(timeStamps).build()).getTSMap());
+                    return String.format(OK);
+                case TRANSFER_TO:
+                    merge(stub.transferTo(TransferToRequest.newBuilder().setAccountFrom(split[2]).setAccountTo(split[3])
+                        .setAmount(Integer.parseInt(split[4])).putAllPrevTS(timeStamps).build()).getTSMap());
+                    return String.format(OK);
+                default:
+                    BalanceResponse response = stub.balance(BalanceRequest.newBuilder().setUserId(split[2]).putAllPrevTS(timeStamps).build());
+                    merge(response.getValueTSMap());
+                    return String.format(VALUE, response.getValue());
+            }
+        } catch (StatusRuntimeException exception) {
+            return exception.getStatus().getDescription() + System.lineSeparator();
+        }
+    }
+
+    private void merge(Map<String, Integer> other) {
+        other.forEach((qualifier, value) -> timeStamps.merge(qualifier, value, Math::max));
+    }
+
+    private static void arguments(String[] split, int min, int max) throws SimulationException {
+        if (split.length - 1 < min || split.length - 1 > max)
+            throw new SimulationException(INVALID_NUM_ARGS);
+    }
+}
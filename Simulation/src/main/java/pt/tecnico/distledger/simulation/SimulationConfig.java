@@ -0,0 +1,154 @@
+package pt.tecnico.distledger.simulation;
+
+import java.util.List;
+
+import pt.tecnico.distledger.simulation.exceptions.SimulationException;
+import static pt.tecnico.distledger.simulation.exceptions.SimulationException.ErrorMessages.*;
+
+/**
+ * Options of the simulation, given as option=value:
+ * replicas, gossip (milliseconds between rounds, 0 for rounds only when the script asks for them),
+ * delay and jitter (milliseconds of the calls between replicas), timeout (seconds to converge), script (file),
+ * and the defaults of the load command: sessions, duration (seconds), accounts (per replica) and transfer (percentage).
+ */
+public class SimulationConfig {
+
+    private static final String OPTION_SEPARATOR = "=";
+    private static final String REPLICAS = "replicas";
+    private static final String GOSSIP = "gossip";
+    private static final String DELAY = "delay";
+    private static final String JITTER = "jitter";
+    private static final String TIMEOUT = "timeout";
+    private static final String SCRIPT = "script";
+    private static final String SESSIONS = "sessions";
+    private static final String DURATION = "duration";
+    private static final String ACCOUNTS = "accounts";
+    private static final String TRANSFER = "transfer";
+
+    private int replicas = 5;
+    private int gossipMillis = 0;
+    private int delayMillis = 0;
+    private int jitterMillis = 0;
+    private int timeoutSeconds = 30;
+    private String script = null;
+    private int sessions = 16;
+    private int durationSeconds = 5;
+    private int accounts = 20;
+    private int transferPercent = 50;
+
+    /**
+     * @param options the options, as option=value
+     * @return the configuration, with the default of every option not given
+     * @throws SimulationException if an option is unknown or its value is invalid
+     */
+    public static SimulationConfig parse(List<String> options) throws SimulationException {
+        SimulationConfig config = new SimulationConfig();
+        for (String option : options) {
+            String[] split = option.split(OPTION_SEPARATOR, 2);
+            if (split.length != 2 || split[1].isEmpty())
+                throw new SimulationException(INVALID_OPTION);
+            try {
+                switch (split[0]) {
+                    case REPLICAS:
+                        config.replicas = positive(split[1]);
+                        break;
+                    case GOSSIP:
+                        config.gossipMillis = notNegative(split[1]);
+                        break;
+                    case DELAY:
+                        config.delayMillis = notNegative(split[1]);
+                        break;
+                    case JITTER:
+                        config.jitterMillis = notNegative(split[1]);
+                        break;
+                    case TIMEOUT:
+                        config.timeoutSeconds = positive(split[1]);
+                        break;
+                    case SCRIPT:
+                        config.script = split[1];
+                        break;
+                    case SESSIONS:
+                        config.sessions = positive(split[1]);
+                        break;
+                    case DURATION:
+                        config.durationSeconds = positive(split[1]);
+                        break;
+                    case ACCOUNTS:
+                        config.accounts = positive(split[1]);
+                        break;
+                    case TRANSFER:
+                        config.transferPercent = percentage(split[1]);
+                        break;
+                    default:
+                        throw new SimulationException(INVALID_OPTION);
+                }
+            } catch (NumberFormatException exception) {
+                throw new SimulationException(INVALID_ARG_FORMAT);
+            }
+        }
+        return config;
+    }
+
+    static int positive(String value) {
+        int number = Integer.parseInt(value);
+        if (number <= 0)
+            throw new NumberFormatException(value);
+        return number;
+    }
+
+    static int notNegative(String value) {
+        int number = Integer.parseInt(value);
+        if (number < 0)
+            throw new NumberFormatException(value);
+        return number;
+    }
+
+    static int percentage(String value) {
+        int number = notNegative(value);
+        if (number > 100)
+            throw new NumberFormatException(value);
+        return number;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /** Milliseconds between gossip rounds, 0 if there are no periodic rounds */
+    public int getGossipMillis() {
+        return gossipMillis;
+    }
+
+    public int getDelayMillis() {
+        return delayMillis;
+    }
+
+    public int getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    /** Path of the script, null for the default script */
+    public String getScript() {
+        return script;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    public int getTransferPercent() {
+        return transferPercent;
+    }
+}
@@ -0,0 +1,38 @@
+package pt.tecnico.distledger.simulation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import pt.tecnico.distledger.simulation.exceptions.SimulationException;
+
+public class SimulationMain {
+
+    private static final String CLUSTER_STARTED = "%s replicas started, gossip every %s ms, delay %s ms (jitter %s ms)%n";
+
+    public static void main(String[] args) throws InterruptedException {
+
+        System.out.println(SimulationMain.class.getSimpleName());
+
+        /** Example: args="replicas=10 gossip=100 delay=5 script=convergence.txt" */
+        SimulationConfig config;
+        List<String> script;
+        try {
+            config = SimulationConfig.parse(Arrays.asList(args));
+            script = config.getScript() != null ? Script.read(config.getScript()) : Script.DEFAULT;
+        } catch (SimulationException exception) {
+            System.err.println(exception.getErrorMessage());
+            System.err.printf("Usage: java %s [replicas=n] [gossip=millis] [delay=millis] [jitter=millis] [timeout=seconds] "
+                + "[script=file] [sessions=n] [duration=seconds] [accounts=n] [transfer=percentage]%n", SimulationMain.class.getName());
+            return;
+        }
+
+        try (Cluster cluster = new Cluster(config.getReplicas())) {
+            cluster.getDelay().setDelay(config.getDelayMillis(), config.getJitterMillis());
+            cluster.setGossipInterval(config.getGossipMillis());
+            System.out.printf(CLUSTER_STARTED, config.getReplicas(), config.getGossipMillis(), config.getDelayMillis(), config.getJitterMillis());
+            new Script(cluster, config).run(script);
+        } catch (SimulationException exception) {
+            System.err.println(exception.getErrorMessage());
+        }
+    }
+}
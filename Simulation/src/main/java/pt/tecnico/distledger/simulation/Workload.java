@@ -0,0 +1,166 @@
+package pt.tecnico.distledger.simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import pt.tecnico.distledger.simulation.exceptions.SimulationException;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc.UserServiceBlockingStub;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.*;
+
+/**
+ * Sessions sending transfers and balance reads to the replicas of a cluster for a fixed time.
+ * Sessions are spread over the replicas and each one stays on its replica, sending one request at a time with its
+ * timestamp, like a user. Before the sessions start, every replica gets its own accounts, created and funded by the
+ * broker, so the requests of a session never wait for gossip; the operations are left for the replicas to exchange.
+ * The accounts are only set up by the first run, and the next runs use them again, since the brokers have no
+ * balance left to fund new ones.
+ */
+public class Workload {
+
+    private static final String BROKER = "broker";
+    private static final String ACCOUNT_PREFIX = "load-";
+    private static final String REPORT = "%s sessions on %s replicas for %s s: %s requests (%s transfers, %s balances), "
+        + "%s rejected, %.1f requests/s%n";
+
+    private final Cluster cluster;
+    private final int accounts;
+    private final int transferPercent;
+
+    /** Stubs, accounts and timestamp after the setup of each replica, by the qualifier; empty before the first run */
+    private final Map<String, UserServiceBlockingStub> stubs = new HashMap<>();
+    private final Map<String, List<String>> replicaAccounts = new HashMap<>();
+    private final Map<String, Map<String, Integer>> timeStamps = new HashMap<>();
+
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong balances = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param cluster the cluster receiving the requests
+     * @param accounts the number of accounts of each replica
+     * @param transferPercent the percentage of the requests that are transfers, the others are balance reads
+     */
+    public Workload(Cluster cluster, int accounts, int transferPercent) {
+        this.cluster = cluster;
+        this.accounts = accounts;
+        this.transferPercent = transferPercent;
+    }
+
+    /**
+     * Sets up the accounts, if it is the first run, and runs the sessions until the end of the duration
+     *
+     * @param sessions the number of sessions, each with its own thread
+     * @param durationSeconds the time the sessions send requests
+     * @return the report of the requests and throughput
+     */
+    public String run(int sessions, int durationSeconds) throws SimulationException, InterruptedException {
+        List<String> qualifiers = cluster.getQualifiers();
+        if (stubs.isEmpty())
+            setUp(qualifiers);
+        transfers.set(0);
+        balances.set(0);
+        rejected.set(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(sessions);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                String qualifier = qualifiers.get(i % qualifiers.size());
+                UserServiceBlockingStub stub = stubs.get(qualifier);
+                List<String> names = replicaAccounts.get(qualifier);
+                Map<String, Integer> sessionTimeStamps = new HashMap<>(timeStamps.get(qualifier));
+                running.add(executor.submit(() -> session(stub, names, sessionTimeStamps, end)));
+            }
+            for (Future<?> session : running)
+                session.get();
+        } catch (ExecutionException exception) {
+            throw new IllegalStateException(exception.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long requests = transfers.get() + balances.get();
+        return String.format(REPORT, sessions, qualifiers.size(), durationSeconds, requests, transfers.get(), balances.get(),
+            rejected.get(), requests / seconds);
+    }
+
+    /**
+     * Creates the accounts of every replica and funds them with an equal share of the balance of the broker.
+     * The broker is the same account in every replica, so its balance is read once and split among all the accounts.
+     */
+    private void setUp(List<String> qualifiers) throws SimulationException {
+        for (String qualifier : qualifiers)
+            stubs.put(qualifier, UserServiceGrpc.newBlockingStub(cluster.channel(qualifier)));
+        int amount = stubs.get(qualifiers.get(0)).balance(BalanceRequest.newBuilder().setUserId(BROKER).build()).getValue()
+            / (accounts * qualifiers.size());
+        for (String qualifier : qualifiers) {
+            Map<String, Integer> replicaTimeStamps = new HashMap<>();
+            replicaAccounts.put(qualifier, setUpAccounts(stubs.get(qualifier), ACCOUNT_PREFIX + qualifier + "-", amount, replicaTimeStamps));
+            timeStamps.put(qualifier, replicaTimeStamps);
+        }
+    }
+
+    /** Creates the accounts of a replica and transfers the amount from the broker to each one */
+    private List<String> setUpAccounts(UserServiceBlockingStub stub, String prefix, int amount, Map<String, Integer> timeStamps) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < accounts; i++)
+            names.add(prefix + i);
+        CreateAccountBatchResponse created = stub.createAccountBatch(
+            CreateAccountBatchRequest.newBuilder().addAllUserIds(names).putAllPrevTS(timeStamps).build());
+        merge(timeStamps, created.getTSMap());
+        if (amount == 0)
+            return names;
+        TransferBatchRequest.Builder funding = TransferBatchRequest.newBuilder().putAllPrevTS(timeStamps);
+        for (String name : names)
+            funding.addTransfers(TransferItem.newBuilder().setAccountFrom(BROKER).setAccountTo(name).setAmount(amount));
+        merge(timeStamps, stub.transferBatch(funding.build()).getTSMap());
+        return names;
+    }
+
+    /** Sends requests to one replica until the end time, each one after the answer to the previous */
+    private void session(UserServiceBlockingStub stub, List<String> names, Map<String, Integer> timeStamps, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            try {
+                if (names.size() > 1 && random.nextInt(100) < transferPercent) {
+                    int from = random.nextInt(names.size());
+                    // any other account, so a transfer is never to itself
+                    int to = (from + 1 + random.nextInt(names.size() - 1)) % names.size();
+                    TransferToResponse response = stub.transferTo(TransferToRequest.newBuilder().setAccountFrom(names.get(from))
+                        .setAccountTo(names.get(to)).setAmount(1).putAllPrevTS(timeStamps).build());
+                    merge(timeStamps, response.getTSMap());
+                    transfers.incrementAndGet();
+                } else {
+                    BalanceResponse response = stub.balance(BalanceRequest.newBuilder()
+                        .setUserId(names.get(random.nextInt(names.size()))).putAllPrevTS(timeStamps).build());
+                    merge(timeStamps, response.getValueTSMap());
+                    balances.incrementAndGet();
+                }
+            } catch (StatusRuntimeException exception) {
+                if (exception.getStatus().getCode() == Status.Code.UNAVAILABLE || exception.getStatus().getCode() == Status.Code.CANCELLED)
+                    return;
+                // the replica answered, e.g. a transfer from an account without balance
+                rejected.incrementAndGet();
+            }
+        }
+    }
+
+    private static void merge(Map<String, Integer> timeStamps, Map<String, Integer> other) {
+        other.forEach((qualifier, value) -> timeStamps.merge(qualifier, value, Math::max));
+    }
+}
@@ -0,0 +1,28 @@
+package pt.tecnico.distledger.simulation.exceptions;
+
+public class SimulationException extends Exception {
+
+    public final class ErrorMessages {
+
+        private ErrorMessages() {}
+
+        public static final String INVALID_OPTION = "Error: Invalid option, expected option=value";
+        public static final String INVALID_ARG_FORMAT = "Error: Invalid argument type";
+        public static final String INVALID_NUM_ARGS = "Error: Wrong number of arguments for command";
+        public static final String UNKNOWN_COMMAND = "Error: Unknown command";
+        public static final String UNKNOWN_REPLICA = "Error: Unknown replica %s";
+        public static final String SCRIPT_NOT_READ = "Error: Couldn't read the script: %s";
+        public static final String CLUSTER_NOT_STARTED = "Error: Couldn't start the cluster: %s";
+        public static final String SCRIPT_LINE = "Line %s: %s";
+    }
+
+    private final String errorMessage;
+
+    public SimulationException(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -4,10 +4,16 @@ import pt.tecnico.distledger.userclient.exceptions.UserException;
 import pt.tecnico.distledger.userclient.service.UserNamingServerService;
 import pt.tecnico.distledger.userclient.service.UserService;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.Server;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BatchItemResult;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountBatchResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferBatchResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferItem;
 import static pt.tecnico.distledger.userclient.exceptions.UserException.ErrorMessages.*;
 
 import io.grpc.Status;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +26,8 @@ public class CommandParser {
     private static final String CREATE_ACCOUNT = "createAccount";
     private static final String TRANSFER_TO = "transferTo";
     private static final String BALANCE = "balance";
+    private static final String CREATE_ACCOUNT_BATCH = "createAccountBatch";
+    private static final String TRANSFER_BATCH = "transferBatch";
     private static final String HELP = "help";
     private static final String EXIT = "exit";
 
@@ -64,6 +72,14 @@ public class CommandParser {
                         this.balance(line);
                         break;
 
+                    case CREATE_ACCOUNT_BATCH:
+                        this.createAccountBatch(line);
+                        break;
+
+                    case TRANSFER_BATCH:
+                        this.transferBatch(line);
+                        break;
+
                     case HELP:
                         this.printUsage();
                         break;
@@ -179,10 +195,90 @@ public class CommandParser {
             throw new UserException(INVALID_ARG_FORMAT);
         }
 
-        timeStamps.put(server, userService.transferTo(from, dest, amount).get(server));
+        timeStamps.put(server, userService.transferTo(from, dest, amount, timeStamps).get(server));
         System.out.println(Status.OK.getCode());
     }
 
+    /**
+     * Creates many user accounts on the specified server with a single request, by parsing the input line
+     * 
+     * @param line the input line containing the server and the usernames of the accounts to be created
+     * @throws UserException if the number of arguments is not correct or if the whole batch failed
+     */
+    private void createAccountBatch(String line) throws UserException {
+        String[] split = line.split(SPACE);
+
+        if (split.length < 3) {
+            this.printUsage();
+            throw new UserException(INVALID_NUM_ARGS);
+        }
+        String server = split[1];
+        UserService userService = lookupService(server);
+        List<String> usernames = Arrays.asList(split).subList(2, split.length);
+
+        CreateAccountBatchResponse response = userService.createAccountBatch(usernames, timeStamps);
+        timeStamps.put(server, response.getTSMap().getOrDefault(server, timeStamps.getOrDefault(server, 0)));
+        System.out.println(Status.OK.getCode());
+        printBatchResults(response.getResultsList());
+    }
+
+    /**
+     * Executes many transfers on the specified server with a single request, by parsing the input line
+     * 
+     * @param line the input line containing the server and, for each transfer, the username of the sender, 
+     *             the username of the receiver and the amount to be transferred
+     * @throws UserException if the number of arguments is not correct or if the whole batch failed
+     */
+    private void transferBatch(String line) throws UserException {
+        String[] split = line.split(SPACE);
+
+        if (split.length < 5 || (split.length - 2) % 3 != 0) {
+            this.printUsage();
+            throw new UserException(INVALID_NUM_ARGS);
+        }
+        String server = split[1];
+        UserService userService = lookupService(server);
+        List<TransferItem> transfers = new ArrayList<>();
+        for (int i = 2; i < split.length; i += 3) {
+            try {
+                transfers.add(TransferItem.newBuilder().setAccountFrom(split[i]).setAccountTo(split[i + 1])
+                    .setAmount(Integer.parseInt(split[i + 2])).build());
+            } catch (NumberFormatException e) {
+                throw new UserException(INVALID_ARG_FORMAT);
+            }
+        }
+
+        TransferBatchResponse response = userService.transferBatch(transfers, timeStamps);
+        timeStamps.put(server, response.getTSMap().getOrDefault(server, timeStamps.getOrDefault(server, 0)));
+        System.out.println(Status.OK.getCode());
+        printBatchResults(response.getResultsList());
+    }
+
+    /** Prints the result of each operation of a batch, one per line */
+    private static void printBatchResults(List<BatchItemResult> results) {
+        for (int i = 0; i < results.size(); i++)
+            System.out.println((i + 1) + ": " + (results.get(i).getAccepted() ? Status.OK.getCode() : results.get(i).getError()));
+    }
+
+    /**
+     * Returns the user service of the given server, looking it up in the naming server the first time
+     * 
+     * @param server the server qualifier
+     * @return the user service
+     * @throws UserException if the server is not found
+     */
+    private UserService lookupService(String server) throws UserException {
+        UserService userService = userServices.get(server);
+        if (userService == null) {
+            List<Server> serverList = namingServerService.lookup(SERVICE_NAME, server);
+            if (serverList.size() == 0)
+                throw new UserException(SERVER_NOT_FOUND);
+            userService = new UserService(serverList.get(0).getQualifier(), serverList.get(0).getAddress());
+            userServices.put(server, userService);
+        }
+        return userService;
+    }
+
     /**
      * Prints the usage of the user commands
      */
@@ -191,6 +287,8 @@ public class CommandParser {
                         "- createAccount <server> <username>\n" +
                         "- balance <server> <username>\n" +
                         "- transferTo <server> <username_from> <username_to> <amount>\n" +
+                        "- createAccountBatch <server> <username> [<username> ...]\n" +
+                        "- transferBatch <server> <username_from> <username_to> <amount> [<username_from> <username_to> <amount> ...]\n" +
                         "- exit");
     }
 }
@@ -1,10 +1,16 @@
 package pt.tecnico.distledger.userclient;
 
+import java.util.Arrays;
+
+import pt.tecnico.distledger.userclient.exceptions.UserException;
+import pt.tecnico.distledger.userclient.load.LoadConfig;
+import pt.tecnico.distledger.userclient.load.LoadGenerator;
 import pt.tecnico.distledger.userclient.service.UserNamingServerService;
 
 public class UserClientMain {
     private final static String LOCALHOST = "localhost";
     private final static int PORT = 5001;
+    private final static String LOAD = "load";
 
     public static void main(String[] args) {
 
@@ -12,6 +18,20 @@ public class UserClientMain {
 
         final String address = LOCALHOST + ":" + PORT;
 
+        /** Load generator mode, e.g. args="load sessions=64 duration=30" */
+        if (args.length > 0 && args[0].equals(LOAD)) {
+            UserNamingServerService namingServerService = new UserNamingServerService(address);
+            try {
+                LoadConfig config = LoadConfig.parse(Arrays.asList(args).subList(1, args.length));
+                System.out.print(new LoadGenerator(namingServerService, config).run());
+            } catch (UserException exception) {
+                System.err.println(exception.getErrorMessage());
+            } finally {
+                namingServerService.shutdown();
+            }
+            return;
+        }
+
         CommandParser parser = new CommandParser(new UserNamingServerService(address));
         
         /** Input handling and service's methods calls*/
@@ -11,6 +11,8 @@ public class UserException extends Exception {
         public static final String UNKNOWN_COMMAND = "Error: Unknown command";
         public static final String INVALID_ARG_FORMAT = "Error: Invalid argument type";
         public static final String SERVER_NOT_FOUND = "Error: Server not found";
+        public static final String INVALID_OPTION = "Error: Invalid option, expected option=value";
+        public static final String NO_SERVERS = "Error: No servers to send the load to";
     }
     private final String errorMessage;
 
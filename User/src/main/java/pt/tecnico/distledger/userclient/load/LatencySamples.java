@@ -0,0 +1,80 @@
+package pt.tecnico.distledger.userclient.load;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the requests of one operation type, kept in a primitive array so percentiles are exact.
+ * Not thread safe: each session records its own samples, which are merged after the load stops.
+ */
+public class LatencySamples {
+
+    private long[] nanos = new long[1024];
+    private int size = 0;
+    private long rejected = 0;
+    private long failed = 0;
+
+    public void record(long latency) {
+        if (size == nanos.length)
+            nanos = Arrays.copyOf(nanos, size * 2);
+        nanos[size++] = latency;
+    }
+
+    /** Counts a request answered with an error, e.g. a transfer without balance */
+    public void reject() {
+        rejected++;
+    }
+
+    /** Counts a request that got no answer from the server */
+    public void fail() {
+        failed++;
+    }
+
+    /** Adds the samples and counters of another instance to this one */
+    public void addAll(LatencySamples other) {
+        if (size + other.size > nanos.length)
+            nanos = Arrays.copyOf(nanos, Math.max(nanos.length * 2, size + other.size));
+        System.arraycopy(other.nanos, 0, nanos, size, other.size);
+        size += other.size;
+        rejected += other.rejected;
+        failed += other.failed;
+    }
+
+    /** Number of requests answered, successful or rejected */
+    public int getCount() {
+        return size;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public double getMeanMicros() {
+        if (size == 0)
+            return 0;
+        long sum = 0;
+        for (int i = 0; i < size; i++)
+            sum += nanos[i];
+        return sum / 1000.0 / size;
+    }
+
+    /**
+     * @param percentiles the percentiles, between 0 and 100
+     * @return the latency of each percentile in microseconds, sorting the samples once
+     */
+    public long[] getPercentilesMicros(double... percentiles) {
+        long[] values = new long[percentiles.length];
+        if (size == 0)
+            return values;
+        long[] sorted = Arrays.copyOf(nanos, size);
+        Arrays.sort(sorted);
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(size * percentiles[i] / 100);
+            values[i] = sorted[Math.min(size - 1, Math.max(0, rank - 1))] / 1000;
+        }
+        return values;
+    }
+}
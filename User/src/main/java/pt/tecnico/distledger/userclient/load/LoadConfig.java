@@ -0,0 +1,125 @@
+package pt.tecnico.distledger.userclient.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pt.tecnico.distledger.userclient.exceptions.UserException;
+import static pt.tecnico.distledger.userclient.exceptions.UserException.ErrorMessages.*;
+
+/**
+ * Options of the load generator, given as option=value:
+ * sessions, duration (seconds), accounts (per server), servers (qualifiers separated by commas, every
+ * server by default) and the weights of the operation mix: create, transfer and balance.
+ */
+public class LoadConfig {
+
+    private static final String OPTION_SEPARATOR = "=";
+    private static final String SESSIONS = "sessions";
+    private static final String DURATION = "duration";
+    private static final String ACCOUNTS = "accounts";
+    private static final String SERVERS = "servers";
+    private static final String CREATE = "create";
+    private static final String TRANSFER = "transfer";
+    private static final String BALANCE = "balance";
+
+    private int sessions = 16;
+    private int durationSeconds = 10;
+    private int accounts = 100;
+    private List<String> servers = new ArrayList<>();
+    private int createWeight = 10;
+    private int transferWeight = 45;
+    private int balanceWeight = 45;
+
+    /**
+     * @param options the options, as option=value
+     * @return the configuration, with the default of every option not given
+     * @throws UserException if an option is unknown or its value is invalid
+     */
+    public static LoadConfig parse(List<String> options) throws UserException {
+        LoadConfig config = new LoadConfig();
+        for (String option : options) {
+            String[] split = option.split(OPTION_SEPARATOR, 2);
+            if (split.length != 2 || split[1].isEmpty())
+                throw new UserException(INVALID_OPTION);
+            try {
+                switch (split[0]) {
+                    case SESSIONS:
+                        config.sessions = positive(split[1]);
+                        break;
+                    case DURATION:
+                        config.durationSeconds = positive(split[1]);
+                        break;
+                    case ACCOUNTS:
+                        config.accounts = positive(split[1]);
+                        break;
+                    case SERVERS:
+                        config.servers = Arrays.asList(split[1].split(","));
+                        break;
+                    case CREATE:
+                        config.createWeight = notNegative(split[1]);
+                        break;
+                    case TRANSFER:
+                        config.transferWeight = notNegative(split[1]);
+                        break;
+                    case BALANCE:
+                        config.balanceWeight = notNegative(split[1]);
+                        break;
+                    default:
+                        throw new UserException(INVALID_OPTION);
+                }
+            } catch (NumberFormatException exception) {
+                throw new UserException(INVALID_ARG_FORMAT);
+            }
+        }
+        if (config.createWeight + config.transferWeight + config.balanceWeight == 0)
+            throw new UserException(INVALID_OPTION);
+        // a transfer needs two accounts of the same server
+        if (config.transferWeight > 0 && config.accounts < 2)
+            throw new UserException(INVALID_OPTION);
+        return config;
+    }
+
+    private static int positive(String value) {
+        int number = Integer.parseInt(value);
+        if (number <= 0)
+            throw new NumberFormatException(value);
+        return number;
+    }
+
+    private static int notNegative(String value) {
+        int number = Integer.parseInt(value);
+        if (number < 0)
+            throw new NumberFormatException(value);
+        return number;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /** Qualifiers of the servers, empty for every server in the naming server */
+    public List<String> getServers() {
+        return servers;
+    }
+
+    public int getCreateWeight() {
+        return createWeight;
+    }
+
+    public int getTransferWeight() {
+        return transferWeight;
+    }
+
+    public int getBalanceWeight() {
+        return balanceWeight;
+    }
+}
@@ -0,0 +1,172 @@
+package pt.tecnico.distledger.userclient.load;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import pt.tecnico.distledger.userclient.exceptions.UserException;
+import pt.tecnico.distledger.userclient.service.UserNamingServerService;
+import pt.tecnico.distledger.userclient.service.UserService;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.Server;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountBatchResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferBatchResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferItem;
+import static pt.tecnico.distledger.userclient.exceptions.UserException.ErrorMessages.*;
+
+/**
+ * Load generator of the user client: many sessions send a mix of createAccount, transferTo and balance
+ * requests to the servers for a fixed time, and the throughput and latency of each operation are reported.
+ *
+ * Before the load starts, every server gets its own accounts, created and funded by the broker with
+ * batch requests, so the sessions of a server only use accounts the server already has. The broker is
+ * the same account in every server, so its balance is read once and split among the accounts of all of them. Account names
+ * start with a prefix unique to the run, so the load can run again against the same servers.
+ */
+public class LoadGenerator {
+
+    private static final String SERVICE_NAME = "DistLedger";
+    private static final String BROKER = "broker";
+    private static final int SETUP_BATCH_SIZE = 1000;
+
+    private static final String SETUP = "Creating %s accounts on %s";
+    private static final String LOAD = "Running %s sessions on %s for %s s";
+    private static final String SUMMARY = "%s requests in %.1f s, %.1f requests/s%n";
+    private static final String HEADER = "%-14s %10s %9s %7s %10s %10s %9s %9s %9s %9s%n";
+    private static final String ROW = "%-14s %10d %9d %7d %10.1f %10.1f %9d %9d %9d %9d%n";
+
+    private final UserNamingServerService namingServerService;
+    private final LoadConfig config;
+    private final String runPrefix = "load" + Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    public LoadGenerator(UserNamingServerService namingServerService, LoadConfig config) {
+        this.namingServerService = namingServerService;
+        this.config = config;
+    }
+
+    /**
+     * Sets up the accounts, runs the load and waits for the last request
+     *
+     * @return the report of the run
+     * @throws UserException if the servers can not be found or the setup fails
+     */
+    public String run() throws UserException {
+        List<UserService> services = lookupServices();
+        try {
+            Map<String, List<String>> accounts = new HashMap<>();
+            Map<String, Map<String, Integer>> timeStamps = new HashMap<>();
+            int amount = services.get(0).balance(BROKER, new HashMap<>()) / (config.getAccounts() * services.size());
+            for (UserService service : services) {
+                System.out.println(String.format(SETUP, config.getAccounts(), service.getQualifier()));
+                Map<String, Integer> serviceTimeStamps = new HashMap<>();
+                accounts.put(service.getQualifier(), setUpAccounts(service, amount, serviceTimeStamps));
+                timeStamps.put(service.getQualifier(), serviceTimeStamps);
+            }
+
+            System.out.println(String.format(LOAD, config.getSessions(), qualifiers(services), config.getDurationSeconds()));
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+            List<LoadSession> sessions = new ArrayList<>();
+            List<CompletableFuture<Void>> running = new ArrayList<>();
+            for (int i = 0; i < config.getSessions(); i++) {
+                UserService service = services.get(i % services.size());
+                String qualifier = service.getQualifier();
+                LoadSession session = new LoadSession(service, accounts.get(qualifier),
+                    runPrefix + "-" + qualifier + "-s" + i + "-", timeStamps.get(qualifier), config, end);
+                sessions.add(session);
+                running.add(session.start());
+            }
+            CompletableFuture.allOf(running.toArray(new CompletableFuture[0])).join();
+            return report(sessions, System.nanoTime() - start);
+        } finally {
+            services.forEach(UserService::shutdown);
+        }
+    }
+
+    private List<UserService> lookupServices() throws UserException {
+        List<Server> servers = new ArrayList<>();
+        if (config.getServers().isEmpty())
+            servers.addAll(namingServerService.lookup(SERVICE_NAME, ""));
+        for (String qualifier : config.getServers()) {
+            List<Server> found = namingServerService.lookup(SERVICE_NAME, qualifier);
+            if (found.isEmpty())
+                throw new UserException(SERVER_NOT_FOUND);
+            servers.add(found.get(0));
+        }
+        if (servers.isEmpty())
+            throw new UserException(NO_SERVERS);
+        List<UserService> services = new ArrayList<>();
+        for (Server server : servers)
+            services.add(new UserService(server.getQualifier(), server.getAddress()));
+        return services;
+    }
+
+    /**
+     * Creates the accounts of a server and transfers the amount from the broker to each one
+     *
+     * @param service the service of the server
+     * @param amount the amount each account gets
+     * @param timeStamps the timestamp of the setup, updated with every response
+     * @return the names of the accounts
+     */
+    private List<String> setUpAccounts(UserService service, int amount, Map<String, Integer> timeStamps) throws UserException {
+        List<String> accounts = new ArrayList<>();
+        for (int i = 0; i < config.getAccounts(); i++)
+            accounts.add(runPrefix + "-" + service.getQualifier() + "-" + i);
+        for (int i = 0; i < accounts.size(); i += SETUP_BATCH_SIZE) {
+            CreateAccountBatchResponse response = service.createAccountBatch(
+                accounts.subList(i, Math.min(accounts.size(), i + SETUP_BATCH_SIZE)), timeStamps);
+            response.getTSMap().forEach((qualifier, value) -> timeStamps.merge(qualifier, value, Math::max));
+        }
+
+        if (amount == 0)
+            return accounts;
+        for (int i = 0; i < accounts.size(); i += SETUP_BATCH_SIZE) {
+            List<TransferItem> transfers = new ArrayList<>();
+            for (String account : accounts.subList(i, Math.min(accounts.size(), i + SETUP_BATCH_SIZE)))
+                transfers.add(TransferItem.newBuilder().setAccountFrom(BROKER).setAccountTo(account).setAmount(amount).build());
+            TransferBatchResponse response = service.transferBatch(transfers, timeStamps);
+            response.getTSMap().forEach((qualifier, value) -> timeStamps.merge(qualifier, value, Math::max));
+        }
+        return accounts;
+    }
+
+    private static String qualifiers(List<UserService> services) {
+        List<String> qualifiers = new ArrayList<>();
+        services.forEach(service -> qualifiers.add(service.getQualifier()));
+        return String.join(",", qualifiers);
+    }
+
+    /** Table with the requests, errors, throughput and latency percentiles of each operation and of all of them */
+    private static String report(List<LoadSession> sessions, long elapsedNanos) {
+        Map<LoadOperation, LatencySamples> merged = new EnumMap<>(LoadOperation.class);
+        LatencySamples total = new LatencySamples();
+        for (LoadOperation operation : LoadOperation.values())
+            merged.put(operation, new LatencySamples());
+        for (LoadSession session : sessions) {
+            session.getSamples().forEach((operation, samples) -> {
+                merged.get(operation).addAll(samples);
+                total.addAll(samples);
+            });
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder report = new StringBuilder(String.format(SUMMARY, total.getCount() + total.getFailed(), seconds,
+            (total.getCount() + total.getFailed()) / seconds));
+        report.append(String.format(HEADER, "operation", "count", "rejected", "failed", "ops/s", "mean(us)",
+            "p50(us)", "p90(us)", "p99(us)", "max(us)"));
+        for (Map.Entry<LoadOperation, LatencySamples> entry : merged.entrySet())
+            appendRow(report, entry.getKey().getCommand(), entry.getValue(), seconds);
+        appendRow(report, "total", total, seconds);
+        return report.toString();
+    }
+
+    private static void appendRow(StringBuilder report, String name, LatencySamples samples, double seconds) {
+        long[] percentiles = samples.getPercentilesMicros(50, 90, 99, 100);
+        report.append(String.format(ROW, name, samples.getCount(), samples.getRejected(), samples.getFailed(),
+            samples.getCount() / seconds, samples.getMeanMicros(), percentiles[0], percentiles[1], percentiles[2], percentiles[3]));
+    }
+}
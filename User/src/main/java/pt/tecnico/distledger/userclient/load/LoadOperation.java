@@ -0,0 +1,19 @@
+package pt.tecnico.distledger.userclient.load;
+
+/** Operations of the load generator mix */
+public enum LoadOperation {
+    CREATE_ACCOUNT("createAccount"),
+    TRANSFER_TO("transferTo"),
+    BALANCE("balance");
+
+    private final String command;
+
+    LoadOperation(String command) {
+        this.command = command;
+    }
+
+    /** Name of the operation, as the command of the user client */
+    public String getCommand() {
+        return command;
+    }
+}
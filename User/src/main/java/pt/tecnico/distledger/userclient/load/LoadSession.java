@@ -0,0 +1,133 @@
+package pt.tecnico.distledger.userclient.load;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import pt.tecnico.distledger.userclient.exceptions.UserException;
+import pt.tecnico.distledger.userclient.service.UserService;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToResponse;
+import static pt.tecnico.distledger.userclient.exceptions.UserException.ErrorMessages.*;
+
+/**
+ * Client of the load generator, with one request in flight at a time on a single server.
+ * Like a user, the session sends its timestamp with every request and merges the timestamp of every response,
+ * so its requests are causally ordered. The next request is sent from the callback of the previous one,
+ * so sessions do not need threads of their own.
+ * Staying on one server keeps reads from waiting for a gossip round, since the server already covers
+ * the timestamp of the session.
+ */
+public class LoadSession {
+
+    private final UserService service;
+    private final List<String> accounts;
+    private final String newAccountPrefix;
+    private final LoadConfig config;
+    private final long endNanos;
+
+    /** Map to save the timestamp of the session by the qualifier */
+    private final Map<String, Integer> timeStamps;
+
+    private final Map<LoadOperation, LatencySamples> samples = new EnumMap<>(LoadOperation.class);
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private int createdAccounts = 0;
+
+    /**
+     * @param service the service of the server of the session
+     * @param accounts the accounts of the server used by transfers and reads
+     * @param newAccountPrefix the prefix of the accounts created by the session, unique to it
+     * @param timeStamps the initial timestamp, copied by the session
+     * @param config the operation mix
+     * @param endNanos the System.nanoTime after which no request is sent
+     */
+    public LoadSession(UserService service, List<String> accounts, String newAccountPrefix, Map<String, Integer> timeStamps,
+            LoadConfig config, long endNanos) {
+        this.service = service;
+        this.accounts = accounts;
+        this.newAccountPrefix = newAccountPrefix;
+        this.timeStamps = new HashMap<>(timeStamps);
+        this.config = config;
+        this.endNanos = endNanos;
+        for (LoadOperation operation : LoadOperation.values())
+            samples.put(operation, new LatencySamples());
+    }
+
+    /**
+     * Sends requests until the end time
+     *
+     * @return completes once the last request is answered
+     */
+    public CompletableFuture<Void> start() {
+        next();
+        return done;
+    }
+
+    public Map<LoadOperation, LatencySamples> getSamples() {
+        return samples;
+    }
+
+    private void next() {
+        if (System.nanoTime() >= endNanos) {
+            done.complete(null);
+            return;
+        }
+        LoadOperation operation = pick();
+        long start = System.nanoTime();
+        CompletableFuture<Map<String, Integer>> response;
+        switch (operation) {
+            case CREATE_ACCOUNT:
+                response = service.createAccountAsync(newAccountPrefix + createdAccounts++, timeStamps)
+                    .thenApply(CreateAccountResponse::getTSMap);
+                break;
+            case TRANSFER_TO:
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int from = random.nextInt(accounts.size());
+                // any other account, so a transfer is never to itself
+                int to = (from + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+                response = service.transferToAsync(accounts.get(from), accounts.get(to), 1, timeStamps)
+                    .thenApply(TransferToResponse::getTSMap);
+                break;
+            default:
+                response = service.balanceAsync(accounts.get(ThreadLocalRandom.current().nextInt(accounts.size())), timeStamps)
+                    .thenApply(BalanceResponse::getValueTSMap);
+                break;
+        }
+        response.whenComplete((responseTimeStamps, throwable) -> {
+            long latency = System.nanoTime() - start;
+            LatencySamples operationSamples = samples.get(operation);
+            if (throwable == null) {
+                responseTimeStamps.forEach((qualifier, value) -> timeStamps.merge(qualifier, value, Math::max));
+                operationSamples.record(latency);
+            } else if (isUnavailable(throwable)) {
+                operationSamples.fail();
+            } else {
+                // the server answered, e.g. a transfer from an account without balance
+                operationSamples.record(latency);
+                operationSamples.reject();
+            }
+            next();
+        });
+    }
+
+    /** Picks an operation with the probability of its weight in the mix */
+    private LoadOperation pick() {
+        int total = config.getCreateWeight() + config.getTransferWeight() + config.getBalanceWeight();
+        int value = ThreadLocalRandom.current().nextInt(total);
+        if (value < config.getCreateWeight())
+            return LoadOperation.CREATE_ACCOUNT;
+        if (value < config.getCreateWeight() + config.getTransferWeight())
+            return LoadOperation.TRANSFER_TO;
+        return LoadOperation.BALANCE;
+    }
+
+    private static boolean isUnavailable(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        return cause instanceof UserException && IO_ERROR.equals(((UserException) cause).getErrorMessage());
+    }
+}
@@ -4,11 +4,14 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
 import pt.tecnico.distledger.userclient.exceptions.UserException;
 import static pt.tecnico.distledger.userclient.exceptions.UserException.ErrorMessages.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.*;
@@ -24,6 +27,12 @@ public class UserService {
     private static final String TRANSFER_TO_REQUEST = "TransferTo request sent: \n";
     private static final String TRANSFER_TO_RESPONSE = "TransferTo response received: \n";
 
+    private static final String TRANSFER_BATCH_REQUEST = "TransferBatch request sent: %s transfers";
+    private static final String TRANSFER_BATCH_RESPONSE = "TransferBatch response received";
+
+    private static final String CREATE_ACCOUNT_BATCH_REQUEST = "CreateAccountBatch request sent: %s accounts";
+    private static final String CREATE_ACCOUNT_BATCH_RESPONSE = "CreateAccountBatch response received";
+
     private static final String BALANCE_REQUEST = "Balance request sent: \n";
     private static final String BALANCE_RESPONSE = "Balance response received";
 
@@ -31,6 +40,7 @@ public class UserService {
     private String qualifier;
     private ManagedChannel channel;
     private UserServiceGrpc.UserServiceBlockingStub stub;
+    private UserServiceGrpc.UserServiceStub asyncStub;
 
     /**
      * Set flag to true to print debug messages.
@@ -51,6 +61,8 @@ public class UserService {
         this.channel = ManagedChannelBuilder.forTarget(address).usePlaintext().build();
         /** Creating a blocking stub for the channel */
         this.stub = UserServiceGrpc.newBlockingStub(this.channel);
+        /** Creating an asynchronous stub for the channel, used by the load generator */
+        this.asyncStub = UserServiceGrpc.newStub(this.channel);
         debug(USER_SERVICE_STARTED);
     }
 
@@ -83,10 +95,12 @@ public class UserService {
      * @param fromAccountID the ID of the account to transfer from
      * @param toAccountID the ID of the account to transfer to
      * @param amount the amount to transfer
+     * @param timeStamps the client timestamp
      * @throws UserExceptionif an error occurs during the process
      */
-    public Map<String, Integer> transferTo(String fromAccountID, String toAccountID, int amount) throws UserException {
-        TransferToRequest request = TransferToRequest.newBuilder().setAccountFrom(fromAccountID).setAccountTo(toAccountID).setAmount(amount).build();
+    public Map<String, Integer> transferTo(String fromAccountID, String toAccountID, int amount, Map<String, Integer> timeStamps) throws UserException {
+        TransferToRequest request = TransferToRequest.newBuilder().setAccountFrom(fromAccountID).setAccountTo(toAccountID).setAmount(amount)
+            .putAllPrevTS(timeStamps).build();
         debug(TRANSFER_TO_REQUEST + request);
         try {
             TransferToResponse response = stub.transferTo(request);
@@ -100,6 +114,56 @@ public class UserService {
         }
     }
 
+    /**
+     * Request from the user to create many accounts in a server with a single request
+     * 
+     * @param accountIDs the IDs of the accounts that will be created, in order
+     * @param timeStamps the client timestamp
+     * @return the result of each account and the timestamp covering the created ones
+     * @throws UserException if the whole batch was rejected or the connection with the server is not possible
+     */
+    public CreateAccountBatchResponse createAccountBatch(List<String> accountIDs, Map<String, Integer> timeStamps) throws UserException {
+        CreateAccountBatchRequest request = CreateAccountBatchRequest.newBuilder().addAllUserIds(accountIDs)
+            .putAllPrevTS(timeStamps).build();
+        debug(String.format(CREATE_ACCOUNT_BATCH_REQUEST, accountIDs.size()));
+        try {
+            CreateAccountBatchResponse response = stub.createAccountBatch(request);
+            debug(CREATE_ACCOUNT_BATCH_RESPONSE);
+            return response;
+        } catch (StatusRuntimeException exception) {
+            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode()) 
+                    && exception.getStatus().getDescription() == null) {
+                throw new UserException(IO_ERROR);
+            }
+            throw new UserException(exception.getStatus().getDescription());
+        }
+    }
+
+    /**
+     * Request from the user to execute many transfers with a single request
+     * 
+     * @param transfers the transfers, in order
+     * @param timeStamps the client timestamp
+     * @return the result of each transfer and the timestamp covering the accepted ones
+     * @throws UserException if the whole batch was rejected or the connection with the server is not possible
+     */
+    public TransferBatchResponse transferBatch(List<TransferItem> transfers, Map<String, Integer> timeStamps) throws UserException {
+        TransferBatchRequest request = TransferBatchRequest.newBuilder().addAllTransfers(transfers)
+            .putAllPrevTS(timeStamps).build();
+        debug(String.format(TRANSFER_BATCH_REQUEST, transfers.size()));
+        try {
+            TransferBatchResponse response = stub.transferBatch(request);
+            debug(TRANSFER_BATCH_RESPONSE);
+            return response;
+        } catch (StatusRuntimeException exception) {
+            if (exception.getStatus().getCode().equals(Status.UNAVAILABLE.getCode()) 
+                    && exception.getStatus().getDescription() == null) {
+                throw new UserException(IO_ERROR);
+            }
+            throw new UserException(exception.getStatus().getDescription());
+        }
+    }
+
     /**
      * Request from the user to get the balance of an account
      * 
@@ -125,6 +189,79 @@ public class UserService {
         }
     }
 
+    /**
+     * Asynchronous request to create a new account in a server
+     * 
+     * @param accountID the ID of the account that will be created
+     * @param timeStamps the client timestamp
+     * @return completes with the response, or exceptionally with a UserException
+     */
+    public CompletableFuture<CreateAccountResponse> createAccountAsync(String accountID, Map<String, Integer> timeStamps) {
+        CreateAccountRequest request = CreateAccountRequest.newBuilder().setUserId(accountID).putAllPrevTS(timeStamps).build();
+        debug(CREATE_ACCOUNT_REQUEST + request);
+        CompletableFuture<CreateAccountResponse> response = new CompletableFuture<>();
+        asyncStub.createAccount(request, completing(response));
+        return response;
+    }
+
+    /**
+     * Asynchronous request to transfer an amount from one account to another
+     * 
+     * @param fromAccountID the ID of the account to transfer from
+     * @param toAccountID the ID of the account to transfer to
+     * @param amount the amount to transfer
+     * @param timeStamps the client timestamp
+     * @return completes with the response, or exceptionally with a UserException
+     */
+    public CompletableFuture<TransferToResponse> transferToAsync(String fromAccountID, String toAccountID, int amount, 
+            Map<String, Integer> timeStamps) {
+        TransferToRequest request = TransferToRequest.newBuilder().setAccountFrom(fromAccountID).setAccountTo(toAccountID).setAmount(amount)
+            .putAllPrevTS(timeStamps).build();
+        debug(TRANSFER_TO_REQUEST + request);
+        CompletableFuture<TransferToResponse> response = new CompletableFuture<>();
+        asyncStub.transferTo(request, completing(response));
+        return response;
+    }
+
+    /**
+     * Asynchronous request to get the balance of an account
+     * 
+     * @param accountID the ID of the account
+     * @param timeStamps the client timestamp
+     * @return completes with the response, or exceptionally with a UserException
+     */
+    public CompletableFuture<BalanceResponse> balanceAsync(String accountID, Map<String, Integer> timeStamps) {
+        BalanceRequest request = BalanceRequest.newBuilder().setUserId(accountID).putAllPrevTS(timeStamps).build();
+        debug(BALANCE_REQUEST + request);
+        CompletableFuture<BalanceResponse> response = new CompletableFuture<>();
+        asyncStub.balance(request, completing(response));
+        return response;
+    }
+
+    /** Helper method to complete a future with the response of an asynchronous request */
+    private static <T> StreamObserver<T> completing(CompletableFuture<T> future) {
+        return new StreamObserver<T>() {
+            @Override
+            public void onNext(T response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Status status = Status.fromThrowable(throwable);
+                if (status.getCode().equals(Status.UNAVAILABLE.getCode()) && status.getDescription() == null)
+                    future.completeExceptionally(new UserException(IO_ERROR));
+                else
+                    future.completeExceptionally(new UserException(status.getDescription()));
+            }
+
+            @Override
+            public void onCompleted() {
+                // the response was already given to onNext
+            }
+        };
+    }
+
     /** Shut down the channel and the service */
     public void shutdown() {
         channel.shutdownNow();